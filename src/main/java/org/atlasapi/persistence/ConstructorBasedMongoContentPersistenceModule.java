@@ -87,6 +87,7 @@ import org.atlasapi.persistence.event.MessageQueueingEventWriter;
 import org.atlasapi.persistence.event.MongoEventStore;
 import org.atlasapi.persistence.ids.MongoSequentialIdGenerator;
 import org.atlasapi.persistence.logging.AdapterLog;
+import org.atlasapi.persistence.lookup.CanonicalUriIdCache;
 import org.atlasapi.persistence.lookup.LookupWriter;
 import org.atlasapi.persistence.lookup.TransitiveLookupWriter;
 import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
@@ -117,6 +118,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class ConstructorBasedMongoContentPersistenceModule implements ContentPersistenceModule {
 
     private static final String LOOKUP = "lookup";
+    private static final int CANONICAL_URI_ID_CACHE_SIZE = 100_000;
 
     private final ReadPreference readPreference;
     private final MongoClient mongo;
@@ -141,6 +143,11 @@ public class ConstructorBasedMongoContentPersistenceModule implements ContentPer
     // additional methods.
     private final Parameter processingConfig;
 
+    // shared by the resolvers and id-setting writers this module creates
+    private final CanonicalUriIdCache canonicalUriIds = CanonicalUriIdCache.create(
+            CANONICAL_URI_ID_CACHE_SIZE
+    );
+
     //This MongoContentPersistenceModule is intended to be used by projects without DI.
     public ConstructorBasedMongoContentPersistenceModule(
             MongoClient mongo,
@@ -284,7 +291,7 @@ public class ConstructorBasedMongoContentPersistenceModule implements ContentPer
         }
 
         contentWriter = new IdSettingContentWriter(
-                contentWriter, lookupBackedContentIdGenerator()
+                contentWriter, lookupBackedContentIdGenerator(), canonicalUriIds
         );
 
         return contentWriter;
@@ -306,7 +313,7 @@ public class ConstructorBasedMongoContentPersistenceModule implements ContentPer
         }
 
         contentWriter = new IdSettingContentWriter(
-                contentWriter, lookupBackedContentIdGenerator()
+                contentWriter, lookupBackedContentIdGenerator(), canonicalUriIds
         );
 
         return contentWriter;
@@ -338,7 +345,7 @@ public class ConstructorBasedMongoContentPersistenceModule implements ContentPer
     }
 
     public MongoContentResolver mongoContentResolver() {
-        return new MongoContentResolver(db, lookupStore());
+        return new MongoContentResolver(db, lookupStore(), canonicalUriIds);
     }
 
     public MongoLookupEntryStore lookupStore() {
@@ -119,11 +119,13 @@ public class MongoContentPersistenceModule implements ContentPersistenceModule {
 
     /**
      * We need both this methods here to initialized the cachedValue of BackgroundComputingValue
-     * that will be used by the CachingChannelStore.
+     * that will be used by the CachingChannelStore. The lookup store's indexes are also built
+     * here, before anything queries by equivalence set or alias.
      */
     @PostConstruct
     public void setUp() {
         channelStore().start();
+        lookupStore().ensureIndexes();
     }
 
     @PreDestroy
@@ -1,9 +1,11 @@
 package org.atlasapi.persistence;
 
+import com.google.common.collect.Lists;
 import com.mongodb.client.ClientSession;
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
+import java.util.List;
 
 /**
  * A layer of abstraction over a Mongo session to avoid having to expose the Mongo class as a return type
@@ -11,6 +13,7 @@ import java.io.Closeable;
 public class Transaction implements Closeable {
 
     @Nullable private final ClientSession session;
+    private final List<Runnable> afterCommit = Lists.newArrayList();
 
     private Transaction(@Nullable ClientSession session) {
         this.session = session;
@@ -31,15 +34,36 @@ public class Transaction implements Closeable {
         return session;
     }
 
+    /**
+     * Runs <code>action</code> once the writes made in this transaction have
+     * been committed, e.g. to discard copies of what they changed. Without a
+     * session writes are applied as they're made, so the action is run
+     * straight away. Actions are dropped if the transaction is closed without
+     * being committed.
+     */
+    public void afterCommit(Runnable action) {
+        if (session == null) {
+            action.run();
+        } else {
+            afterCommit.add(action);
+        }
+    }
+
     public void commit() {
         if (session != null) {
             session.commitTransaction();
+            List<Runnable> committed = Lists.newArrayList(afterCommit);
+            afterCommit.clear();
+            for (Runnable action : committed) {
+                action.run();
+            }
         }
     }
 
     @Override
     public void close() {
         if (session != null) {
+            afterCommit.clear();
             session.close();
         }
     }
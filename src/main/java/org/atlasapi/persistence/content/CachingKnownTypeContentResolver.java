@@ -0,0 +1,275 @@
+package org.atlasapi.persistence.content;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.atlasapi.media.entity.Clip;
+import org.atlasapi.media.entity.Container;
+import org.atlasapi.media.entity.Content;
+import org.atlasapi.media.entity.Encoding;
+import org.atlasapi.media.entity.Episode;
+import org.atlasapi.media.entity.Identified;
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Series;
+import org.atlasapi.media.entity.Version;
+import org.atlasapi.messaging.v3.EntityUpdatedMessage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.metabroadcast.common.ids.SubstitutionTableNumberCodec;
+import org.joda.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>
+ * A {@link KnownTypeContentResolver} which caches the content it resolves by
+ * canonical URI, reading through to a delegate for that it doesn't hold.
+ * Each caller is given its own copy of cached content, which it may change.
+ * </p>
+ *
+ * <p>
+ * The cache is bounded by the approximate size in bytes of the content it
+ * holds, estimated from the numbers of versions, broadcasts, encodings,
+ * locations, clips and child refs of each piece, since a brand or episode
+ * with many of them can outweigh many ordinary items.
+ * </p>
+ *
+ * <p>
+ * Content is discarded from the cache when it's written. Writes made by this
+ * node should be reported by registering this resolver as the
+ * {@link ContentListener} of an {@link EventFiringContentWriter}, and writes
+ * made by other nodes by passing the {@link EntityUpdatedMessage}s sent by
+ * {@link MessageQueueingContentWriter} to
+ * {@link #invalidate(EntityUpdatedMessage)}. Those messages name content by
+ * id, so the cached content is indexed by id too. Content also expires a
+ * fixed time after it is read, which bounds how stale a missed invalidation
+ * can leave it.
+ * </p>
+ *
+ * <p>
+ * Writing an item or series changes the refs its brand and series hold to
+ * it, so those are discarded along with it. A message naming an item that
+ * isn't cached can't say which its parents are, so they're left to expire.
+ * </p>
+ */
+public class CachingKnownTypeContentResolver implements KnownTypeContentResolver, ContentListener {
+
+    private static final Duration DEFAULT_EXPIRY = Duration.standardMinutes(10);
+
+    private static final int CONTENT_BYTES = 2048;
+    private static final int VERSION_BYTES = 256;
+    private static final int BROADCAST_BYTES = 512;
+    private static final int ENCODING_BYTES = 256;
+    private static final int LOCATION_BYTES = 512;
+    private static final int REF_BYTES = 128;
+
+    public static CachingKnownTypeContentResolver create(
+            KnownTypeContentResolver delegate,
+            long maximumBytes
+    ) {
+        return new CachingKnownTypeContentResolver(delegate, maximumBytes, DEFAULT_EXPIRY);
+    }
+
+    private final KnownTypeContentResolver delegate;
+    private final Cache<String, Content> contents;
+    // maintained alongside the contents, so an id is known for as long as
+    // its content is held
+    private final ConcurrentMap<Long, String> uris = Maps.newConcurrentMap();
+    private final SubstitutionTableNumberCodec entityIdCodec = SubstitutionTableNumberCodec.lowerCaseOnly();
+
+    // incremented on every invalidation, so that reads which overlap one
+    // don't cache what they read
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CachingKnownTypeContentResolver(
+            KnownTypeContentResolver delegate,
+            long maximumBytes,
+            Duration expiry
+    ) {
+        checkArgument(maximumBytes > 0, "maximum bytes must be positive");
+        this.delegate = checkNotNull(delegate);
+        this.contents = CacheBuilder.newBuilder()
+                .maximumWeight(maximumBytes)
+                .weigher((String uri, Content content) -> weightOf(content))
+                .expireAfterWrite(expiry.getMillis(), TimeUnit.MILLISECONDS)
+                .<String, Content>removalListener(removal -> {
+                    Content removed = removal.getValue();
+                    // the id of replaced content is indexed again as it is put
+                    if (removal.getCause() != RemovalCause.REPLACED
+                            && removed != null && removed.getId() != null) {
+                        uris.remove(removed.getId(), removal.getKey());
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    private static int weightOf(Content content) {
+        int weight = CONTENT_BYTES + REF_BYTES * content.getAliases().size();
+        for (Clip clip : content.getClips()) {
+            weight += weightOf(clip);
+        }
+        if (content instanceof Item) {
+            for (Version version : ((Item) content).getVersions()) {
+                weight += VERSION_BYTES + BROADCAST_BYTES * version.getBroadcasts().size();
+                for (Encoding encoding : version.getManifestedAs()) {
+                    weight += ENCODING_BYTES + LOCATION_BYTES * encoding.getAvailableAt().size();
+                }
+            }
+        }
+        if (content instanceof Container) {
+            weight += REF_BYTES * ((Container) content).getChildRefs().size();
+        }
+        return weight;
+    }
+
+    public CacheStats stats() {
+        return contents.stats();
+    }
+
+    @Override
+    public ResolvedContent findByLookupRefs(Iterable<LookupRef> lookupRefs) {
+        List<LookupRef> refs = ImmutableList.copyOf(lookupRefs);
+        Map<String, Content> cached = contents.getAllPresent(Lists.transform(refs, LookupRef::uri));
+
+        List<LookupRef> missing = Lists.newArrayList();
+        for (LookupRef ref : refs) {
+            if (!cached.containsKey(ref.uri())) {
+                missing.add(ref);
+            }
+        }
+        Map<String, Identified> read = Maps.newHashMap();
+        if (!missing.isEmpty()) {
+            long invalidationsBeforeRead = invalidations.get();
+            for (Identified identified : delegate.findByLookupRefs(missing).getAllResolvedResults()) {
+                read.put(identified.getCanonicalUri(), identified);
+            }
+            cache(read.values(), invalidationsBeforeRead);
+        }
+
+        ResolvedContent.ResolvedContentBuilder resolved = ResolvedContent.builder();
+        Set<String> resolvedUris = Sets.newHashSet();
+        for (LookupRef ref : refs) {
+            if (!resolvedUris.add(ref.uri())) {
+                continue;
+            }
+            Content content = cached.get(ref.uri());
+            if (content != null) {
+                resolved.put(ref.uri(), content.copy());
+            } else if (read.containsKey(ref.uri())) {
+                resolved.put(ref.uri(), read.get(ref.uri()));
+            }
+        }
+        return resolved.build();
+    }
+
+    /*
+     * Copies are cached, since the content read is given to the caller.
+     * Content is cached before checking for an invalidation during the read,
+     * so that one arriving between the check and the put can't be missed.
+     */
+    private void cache(Iterable<Identified> read, long invalidationsBeforeRead) {
+        List<String> cachedUris = Lists.newArrayList();
+        for (Identified identified : read) {
+            if (identified instanceof Content) {
+                Content content = (Content) identified;
+                contents.put(content.getCanonicalUri(), (Content) content.copy());
+                if (content.getId() != null) {
+                    uris.put(content.getId(), content.getCanonicalUri());
+                }
+                cachedUris.add(content.getCanonicalUri());
+            }
+        }
+        if (invalidations.get() != invalidationsBeforeRead) {
+            contents.invalidateAll(cachedUris);
+        }
+    }
+
+    /**
+     * Discards the cached content named by <code>message</code>.
+     */
+    public void invalidate(EntityUpdatedMessage message) {
+        invalidateIds(ImmutableList.of(entityIdCodec.decode(message.getEntityId()).longValue()));
+    }
+
+    /**
+     * Discards the cached content with the given ids, and the cached parents
+     * of that content.
+     */
+    public void invalidateIds(Iterable<Long> ids) {
+        invalidations.incrementAndGet();
+        List<String> invalidated = Lists.newArrayList();
+        for (Long id : ids) {
+            String uri = uris.get(id);
+            if (uri != null) {
+                invalidated.add(uri);
+                Content content = contents.asMap().get(uri);
+                if (content != null) {
+                    addParentUris(invalidated, content);
+                }
+            }
+        }
+        contents.invalidateAll(invalidated);
+    }
+
+    /**
+     * Discards the cached content with the given canonical URIs.
+     */
+    public void invalidateUris(Iterable<String> uris) {
+        invalidations.incrementAndGet();
+        contents.invalidateAll(uris);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        contents.invalidateAll();
+    }
+
+    @Override
+    public void itemChanged(Iterable<? extends Item> items, ChangeType changeType) {
+        invalidateUris(urisOf(items));
+    }
+
+    @Override
+    public void brandChanged(Iterable<? extends Container> containers, ChangeType changeType) {
+        invalidateUris(urisOf(containers));
+    }
+
+    private List<String> urisOf(Iterable<? extends Content> contents) {
+        List<String> uris = Lists.newArrayList();
+        for (Content content : contents) {
+            uris.add(content.getCanonicalUri());
+            addParentUris(uris, content);
+        }
+        return uris;
+    }
+
+    /*
+     * The containers holding refs to the content, which change as it's
+     * written.
+     */
+    private static void addParentUris(List<String> uris, Content content) {
+        if (content instanceof Item && ((Item) content).getContainer() != null) {
+            uris.add(((Item) content).getContainer().getUri());
+        }
+        if (content instanceof Episode && ((Episode) content).getSeriesRef() != null) {
+            uris.add(((Episode) content).getSeriesRef().getUri());
+        }
+        if (content instanceof Series && ((Series) content).getParent() != null) {
+            uris.add(((Series) content).getParent().getUri());
+        }
+    }
+}
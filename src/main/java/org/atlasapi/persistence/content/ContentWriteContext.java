@@ -0,0 +1,112 @@
+package org.atlasapi.persistence.content;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.atlasapi.media.entity.Container;
+import org.atlasapi.media.entity.Content;
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.persistence.media.entity.ContainerTranslator;
+import org.atlasapi.persistence.media.entity.ItemTranslator;
+
+import com.mongodb.DBObject;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>
+ * Memoises the translation of content for the duration of one write through
+ * a chain of {@link ContentWriter}s, so that the document and its hash are
+ * computed once, however many of the writers need them.
+ * </p>
+ *
+ * <p>
+ * Each writer enters the context of the write on the writing thread, and
+ * closes it when done. Writers called by another share its context, which
+ * ends when the first writer closes it. Content is translated when first
+ * asked for, so must not be changed later in the write in ways that would
+ * change its document.
+ * </p>
+ */
+public final class ContentWriteContext implements AutoCloseable {
+
+    private static final ThreadLocal<ContentWriteContext> current = new ThreadLocal<>();
+
+    public static ContentWriteContext enter() {
+        ContentWriteContext context = current.get();
+        if (context == null) {
+            context = new ContentWriteContext();
+            current.set(context);
+        }
+        context.depth++;
+        return context;
+    }
+
+    private final Map<Content, Translated> translated = new IdentityHashMap<>();
+    private int depth;
+
+    private ContentWriteContext() {
+    }
+
+    public Translated translated(Item item, ItemTranslator translator) {
+        checkOpen();
+        Translated memoised = translated.get(checkNotNull(item));
+        if (memoised == null) {
+            DBObject dbo = translator.toDB(item);
+            memoised = new Translated(dbo, translator.hashCodeOfTranslated(dbo));
+            translated.put(item, memoised);
+        }
+        return memoised;
+    }
+
+    public Translated translated(Container container, ContainerTranslator translator) {
+        checkOpen();
+        Translated memoised = translated.get(checkNotNull(container));
+        if (memoised == null) {
+            DBObject dbo = translator.toDB(container);
+            memoised = new Translated(dbo, translator.hashCodeOfTranslated(dbo));
+            translated.put(container, memoised);
+        }
+        return memoised;
+    }
+
+    private void checkOpen() {
+        checkState(depth > 0 && current.get() == this, "write context closed");
+    }
+
+    @Override
+    public void close() {
+        checkOpen();
+        if (--depth == 0) {
+            current.remove();
+        }
+    }
+
+    /**
+     * The document content is written as, and its hash, as computed by
+     * <code>hashCodeOf</code> on its translator.
+     */
+    public static final class Translated {
+
+        private final DBObject dbo;
+        private final String hash;
+
+        private Translated(DBObject dbo, String hash) {
+            this.dbo = dbo;
+            this.hash = hash;
+        }
+
+        /**
+         * The document to write, which the writer may change, e.g. to build
+         * its update, so is only to be written once.
+         */
+        public DBObject dbo() {
+            return dbo;
+        }
+
+        public String hash() {
+            return hash;
+        }
+    }
+}
@@ -14,7 +14,10 @@ permissions and limitations under the License. */
 
 package org.atlasapi.persistence.content;
 
+import java.util.Collection;
+
 import org.atlasapi.media.entity.Container;
+import org.atlasapi.media.entity.Content;
 import org.atlasapi.media.entity.Item;
 
 public interface ContentWriter {
@@ -23,4 +26,25 @@ public interface ContentWriter {
 	
 	void createOrUpdate(Container container);
 
+	/**
+	 * Writes each of the containers and items as the single writes would,
+	 * containers first so that items may refer to them. Writers able to write
+	 * the content together, e.g. with one round trip per collection, override
+	 * this.
+	 */
+	default void createOrUpdateAll(Collection<? extends Content> contents) {
+		for (Content content : contents) {
+			if (content instanceof Container) {
+				createOrUpdate((Container) content);
+			} else if (!(content instanceof Item)) {
+				throw new IllegalArgumentException("Not item or container: " + content.getCanonicalUri());
+			}
+		}
+		for (Content content : contents) {
+			if (content instanceof Item) {
+				createOrUpdate((Item) content);
+			}
+		}
+	}
+
 }
@@ -3,6 +3,7 @@ package org.atlasapi.persistence.content;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.atlasapi.equiv.ContentRef;
 import org.atlasapi.media.entity.Container;
@@ -10,11 +11,14 @@ import org.atlasapi.media.entity.Content;
 import org.atlasapi.media.entity.Item;
 import org.atlasapi.media.entity.LookupRef;
 import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.lookup.LookupWrite;
 import org.atlasapi.persistence.lookup.LookupWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 
 public class EquivalenceWritingContentWriter implements EquivalenceContentWriter {
@@ -54,23 +58,28 @@ public class EquivalenceWritingContentWriter implements EquivalenceContentWriter
 
     ) {
         if (writeEquivalencesIfEmpty || !content.getEquivalentTo().isEmpty()) {
-            Iterable<ContentRef> equivalentUris = Iterables.transform(content.getEquivalentTo(),
-                new Function<LookupRef, ContentRef>() {
-                    @Override
-                    public ContentRef apply(LookupRef input) {
-                        return new ContentRef(input.uri(), input.publisher(), null);
-                    }
-                });
-            equivalenceWriter.writeLookup(
-                    ContentRef.valueOf(content),
-                    equivalentUris,
-                    publishers == null
-                            ? publishers(content)
-                            : ImmutableSet.copyOf(Sets.union(publishers, publishers(content)))
-            );
+            LookupWrite write = lookupWriteFor(content, publishers);
+            equivalenceWriter.writeLookup(write.getSubject(), write.getEquivalents(), write.getPublishers());
         }
     }
 
+    private LookupWrite lookupWriteFor(Content content, @Nullable Set<Publisher> publishers) {
+        Iterable<ContentRef> equivalentUris = Iterables.transform(content.getEquivalentTo(),
+            new Function<LookupRef, ContentRef>() {
+                @Override
+                public ContentRef apply(LookupRef input) {
+                    return new ContentRef(input.uri(), input.publisher(), null);
+                }
+            });
+        return LookupWrite.of(
+                ContentRef.valueOf(content),
+                equivalentUris,
+                publishers == null
+                        ? publishers(content)
+                        : ImmutableSet.copyOf(Sets.union(publishers, publishers(content)))
+        );
+    }
+
     private ImmutableSet<Publisher> publishers(Content content) {
         return ImmutableSet.<Publisher>builder()
                 .add(content.getPublisher())
@@ -94,4 +103,22 @@ public class EquivalenceWritingContentWriter implements EquivalenceContentWriter
         timerLog.debug("TIMER EQ Local work finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",container.getCanonicalUri(), Thread.currentThread().getName());
     }
 
+    /**
+     * Writes the equivalences of the contents which have any together, in a
+     * single {@link LookupWriter#writeLookups(Collection)}.
+     */
+    @Override
+    public void createOrUpdateAll(Collection<? extends Content> contents) {
+        delegate.createOrUpdateAll(contents);
+        List<LookupWrite> writes = Lists.newArrayList();
+        for (Content content : contents) {
+            if (!content.getEquivalentTo().isEmpty()) {
+                writes.add(lookupWriteFor(content, null));
+            }
+        }
+        if (!writes.isEmpty()) {
+            equivalenceWriter.writeLookups(writes);
+        }
+    }
+
 }
@@ -1,12 +1,15 @@
 package org.atlasapi.persistence.content;
 
+import java.util.Collection;
 import java.util.Collections;
 
 import org.atlasapi.media.entity.Container;
+import org.atlasapi.media.entity.Content;
 import org.atlasapi.media.entity.Item;
 import org.atlasapi.persistence.content.ContentListener.ChangeType;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
 
 public class EventFiringContentWriter implements ContentWriter {
 
@@ -31,6 +34,19 @@ public class EventFiringContentWriter implements ContentWriter {
         return writtenItem;
 	}
     
+	@Override
+	public void createOrUpdateAll(Collection<? extends Content> contents) {
+		delegate.createOrUpdateAll(contents);
+		ImmutableList<Container> containers = ImmutableList.copyOf(Iterables.filter(contents, Container.class));
+		if (!containers.isEmpty()) {
+			listener.brandChanged(containers, ChangeType.CONTENT_UPDATE);
+		}
+		ImmutableList<Item> items = ImmutableList.copyOf(Iterables.filter(contents, Item.class));
+		if (!items.isEmpty()) {
+			listener.itemChanged(items, ChangeType.CONTENT_UPDATE);
+		}
+	}
+    
     private void notifyListener(Container container) {
     	listener.brandChanged(ImmutableList.<Container>of(container), ChangeType.CONTENT_UPDATE);
     }
@@ -1,8 +1,13 @@
 package org.atlasapi.persistence.content;
 
+import java.util.Collection;
+
 import org.atlasapi.media.entity.Container;
 import org.atlasapi.media.entity.Content;
 import org.atlasapi.media.entity.Item;
+import org.atlasapi.persistence.lookup.CanonicalUriIdCache;
+
+import com.google.common.base.Optional;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -10,16 +15,37 @@ public class IdSettingContentWriter implements ContentWriter {
 
     private final ContentWriter delegate;
     private final LookupBackedContentIdGenerator lookupBackedContentIdGenerator;
+    private final Optional<CanonicalUriIdCache> canonicalUriIds;
 
     public IdSettingContentWriter(ContentWriter delegate,
             LookupBackedContentIdGenerator lookupBackedContentIdGenerator) {
+        this(delegate, lookupBackedContentIdGenerator, Optional.absent());
+    }
+
+    /**
+     * Records the id of each piece of content written in
+     * <code>canonicalUriIds</code>, for resolvers sharing it, once the write
+     * succeeds.
+     */
+    public IdSettingContentWriter(ContentWriter delegate,
+            LookupBackedContentIdGenerator lookupBackedContentIdGenerator,
+            CanonicalUriIdCache canonicalUriIds) {
+        this(delegate, lookupBackedContentIdGenerator, Optional.of(canonicalUriIds));
+    }
+
+    private IdSettingContentWriter(ContentWriter delegate,
+            LookupBackedContentIdGenerator lookupBackedContentIdGenerator,
+            Optional<CanonicalUriIdCache> canonicalUriIds) {
         this.delegate = checkNotNull(delegate);
         this.lookupBackedContentIdGenerator = checkNotNull(lookupBackedContentIdGenerator);
+        this.canonicalUriIds = checkNotNull(canonicalUriIds);
     }
     
     @Override
     public Item createOrUpdate(Item item) {
-        return delegate.createOrUpdate(ensureId(item));
+        Item written = delegate.createOrUpdate(ensureId(item));
+        recordId(item);
+        return written;
     }
     
     private <T extends Content> T ensureId(T content) {
@@ -27,8 +53,30 @@ public class IdSettingContentWriter implements ContentWriter {
         return content;
     }
 
+    /*
+     * Only called once the content's been written, so that resolvers never
+     * see an id for content that failed to write.
+     */
+    private void recordId(Content content) {
+        if (content.getId() != null && canonicalUriIds.isPresent()) {
+            canonicalUriIds.get().put(content.getCanonicalUri(), content.getId());
+        }
+    }
+
     @Override
     public void createOrUpdate(Container container) {
         delegate.createOrUpdate(ensureId(container));
+        recordId(container);
+    }
+
+    @Override
+    public void createOrUpdateAll(Collection<? extends Content> contents) {
+        for (Content content : contents) {
+            ensureId(content);
+        }
+        delegate.createOrUpdateAll(contents);
+        for (Content content : contents) {
+            recordId(content);
+        }
     }
 }
@@ -19,6 +19,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
+import java.util.Collection;
 import java.util.UUID;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -62,29 +63,54 @@ public class MessageQueueingContentWriter implements ContentWriter {
 
     @Override
     public Item createOrUpdate(Item item) {
-        long lastTime = System.nanoTime();
-        timerLog.debug("TIMER MQ entered. {} {}",item.getId(), Thread.currentThread().getName());
-        Item writtenItem = contentWriter.createOrUpdate(item);
-        timerLog.debug("TIMER MQ Delegate finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
-        lastTime = System.nanoTime();
-        if (!item.hashChanged(itemTranslator.hashCodeOf(item))) {
-            log.debug("{} not changed", item.getCanonicalUri());
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            long lastTime = System.nanoTime();
+            timerLog.debug("TIMER MQ entered. {} {}",item.getId(), Thread.currentThread().getName());
+            Item writtenItem = contentWriter.createOrUpdate(item);
+            timerLog.debug("TIMER MQ Delegate finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
+            lastTime = System.nanoTime();
+            if (!item.hashChanged(context.translated(item, itemTranslator).hash())) {
+                log.debug("{} not changed", item.getCanonicalUri());
+                return writtenItem;
+            }
+            enqueueMessageUpdatedMessage(item, false);
+
+            timerLog.debug("TIMER MQ local work finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
             return writtenItem;
         }
-        enqueueMessageUpdatedMessage(item, false);
-
-        timerLog.debug("TIMER MQ local work finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
-        return writtenItem;
     }
 
     @Override
     public void createOrUpdate(Container container) {
-        contentWriter.createOrUpdate(container);
-        if (!container.hashChanged(containerTranslator.hashCodeOf(container))) {
-            log.debug("{} un-changed", container.getCanonicalUri());
-            return;
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            contentWriter.createOrUpdate(container);
+            if (!container.hashChanged(context.translated(container, containerTranslator).hash())) {
+                log.debug("{} un-changed", container.getCanonicalUri());
+                return;
+            }
+            enqueueMessageUpdatedMessage(container, false);
+        }
+    }
+
+    @Override
+    public void createOrUpdateAll(Collection<? extends Content> contents) {
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            contentWriter.createOrUpdateAll(contents);
+            for (Content content : contents) {
+                if (!content.hashChanged(hashOf(content, context))) {
+                    log.debug("{} not changed", content.getCanonicalUri());
+                    continue;
+                }
+                enqueueMessageUpdatedMessage(content, false);
+            }
+        }
+    }
+
+    private String hashOf(Content content, ContentWriteContext context) {
+        if (content instanceof Container) {
+            return context.translated((Container) content, containerTranslator).hash();
         }
-        enqueueMessageUpdatedMessage(container, false);
+        return context.translated((Item) content, itemTranslator).hash();
     }
 
     protected void enqueueMessageUpdatedMessage(final Content content, boolean messageIfEmptyEquivalences) {
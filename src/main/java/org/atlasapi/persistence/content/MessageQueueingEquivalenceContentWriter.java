@@ -51,29 +51,33 @@ public class MessageQueueingEquivalenceContentWriter extends MessageQueueingCont
 
     @Override
     public Item createOrUpdate(Item item, @Nullable Set<Publisher> publishers, boolean writeEquivalencesIfEmpty) {
-        long lastTime = System.nanoTime();
-        timerLog.debug("TIMER MQ entered. {} {}",item.getId(), Thread.currentThread().getName());
-        Item writtenItem = equivalenceContentWriter.createOrUpdate(item, publishers, writeEquivalencesIfEmpty);
-        timerLog.debug("TIMER MQ Delegate finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
-        lastTime = System.nanoTime();
-        if (!item.hashChanged(itemTranslator.hashCodeOf(item))) {
-            log.debug("{} not changed", item.getCanonicalUri());
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            long lastTime = System.nanoTime();
+            timerLog.debug("TIMER MQ entered. {} {}",item.getId(), Thread.currentThread().getName());
+            Item writtenItem = equivalenceContentWriter.createOrUpdate(item, publishers, writeEquivalencesIfEmpty);
+            timerLog.debug("TIMER MQ Delegate finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
+            lastTime = System.nanoTime();
+            if (!item.hashChanged(context.translated(item, itemTranslator).hash())) {
+                log.debug("{} not changed", item.getCanonicalUri());
+                return writtenItem;
+            }
+            enqueueMessageUpdatedMessage(item, writeEquivalencesIfEmpty);
+
+            timerLog.debug("TIMER MQ local work finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
             return writtenItem;
         }
-        enqueueMessageUpdatedMessage(item, writeEquivalencesIfEmpty);
-
-        timerLog.debug("TIMER MQ local work finished "+Long.toString((System.nanoTime() - lastTime)/1000000)+"ms. {} {}",item.getId(), Thread.currentThread().getName());
-        return writtenItem;
     }
 
     @Override
     public void createOrUpdate(Container container, @Nullable Set<Publisher> publishers, boolean writeEquivalencesIfEmpty) {
-        equivalenceContentWriter.createOrUpdate(container, publishers, writeEquivalencesIfEmpty);
-        if (!container.hashChanged(containerTranslator.hashCodeOf(container))) {
-            log.debug("{} un-changed", container.getCanonicalUri());
-            return;
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            equivalenceContentWriter.createOrUpdate(container, publishers, writeEquivalencesIfEmpty);
+            if (!container.hashChanged(context.translated(container, containerTranslator).hash())) {
+                log.debug("{} un-changed", container.getCanonicalUri());
+                return;
+            }
+            enqueueMessageUpdatedMessage(container, writeEquivalencesIfEmpty);
         }
-        enqueueMessageUpdatedMessage(container, writeEquivalencesIfEmpty);
     }
 
 }
@@ -0,0 +1,345 @@
+package org.atlasapi.persistence.content.mongo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+
+import org.atlasapi.persistence.media.entity.ChildRefTranslator;
+import org.atlasapi.persistence.media.entity.DescribedTranslator;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.metabroadcast.common.persistence.mongo.MongoConstants;
+import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.atlasapi.persistence.media.entity.ContainerTranslator.CHILDREN_KEY;
+
+/**
+ * <p>
+ * Holds changes made by a {@link ChildRefWriter} to the child refs of
+ * containers, so that repeated changes to one container's refs, e.g. as each
+ * episode of a brand is ingested, are written with a single update of the
+ * container rather than one per child.
+ * </p>
+ *
+ * <p>
+ * Changes are written on the buffer's own thread once the number of pending
+ * refs reaches the maximum, and otherwise within the maximum delay of being
+ * made, so a container read meanwhile may lack refs to children already
+ * written. They're also written when {@link #flush()} is called, and on
+ * {@link #shutDown()}.
+ * </p>
+ *
+ * <p>
+ * Should the buffer's thread fall behind, or its writes fail, so that twice
+ * the maximum number of refs are pending, the change that reaches that limit
+ * is followed by a flush on the caller's thread. The caller is held up until
+ * the changes are written, and is thrown any failure to write them, though
+ * its change is kept to be written later like the rest.
+ * </p>
+ *
+ * <p>
+ * The changed refs of a container are written with a single pipeline update,
+ * dropping the refs held to the changed children and appending those still
+ * included. <strong>Update pipelines need MongoDB 4.2 or later</strong>; an
+ * earlier server rejects every write, so a buffer mustn't be used against
+ * one. Readers never see a container part way
+ * through the change. A ref changed meanwhile by another writer is replaced,
+ * so the refs of a container should only be changed through one buffer at a
+ * time.
+ * </p>
+ */
+public class ChildRefBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(ChildRefBuffer.class);
+
+    private static final String REF_URI = ChildRefTranslator.URI_KEY;
+    private static final DBObject ID_ONLY = ChildRefWriter.ID_ONLY;
+
+    private final int maxPendingRefs;
+    private final int pendingRefsLimit;
+    private final ScheduledExecutorService schedule;
+    private final Object flushLock = new Object();
+
+    private Map<DBCollection, Map<String, PendingRefs>> pending = Maps.newHashMap();
+    private int pendingRefs;
+    private boolean flushRequested;
+
+    public ChildRefBuffer(int maxPendingRefs, Duration maxDelay) {
+        this(maxPendingRefs, maxDelay, Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("child-ref-buffer-%d")
+                        .setDaemon(true)
+                        .build()
+        ));
+    }
+
+    public ChildRefBuffer(int maxPendingRefs, Duration maxDelay, ScheduledExecutorService schedule) {
+        checkArgument(maxPendingRefs > 0, "maxPendingRefs must be positive");
+        checkArgument(maxDelay.getMillis() > 0, "maxDelay must be positive");
+        this.maxPendingRefs = maxPendingRefs;
+        this.pendingRefsLimit = maxPendingRefs > Integer.MAX_VALUE / 2
+                                ? Integer.MAX_VALUE
+                                : maxPendingRefs * 2;
+        this.schedule = checkNotNull(schedule);
+        this.schedule.scheduleWithFixedDelay(
+                this::scheduledFlush,
+                maxDelay.getMillis(),
+                maxDelay.getMillis(),
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    @PreDestroy
+    public void shutDown() {
+        schedule.shutdown();
+        flush();
+    }
+
+    /*
+     * Records the change to the container's ref to the child, replacing any
+     * pending change to the same ref. Returns the container's id field, or
+     * null if there's no such container. Past the limit of pending refs, the
+     * changes are written before returning, throwing any failure to do so.
+     */
+    @Nullable
+    DBObject update(DBCollection collection, String containerUri, String refUri, DBObject refDbo,
+            @Nullable DateTime childUpdated, boolean include) {
+        DBObject container = containerFor(collection, containerUri);
+        if (container == null) {
+            // read outside the lock, so as not to hold up other writers
+            container = collection.findOne(new BasicDBObject(MongoConstants.ID, containerUri), ID_ONLY);
+            if (container == null) {
+                return null;
+            }
+        }
+
+        boolean full;
+        boolean overLimit;
+        synchronized (this) {
+            Map<String, PendingRefs> containers = pending.get(collection);
+            if (containers == null) {
+                containers = Maps.newLinkedHashMap();
+                pending.put(collection, containers);
+            }
+            PendingRefs refs = containers.get(containerUri);
+            if (refs == null) {
+                refs = new PendingRefs(container);
+                containers.put(containerUri, refs);
+            }
+            if (refs.put(refUri, include ? refDbo : null, childUpdated)) {
+                pendingRefs++;
+            }
+            overLimit = pendingRefs >= pendingRefsLimit;
+            full = pendingRefs >= maxPendingRefs && !flushRequested && !overLimit;
+            if (full) {
+                flushRequested = true;
+            }
+        }
+        if (overLimit) {
+            flush();
+        } else if (full) {
+            // flushed on the buffer's thread, so a failure to write the
+            // changes held isn't reported to whoever made the last one
+            try {
+                schedule.execute(this::requestedFlush);
+            } catch (RejectedExecutionException e) {
+                requestedFlush();
+            }
+        }
+        return container;
+    }
+
+    private void requestedFlush() {
+        synchronized (this) {
+            flushRequested = false;
+        }
+        scheduledFlush();
+    }
+
+    @Nullable
+    private synchronized DBObject containerFor(DBCollection collection, String containerUri) {
+        Map<String, PendingRefs> containers = pending.get(collection);
+        PendingRefs refs = containers == null ? null : containers.get(containerUri);
+        return refs == null ? null : refs.container;
+    }
+
+    /**
+     * Writes all pending changes, with one bulk write per collection. Changes
+     * that fail to be written are kept, under any made since, to be written
+     * by the next flush.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<DBCollection, Map<String, PendingRefs>> flushing;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                flushing = pending;
+                pending = Maps.newHashMap();
+                pendingRefs = 0;
+            }
+            MongoException failure = null;
+            for (Map.Entry<DBCollection, Map<String, PendingRefs>> collectionRefs : flushing.entrySet()) {
+                try {
+                    write(collectionRefs.getKey(), collectionRefs.getValue());
+                } catch (MongoException e) {
+                    // writes are repeatable, so all of them are kept
+                    keep(collectionRefs.getKey(), collectionRefs.getValue());
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Failed to write buffered child refs", e);
+        }
+    }
+
+    /*
+     * Pipeline updates can't be made through the bulk write API of the
+     * driver, so the update command is run directly, with one update per
+     * container.
+     */
+    private void write(DBCollection collection, Map<String, PendingRefs> containers) {
+        List<DBObject> updates = Lists.newArrayList();
+        for (Map.Entry<String, PendingRefs> containerRefs : containers.entrySet()) {
+            updates.add(new BasicDBObject("q", new BasicDBObject(MongoConstants.ID, containerRefs.getKey()))
+                    .append("u", ImmutableList.of(new BasicDBObject("$set", changesTo(containerRefs.getValue())))));
+        }
+        CommandResult result = collection.getDB().command(new BasicDBObject("update", collection.getName())
+                .append("updates", updates)
+                .append("ordered", false));
+        result.throwOnError();
+        Object writeErrors = result.get("writeErrors");
+        if (writeErrors != null) {
+            throw new MongoException(String.format(
+                    "Failed to write child refs of containers in %s: %s",
+                    collection.getName(),
+                    writeErrors
+            ));
+        }
+    }
+
+    private BasicDBObject changesTo(PendingRefs refs) {
+        BasicDBObject unchanged = new BasicDBObject("$filter", new BasicDBObject(
+                "input", new BasicDBObject("$ifNull", ImmutableList.of("$" + CHILDREN_KEY, ImmutableList.of())))
+                .append("as", "ref")
+                .append("cond", new BasicDBObject("$not", ImmutableList.of(new BasicDBObject(
+                        MongoConstants.IN,
+                        ImmutableList.of("$$ref." + REF_URI, new BasicDBObject("$literal", ImmutableList.copyOf(refs.refs.keySet())))
+                )))));
+        BasicDBObject changes = new BasicDBObject(CHILDREN_KEY, new BasicDBObject(
+                "$concatArrays",
+                ImmutableList.of(unchanged, new BasicDBObject("$literal", refs.included()))
+        ));
+        if (refs.childUpdated != null) {
+            changes.append(DescribedTranslator.THIS_OR_CHILD_LAST_UPDATED_KEY, new BasicDBObject(
+                    "$max",
+                    ImmutableList.of("$" + DescribedTranslator.THIS_OR_CHILD_LAST_UPDATED_KEY, refs.childUpdated.toDate())
+            ));
+        }
+        return changes;
+    }
+
+    private synchronized void keep(DBCollection collection, Map<String, PendingRefs> unwritten) {
+        Map<String, PendingRefs> containers = pending.get(collection);
+        if (containers == null) {
+            containers = Maps.newLinkedHashMap();
+            pending.put(collection, containers);
+        }
+        for (Map.Entry<String, PendingRefs> containerRefs : unwritten.entrySet()) {
+            PendingRefs since = containers.get(containerRefs.getKey());
+            if (since == null) {
+                containers.put(containerRefs.getKey(), containerRefs.getValue());
+                pendingRefs += containerRefs.getValue().refs.size();
+            } else {
+                pendingRefs += since.keepUnder(containerRefs.getValue());
+            }
+        }
+    }
+
+    /*
+     * The pending refs of one container, by child URI, with null for those
+     * to be removed.
+     */
+    private static final class PendingRefs {
+
+        private final DBObject container;
+        private final Map<String, DBObject> refs = Maps.newLinkedHashMap();
+        @Nullable private DateTime childUpdated;
+
+        PendingRefs(DBObject container) {
+            this.container = container;
+        }
+
+        /*
+         * Returns true if the ref wasn't already pending.
+         */
+        boolean put(String refUri, @Nullable DBObject refDbo, @Nullable DateTime updated) {
+            boolean added = !refs.containsKey(refUri);
+            refs.put(refUri, refDbo);
+            childUpdated = later(childUpdated, updated);
+            return added;
+        }
+
+        /*
+         * Adds older refs where there's no newer one, returning how many.
+         */
+        int keepUnder(PendingRefs older) {
+            int kept = 0;
+            for (Map.Entry<String, DBObject> ref : older.refs.entrySet()) {
+                if (!refs.containsKey(ref.getKey())) {
+                    refs.put(ref.getKey(), ref.getValue());
+                    kept++;
+                }
+            }
+            childUpdated = later(childUpdated, older.childUpdated);
+            return kept;
+        }
+
+        List<DBObject> included() {
+            ImmutableList.Builder<DBObject> included = ImmutableList.builder();
+            for (DBObject ref : refs.values()) {
+                if (ref != null) {
+                    included.add(ref);
+                }
+            }
+            return included.build();
+        }
+
+        @Nullable
+        private static DateTime later(@Nullable DateTime current, @Nullable DateTime updated) {
+            if (current == null || (updated != null && updated.isAfter(current))) {
+                return updated;
+            }
+            return current;
+        }
+    }
+}
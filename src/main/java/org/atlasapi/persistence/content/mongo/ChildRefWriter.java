@@ -1,52 +1,87 @@
 package org.atlasapi.persistence.content.mongo;
 
-import com.google.common.collect.ImmutableList;
-import com.metabroadcast.common.ids.SubstitutionTableNumberCodec;
+import javax.annotation.Nullable;
+
 import com.metabroadcast.common.persistence.mongo.DatabasedMongo;
+import com.metabroadcast.common.persistence.mongo.MongoConstants;
+import com.metabroadcast.common.persistence.translator.TranslatorUtils;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import com.mongodb.ReadPreference;
-import org.atlasapi.media.entity.Brand;
 import org.atlasapi.media.entity.ChildRef;
-import org.atlasapi.media.entity.Container;
+import org.atlasapi.media.entity.EntityType;
 import org.atlasapi.media.entity.Episode;
 import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.ParentRef;
 import org.atlasapi.media.entity.Series;
 import org.atlasapi.media.entity.SeriesRef;
 import org.atlasapi.persistence.content.ContentCategory;
-import org.atlasapi.persistence.media.entity.ContainerTranslator;
+import org.atlasapi.persistence.media.entity.ChildRefTranslator;
+import org.atlasapi.persistence.media.entity.DescribedTranslator;
+import org.atlasapi.persistence.media.entity.IdentifiedTranslator;
+import org.atlasapi.persistence.media.entity.SeriesRefTranslator;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.Optional;
-
-import static com.google.common.base.Predicates.equalTo;
-import static com.google.common.base.Predicates.not;
-import static com.google.common.collect.Iterables.filter;
-import static com.metabroadcast.common.persistence.mongo.MongoBuilders.where;
 import static org.atlasapi.persistence.media.entity.ContainerTranslator.CHILDREN_KEY;
+import static org.atlasapi.persistence.media.entity.ContainerTranslator.FULL_SERIES_KEY;
 
+/**
+ * <p>
+ * Maintains the refs held by containers to their children, and by brands to
+ * their series, with atomic updates of just the changed ref. A ref to a child
+ * already held is replaced in place, a new one is appended, and one to a
+ * child no longer actively published is removed. Containers are never read
+ * or rewritten in full, so concurrent writes of children of the same
+ * container don't overwrite each other's refs.
+ * </p>
+ *
+ * <p>
+ * Refs are held in the order they were first added, or when changed through
+ * a {@link ChildRefBuffer}, last changed, and sorted as they are read by
+ * {@link org.atlasapi.persistence.media.entity.ContainerTranslator}.
+ * </p>
+ *
+ * <p>
+ * Given a buffer, changes to the refs containers hold to their children are
+ * held there and written together, while refs held by brands to their series
+ * are still written straight away.
+ * </p>
+ */
 public class ChildRefWriter {
 
-    private static final Logger timerLog = LoggerFactory.getLogger("TIMER");
     private static final Logger log = LoggerFactory.getLogger(ChildRefWriter.class);
-            
+
+    private static final String REF_URI = ChildRefTranslator.URI_KEY;
+    static final DBObject ID_ONLY = new BasicDBObject(IdentifiedTranslator.OPAQUE_ID, 1);
+
     private final DBCollection containers;
     private final DBCollection programmeGroups;
-    
-    private final ContainerTranslator containerTranslator;
+    @Nullable private final ChildRefBuffer buffer;
+
+    private final ChildRefTranslator childRefTranslator = new ChildRefTranslator();
+    private final SeriesRefTranslator seriesRefTranslator = new SeriesRefTranslator();
 
     public ChildRefWriter(DatabasedMongo mongo) {
+        this(mongo, null);
+    }
+
+    public ChildRefWriter(DatabasedMongo mongo, @Nullable ChildRefBuffer buffer) {
+        this.buffer = buffer;
         MongoContentTables mongoTables = new MongoContentTables(mongo);
         this.containers = mongoTables.collectionFor(ContentCategory.CONTAINER);
         this.programmeGroups = mongoTables.collectionFor(ContentCategory.PROGRAMME_GROUP);
-        this.containerTranslator = new ContainerTranslator(new SubstitutionTableNumberCodec());
         this.containers.setReadPreference(ReadPreference.primary());
         this.programmeGroups.setReadPreference(ReadPreference.primary());
     }
 
+    /**
+     * Adds a ref to the episode to its series and brand, and sets their ids
+     * on the episode's refs to them. Neither is changed if the brand can't be
+     * found, nor if the series can't be found.
+     */
     public void includeEpisodeInSeriesAndBrand(Episode episode) {
 
         if (Boolean.TRUE.equals(episode.getGenericDescription())
@@ -61,26 +96,15 @@ public class ChildRefWriter {
         String brandUri = episode.getContainer() != null ? episode.getContainer().getUri() : null;
         String seriesUri = episode.getSeriesRef() != null ? episode.getSeriesRef().getUri() : null;
 
-        Optional<Container> maybeBrand = Optional.empty();
-        Optional<Container> maybeSeries = Optional.empty();
-
-        if (brandUri != null) {
-            maybeBrand = getContainer(brandUri, containers);
-            if (!maybeBrand.isPresent()) {
-                throw new IllegalStateException(
-                        String.format(
-                                "Container %s not found for episode %s",
-                                brandUri,
-                                episode.getCanonicalUri()
-                        )
-                );
-            }
-            episode.setContainer(maybeBrand.get());
+        // the series is updated first, so check the brand exists beforehand
+        if (brandUri != null && seriesUri != null
+                && containers.findOne(new BasicDBObject(MongoConstants.ID, brandUri), ID_ONLY) == null) {
+            throw containerNotFound(brandUri, episode);
         }
 
         if (seriesUri != null) {
-            maybeSeries = getContainer(seriesUri, programmeGroups);
-            if (!maybeSeries.isPresent()) {
+            DBObject series = updateChildRef(programmeGroups, seriesUri, childRef, episode.isActivelyPublished());
+            if (series == null) {
                 throw new IllegalStateException(
                         String.format(
                                 "Series %s not found for episode %s",
@@ -89,115 +113,146 @@ public class ChildRefWriter {
                         )
                 );
             }
-            episode.setSeries((Series) maybeSeries.get());
+            episode.setSeriesRef(new ParentRef(seriesUri, idOf(series)));
         }
 
-        if (maybeBrand.isPresent()) {
-            addChildRef(childRef, containers, maybeBrand.get(), episode.isActivelyPublished());
-        }
-        if (maybeSeries.isPresent()) {
-            addChildRef(childRef, programmeGroups, maybeSeries.get(), episode.isActivelyPublished());
+        if (brandUri != null) {
+            DBObject brand = updateChildRef(containers, brandUri, childRef, episode.isActivelyPublished());
+            if (brand == null) {
+                throw containerNotFound(brandUri, episode);
+            }
+            episode.setParentRef(new ParentRef(brandUri, idOf(brand)));
         }
     }
 
+    private IllegalStateException containerNotFound(String brandUri, Episode episode) {
+        return new IllegalStateException(
+                String.format(
+                        "Container %s not found for episode %s",
+                        brandUri,
+                        episode.getCanonicalUri()
+                )
+        );
+    }
+
     public void includeSeriesInTopLevelContainer(Series series) {
         String containerUri = series.getParent().getUri();
-        
-        Optional<Container> maybeContainer = getContainer(containerUri, containers);
 
-        if (!maybeContainer.isPresent()) {
-            throw new IllegalStateException(String.format("Container %s not found in %s for series child ref %s", containerUri, containers.getName(), series.getCanonicalUri()));
-        }
-        Container container = maybeContainer.get();
-        if(!(container instanceof Brand)) {
+        SeriesRef seriesRef = series.seriesRef();
+        DBObject brand = updateRef(
+                containers,
+                new BasicDBObject(MongoConstants.ID, containerUri)
+                        .append(DescribedTranslator.TYPE_KEY, EntityType.BRAND.toString()),
+                FULL_SERIES_KEY,
+                seriesRef.getUri(),
+                seriesRefTranslator.toDBObject(seriesRef),
+                series.getThisOrChildLastUpdated(),
+                series.isActivelyPublished()
+        );
+
+        if (brand == null) {
+            if (containers.findOne(new BasicDBObject(MongoConstants.ID, containerUri), ID_ONLY) == null) {
+                throw new IllegalStateException(String.format("Container %s not found in %s for series child ref %s", containerUri, containers.getName(), series.getCanonicalUri()));
+            }
             throw new IllegalStateException(String.format("Container %s for series child ref %s is not brand", containerUri, series.getCanonicalUri()));
         }
-
-        Brand brand = (Brand) container;
-        List<SeriesRef> merged = mergeSeriesRefs(series.seriesRef(), brand.getSeriesRefs(), series.isActivelyPublished());
-        brand.setSeriesRefs(merged);
-        brand.setThisOrChildLastUpdated(laterOf(brand.getThisOrChildLastUpdated(), series.getThisOrChildLastUpdated()));
-        save(brand, containers);
-        series.setParent(brand);
+        series.setParentRef(new ParentRef(containerUri, idOf(brand)));
     }
 
-    private void save(Container container, DBCollection collection) {
-        if (!container.hashChanged(containerTranslator.hashCodeOf(container, true))) {
-            log.debug("Container {} hash not changed. Not writing.", container.getCanonicalUri());
-            return;
-        }
-        
-        log.debug("Container {} hash changed so writing to db. There are {} ChildRefs", 
-                container.getCanonicalUri(), container.getChildRefs().size());
-        Long startTime = System.nanoTime();
-        timerLog.debug("TIMER CCR saving {}. {}", String.format("%s kids=%s equiv=%s to %s",container.getCanonicalUri(), container.getChildRefs().size(), container.getEquivalentTo().size(),collection.getName()), Thread.currentThread().getName());
-        collection.save(containerTranslator.toDBO(container, true));
-        timerLog.debug("TIMER CCR saving took {}ms. {}", (System.nanoTime() - startTime)/1000000, Thread.currentThread().getName());
-
-    }
+    public void includeItemInTopLevelContainer(Item item) {
+        String containerUri = item.getContainer().getUri();
+        ChildRef ref = item.childRef();
 
-    private DateTime laterOf(DateTime left, DateTime right) {
-        if (left == null) {
-            return right;
-        }
-        if (right == null) {
-            return left;
+        DBObject container = updateChildRef(containers, containerUri, ref, item.isActivelyPublished());
+        if (container == null) {
+            throw new IllegalStateException(String.format("Container %s not found in %s for child ref %s", containerUri, containers.getName(), ref.getUri()));
         }
-        return left.isAfter(right) ? left : right;
+        item.setParentRef(new ParentRef(containerUri, idOf(container)));
     }
 
-    public void includeItemInTopLevelContainer(Item item) {
-        includeChildRefInContainer(item, item.childRef(), containers, CHILDREN_KEY, item.isActivelyPublished());
+    /**
+     * Writes any changes to child refs held in the buffer.
+     */
+    public void flush() {
+        if (buffer != null) {
+            buffer.flush();
+        }
     }
 
-    private void includeChildRefInContainer(Item item, ChildRef ref, DBCollection collection, String key, boolean activelyPublished) {
-
-        String containerUri = item.getContainer().getUri();
-        Optional<Container> maybeContainer = getContainer(containerUri, collection);
-
-        if (maybeContainer.isPresent()) {
-            Container container = maybeContainer.get();
-            addChildRef(ref, collection, container, item.isActivelyPublished());
-            item.setContainer(container);
-        } else {
-            throw new IllegalStateException(String.format("Container %s not found in %s for child ref %s", containerUri, collection.getName(), ref.getUri()));
+    @Nullable
+    private DBObject updateChildRef(DBCollection collection, String containerUri, ChildRef ref,
+            boolean activelyPublished) {
+        if (buffer != null) {
+            return buffer.update(
+                    collection,
+                    containerUri,
+                    ref.getUri(),
+                    childRefTranslator.toDBObject(ref),
+                    ref.getUpdated(),
+                    activelyPublished
+            );
         }
+        return updateRef(
+                collection,
+                new BasicDBObject(MongoConstants.ID, containerUri),
+                CHILDREN_KEY,
+                ref.getUri(),
+                childRefTranslator.toDBObject(ref),
+                ref.getUpdated(),
+                activelyPublished
+        );
     }
 
-    private void addChildRef(ChildRef ref, DBCollection collection, Container container, boolean activelyPublished) {
-        List<ChildRef> merged = mergeChildRefs(ref, container.getChildRefs(), activelyPublished);
-        container.setThisOrChildLastUpdated(laterOf(container.getThisOrChildLastUpdated(), ref.getUpdated()));
-        container.setChildRefs(merged);
-        save(container, collection);
+    /*
+     * Replaces the ref with the same URI held in the field of the container
+     * matching the query, appends it if there's none, or removes it if the
+     * child isn't actively published. The container's thisOrChildLastUpdated
+     * is brought up to the child's. Returns the container's id field, or
+     * null if no container matches.
+     */
+    @Nullable
+    private DBObject updateRef(DBCollection collection, DBObject container, String field,
+            String refUri, DBObject refDbo, @Nullable DateTime childUpdated, boolean include) {
+        String refUriField = field + "." + REF_URI;
+        if (!include) {
+            return update(collection, container, childUpdated,
+                    "$pull", new BasicDBObject(field, new BasicDBObject(REF_URI, refUri)));
+        }
+        DBObject replaced = update(collection, copy(container).append(refUriField, refUri), childUpdated,
+                MongoConstants.SET, new BasicDBObject(field + ".$", refDbo));
+        if (replaced != null) {
+            return replaced;
+        }
+        DBObject appended = update(collection,
+                copy(container).append(refUriField, new BasicDBObject("$ne", refUri)), childUpdated,
+                "$push", new BasicDBObject(field, refDbo));
+        if (appended != null) {
+            return appended;
+        }
+        // either there's no such container, or the ref was appended since
+        return update(collection, copy(container).append(refUriField, refUri), childUpdated,
+                MongoConstants.SET, new BasicDBObject(field + ".$", refDbo));
     }
 
-    private List<ChildRef> mergeChildRefs(ChildRef newChildRef, Iterable<ChildRef> currentChildRefs, boolean activelyPublished) {
-        // filter out new refs so they can  be overwritten.
-        currentChildRefs = filter(currentChildRefs, not(equalTo(newChildRef)));
-        if (activelyPublished) {
-            return ChildRef.dedupeAndSort(ImmutableList.<ChildRef> builder().addAll(currentChildRefs).add(newChildRef).build());
-        } else {
-            return ChildRef.dedupeAndSort(ImmutableList.<ChildRef> builder().addAll(currentChildRefs).build());
+    @Nullable
+    private DBObject update(DBCollection collection, DBObject query, @Nullable DateTime childUpdated,
+            String operator, DBObject operand) {
+        BasicDBObject update = new BasicDBObject(operator, operand);
+        if (childUpdated != null) {
+            update.append("$max", new BasicDBObject(
+                    DescribedTranslator.THIS_OR_CHILD_LAST_UPDATED_KEY,
+                    childUpdated.toDate()
+            ));
         }
-        
+        return collection.findAndModify(query, ID_ONLY, null, false, update, false, false);
     }
-    
-    private List<SeriesRef> mergeSeriesRefs(SeriesRef newSeriesRef, Iterable<SeriesRef> currentSeriesRefs, Boolean activelyPublished) {
-        // filter out new refs so they can  be overwritten.
-        currentSeriesRefs = filter(currentSeriesRefs, not(equalTo(newSeriesRef)));
-        if(activelyPublished) {
-            return SeriesRef.dedupeAndSort(ImmutableList.<SeriesRef>builder().addAll(currentSeriesRefs).add(newSeriesRef).build());
-        } else {
-            return SeriesRef.dedupeAndSort(ImmutableList.<SeriesRef>builder().addAll(currentSeriesRefs).build());
-        }
+
+    private BasicDBObject copy(DBObject query) {
+        return new BasicDBObject(query.toMap());
     }
 
-    private Optional<Container> getContainer(String canonicalUri, DBCollection collection) {
-        DBObject dbo = collection.findOne(where().idEquals(canonicalUri).build());
-        if (dbo == null) {
-            return Optional.empty();
-        }
-        return Optional.ofNullable(containerTranslator.fromDB(dbo, true));
+    @Nullable
+    private Long idOf(DBObject container) {
+        return TranslatorUtils.toLong(container, IdentifiedTranslator.OPAQUE_ID);
     }
-    
 }
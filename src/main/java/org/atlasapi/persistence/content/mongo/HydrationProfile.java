@@ -0,0 +1,132 @@
+package org.atlasapi.persistence.content.mongo;
+
+import java.util.Collections;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.Content;
+import org.atlasapi.persistence.media.entity.ContainerTranslator;
+import org.atlasapi.persistence.media.entity.ContentTranslator;
+import org.atlasapi.persistence.media.entity.DescribedTranslator;
+import org.atlasapi.persistence.media.entity.IdentifiedTranslator;
+import org.atlasapi.persistence.media.entity.ItemTranslator;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * <p>
+ * How much of each content document is read, so that callers needing only
+ * e.g. titles and images don't read and translate the versions, people,
+ * clips and so on of every piece of content.
+ * </p>
+ *
+ * <p>
+ * Fields outside the profile are left out of the documents read, and are
+ * unset on the content translated from them. Content read with a partial
+ * profile can't be written back, since writing it would drop those fields.
+ * </p>
+ */
+public enum HydrationProfile {
+
+    /**
+     * URI, id, type and publisher.
+     */
+    IDENTITY(ImmutableSet.of(
+            IdentifiedTranslator.ID,
+            IdentifiedTranslator.OPAQUE_ID,
+            IdentifiedTranslator.CURIE,
+            IdentifiedTranslator.LAST_UPDATED,
+            DescribedTranslator.TYPE_KEY,
+            DescribedTranslator.PUBLISHER_KEY,
+            DescribedTranslator.ACTIVELY_PUBLISHED_KEY
+    )),
+
+    /**
+     * As {@link #IDENTITY}, with titles, descriptions, images, genres,
+     * aliases, parents and episode and series numbers.
+     */
+    SUMMARY(ImmutableSet.<String>builder()
+            .addAll(IDENTITY.fields)
+            .add(
+                    IdentifiedTranslator.ALIASES,
+                    IdentifiedTranslator.IDS,
+                    DescribedTranslator.TITLE_KEY,
+                    DescribedTranslator.DESCRIPTION_KEY,
+                    DescribedTranslator.SHORT_DESC_KEY,
+                    DescribedTranslator.MEDIUM_DESC_KEY,
+                    DescribedTranslator.LONG_DESC_KEY,
+                    DescribedTranslator.IMAGE_KEY,
+                    DescribedTranslator.IMAGES_KEY,
+                    DescribedTranslator.THUMBNAIL_KEY,
+                    DescribedTranslator.GENRES_KEY,
+                    DescribedTranslator.MEDIA_TYPE_KEY,
+                    DescribedTranslator.SPECIALIZATION_KEY,
+                    DescribedTranslator.THIS_OR_CHILD_LAST_UPDATED_KEY,
+                    ContentTranslator.YEAR_KEY,
+                    ItemTranslator.CONTAINER,
+                    ItemTranslator.CONTAINER_ID,
+                    ItemTranslator.SERIES,
+                    ItemTranslator.SERIES_ID,
+                    ItemTranslator.EPISODE_SERIES_URI_KEY,
+                    ItemTranslator.EPISODE_NUMBER,
+                    ContainerTranslator.SERIES_NUMBER_KEY
+            )
+            .build()),
+
+    /**
+     * The whole document.
+     */
+    FULL(null);
+
+    /*
+     * Content read with a partial profile, which writers check for before
+     * writing. Held weakly and by identity, so marking content neither keeps
+     * it alive nor depends on its equality, and leaves its read hash alone.
+     */
+    private static final Set<Content> partiallyRead = Collections.newSetFromMap(
+            new MapMaker().weakKeys().<Content, Boolean>makeMap()
+    );
+
+    /**
+     * Whether the content was read with a partial profile, so can't be
+     * written back.
+     */
+    public static boolean isPartiallyRead(Content content) {
+        return partiallyRead.contains(content);
+    }
+
+    static <C extends Content> C markPartiallyRead(C content) {
+        partiallyRead.add(content);
+        return content;
+    }
+
+    @Nullable private final Set<String> fields;
+
+    HydrationProfile(@Nullable Set<String> fields) {
+        this.fields = fields;
+    }
+
+    public boolean isPartial() {
+        return fields != null;
+    }
+
+    /**
+     * The fields to select when reading content with this profile, or null
+     * if the whole document is to be read.
+     */
+    @Nullable
+    public DBObject projection() {
+        if (fields == null) {
+            return null;
+        }
+        BasicDBObject projection = new BasicDBObject();
+        for (String field : fields) {
+            projection.append(field, 1);
+        }
+        return projection;
+    }
+}
@@ -77,13 +77,22 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
 
     @Override
     public Iterator<Content> listContent(ContentListingCriteria criteria){
+        return listContent(criteria, HydrationProfile.FULL);
+    }
+
+    /**
+     * As {@link #listContent(ContentListingCriteria)}, reading only the
+     * fields of <code>profile</code>.
+     */
+    public Iterator<Content> listContent(ContentListingCriteria criteria, HydrationProfile profile) {
+        checkNotNull(profile);
         List<Publisher> publishers = remainingPublishers(criteria);
 
         if(publishers.isEmpty()) {
             return Iterators.emptyIterator();
         }
 
-        return iteratorsFor(publishers, criteria);
+        return iteratorsFor(publishers, criteria, false, profile);
     }
 
     @Override
@@ -94,7 +103,7 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
             return Iterators.emptyIterator();
         }
 
-        Iterator<Content> contentIterator = iteratorsFor(publishers, criteria, true);
+        Iterator<Content> contentIterator = iteratorsFor(publishers, criteria, true, HydrationProfile.IDENTITY);
         Iterator<String> uriIterator = Iterators.transform(contentIterator,
                 Identified::getCanonicalUri
         );
@@ -102,13 +111,7 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
     }
 
     private Iterator<Content> iteratorsFor(final List<Publisher> publishers,
-            ContentListingCriteria criteria) {
-
-        return iteratorsFor(publishers, criteria, false);
-    }
-
-    private Iterator<Content> iteratorsFor(final List<Publisher> publishers,
-            ContentListingCriteria criteria, boolean fetchOnlyUris) {
+            ContentListingCriteria criteria, boolean fetchOnlyUris, final HydrationProfile profile) {
 
         final String uri = criteria.getProgress().getUri();
         final List<ContentCategory> initialCats = remainingTables(criteria);
@@ -140,7 +143,7 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
                     @Override
                     public DBCursor cursorFor(ContentCategory category) {
                         return contentTables.collectionFor(category)
-                                .find(queryForCategory(category, fetchOnlyUris))
+                                .find(queryForCategory(category, fetchOnlyUris), profile.projection())
                                 .batchSize(100)
                                 .sort(new MongoSortBuilder().ascending("publisher").ascending(MongoConstants.ID).build())
                                 .noCursorTimeout(true);
@@ -148,7 +151,7 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
 
                     @Override
                     public Function<DBObject, Content> translatorFor(ContentCategory contentCategory) {
-                        return toContentFunction(contentCategory);
+                        return toContentFunction(contentCategory, profile);
                     }
 
                 });
@@ -179,11 +182,24 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
 
     @Override
     public Iterator<Content> updatedSince(final Publisher publisher, final DateTime when) {
+        return updatedSince(publisher, when, HydrationProfile.FULL);
+    }
+
+    /**
+     * As {@link #updatedSince(Publisher, DateTime)}, reading only the fields
+     * of <code>profile</code>.
+     */
+    public Iterator<Content> updatedSince(final Publisher publisher, final DateTime when,
+            final HydrationProfile profile) {
+        checkNotNull(profile);
         return contentIterator(BRAND_SERIES_AND_ITEMS_TABLES, new ListingCursorBuilder<Content>() {
             @Override
             public DBCursor cursorFor(ContentCategory category) {
                 return contentTables.collectionFor(category)
-                            .find(where().fieldEquals("publisher", publisher.key()).fieldAfter("thisOrChildLastUpdated", when).build())
+                            .find(
+                                    where().fieldEquals("publisher", publisher.key()).fieldAfter("thisOrChildLastUpdated", when).build(),
+                                    profile.projection()
+                            )
                             .sort(sort().ascending("publisher").ascending("thisOrChildLastUpdated").build())
                             .batchSize(100)
                             .noCursorTimeout(true);
@@ -191,7 +207,7 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
 
             @Override
             public Function<DBObject, Content> translatorFor(ContentCategory contentCategory) {
-                return toContentFunction(contentCategory);
+                return toContentFunction(contentCategory, profile);
             }
         });
     }
@@ -339,4 +355,13 @@ public class MongoContentLister implements ContentLister, LastUpdatedContentFind
     private Function<DBObject, Content> toContentFunction(ContentCategory category) {
         return (Function<DBObject, Content>) TRANSLATORS.get(category);
     }
+
+    private Function<DBObject, Content> toContentFunction(ContentCategory category,
+            HydrationProfile profile) {
+        Function<DBObject, Content> translator = toContentFunction(category);
+        if (translator == null || !profile.isPartial()) {
+            return translator;
+        }
+        return dbo -> HydrationProfile.markPartiallyRead(translator.apply(dbo));
+    }
 }
@@ -1,9 +1,14 @@
 package org.atlasapi.persistence.content.mongo;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
 
 import org.atlasapi.media.entity.Brand;
 import org.atlasapi.media.entity.Container;
@@ -15,6 +20,7 @@ import org.atlasapi.media.entity.Series;
 import org.atlasapi.persistence.content.ContentCategory;
 import org.atlasapi.persistence.content.KnownTypeContentResolver;
 import org.atlasapi.persistence.content.ResolvedContent;
+import org.atlasapi.persistence.lookup.CanonicalUriIdCache;
 import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
 import org.atlasapi.persistence.media.entity.ContainerTranslator;
 import org.atlasapi.persistence.media.entity.DescribedTranslator;
@@ -23,11 +29,19 @@ import org.atlasapi.persistence.media.entity.ItemTranslator;
 import com.metabroadcast.common.ids.SubstitutionTableNumberCodec;
 import com.metabroadcast.common.persistence.mongo.DatabasedMongo;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableMap.Builder;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
@@ -46,34 +60,81 @@ public class MongoContentResolver implements KnownTypeContentResolver {
     private final ContainerTranslator containerTranslator;
     private final MongoContentTables contentTables;
     private final LookupEntryStore lookupEntryStore;
+    @Nullable private final CanonicalUriIdCache canonicalUriIds;
+    private final ListeningExecutorService readExecutor;
 
+    /**
+     * Ids of resolved content are read from the lookup store every time.
+     */
     public MongoContentResolver(DatabasedMongo mongo, LookupEntryStore lookupEntryStore) {
+        this(mongo, lookupEntryStore, null);
+    }
+
+    /**
+     * @param canonicalUriIds
+     *            - ids of resolved content, shared with writers assigning ids
+     *            so that content they've written is resolved without reading
+     *            its id from the lookup store, or null to read every id from
+     *            the lookup store.
+     */
+    public MongoContentResolver(
+            DatabasedMongo mongo,
+            LookupEntryStore lookupEntryStore,
+            @Nullable CanonicalUriIdCache canonicalUriIds
+    ) {
+        this(mongo, lookupEntryStore, canonicalUriIds, MoreExecutors.newDirectExecutorService());
+    }
+
+    /**
+     * Content requested from more than one collection is read with a query
+     * per collection, run on <code>readExecutor</code>, which should be
+     * bounded to limit the connections each resolution may hold at once.
+     */
+    public MongoContentResolver(
+            DatabasedMongo mongo,
+            LookupEntryStore lookupEntryStore,
+            @Nullable CanonicalUriIdCache canonicalUriIds,
+            ExecutorService readExecutor
+    ) {
+        this.readExecutor = MoreExecutors.listeningDecorator(readExecutor);
         this.contentTables = new MongoContentTables(mongo);
         SubstitutionTableNumberCodec idCodec = new SubstitutionTableNumberCodec();
         this.containerTranslator = new ContainerTranslator(idCodec);
         this.itemTranslator = new ItemTranslator(idCodec);
         this.lookupEntryStore = checkNotNull(lookupEntryStore);
+        this.canonicalUriIds = canonicalUriIds;
     }
 
+    /**
+     * Resolves the content in each collection with one query, running the
+     * queries on <code>readExecutor</code> when there's more than one.
+     * Results are in the order they were requested.
+     */
     public ResolvedContent findByLookupRefs(Iterable<LookupRef> lookupRefs) {
-        Builder<String, Identified> results = ImmutableMap.builder();
-        Set<String> foundUris = Sets.newHashSet();
-        Multimap<DBCollection, String> idsGroupedByTable = HashMultimap.create();
-        for (LookupRef lookupRef : lookupRefs) {
+        return findByLookupRefs(lookupRefs, HydrationProfile.FULL);
+    }
+
+    /**
+     * As {@link #findByLookupRefs(Iterable)}, reading only the fields of
+     * <code>profile</code>.
+     */
+    public ResolvedContent findByLookupRefs(Iterable<LookupRef> lookupRefs, HydrationProfile profile) {
+        checkNotNull(profile);
+        List<LookupRef> refs = ImmutableList.copyOf(lookupRefs);
+        Multimap<DBCollection, String> idsGroupedByTable = LinkedHashMultimap.create();
+        for (LookupRef lookupRef : refs) {
             idsGroupedByTable.put(contentTables.collectionFor(lookupRef.category()), lookupRef.uri());
         }
 
-        for (Entry<DBCollection, Collection<String>> lookupInOneTable : idsGroupedByTable.asMap().entrySet()) {
-
-            DBCursor found = lookupInOneTable.getKey().find(where().idIn(lookupInOneTable.getValue()).build());
-            if (found != null) {
-                for (DBObject dbo : found) {
-                    Identified model = toModel(dbo);
-                    if (!foundUris.contains(model.getCanonicalUri())) {
-                        results.put(model.getCanonicalUri(), model);
-                        foundUris.add(model.getCanonicalUri());
-                    }
-                }
+        Map<DBCollection, Map<String, Identified>> foundByTable = findInTables(idsGroupedByTable.asMap(), profile);
+
+        Builder<String, Identified> results = ImmutableMap.builder();
+        Set<String> foundUris = Sets.newHashSet();
+        for (LookupRef lookupRef : refs) {
+            Identified model = foundByTable.get(contentTables.collectionFor(lookupRef.category()))
+                    .get(lookupRef.uri());
+            if (model != null && foundUris.add(model.getCanonicalUri())) {
+                results.put(model.getCanonicalUri(), model);
             }
         }
 
@@ -83,6 +144,55 @@ public class MongoContentResolver implements KnownTypeContentResolver {
         return ResolvedContent.builder().putAll(res).build();
     }
 
+    private Map<DBCollection, Map<String, Identified>> findInTables(
+            Map<DBCollection, Collection<String>> idsByTable,
+            HydrationProfile profile
+    ) {
+        if (idsByTable.size() == 1) {
+            Entry<DBCollection, Collection<String>> lookupInOneTable = Iterables.getOnlyElement(idsByTable.entrySet());
+            return ImmutableMap.of(
+                    lookupInOneTable.getKey(),
+                    findInTable(lookupInOneTable.getKey(), lookupInOneTable.getValue(), profile)
+            );
+        }
+
+        Map<DBCollection, ListenableFuture<Map<String, Identified>>> queries = Maps.newLinkedHashMap();
+        try {
+            for (Entry<DBCollection, Collection<String>> lookupInOneTable : idsByTable.entrySet()) {
+                queries.put(lookupInOneTable.getKey(), readExecutor.submit(
+                        () -> findInTable(lookupInOneTable.getKey(), lookupInOneTable.getValue(), profile)
+                ));
+            }
+            ImmutableMap.Builder<DBCollection, Map<String, Identified>> found = ImmutableMap.builder();
+            for (Entry<DBCollection, ListenableFuture<Map<String, Identified>>> query : queries.entrySet()) {
+                found.put(query.getKey(), query.getValue().get());
+            }
+            return found.build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted resolving content", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            for (ListenableFuture<?> query : queries.values()) {
+                query.cancel(true);
+            }
+        }
+    }
+
+    private Map<String, Identified> findInTable(DBCollection table, Collection<String> ids,
+            HydrationProfile profile) {
+        Map<String, Identified> found = Maps.newHashMapWithExpectedSize(ids.size());
+        DBCursor cursor = table.find(where().idIn(ids).build(), profile.projection());
+        if (cursor != null) {
+            for (DBObject dbo : cursor) {
+                Identified model = toModel(dbo, profile);
+                found.put(model.getCanonicalUri(), model);
+            }
+        }
+        return found;
+    }
+
     public ResolvedContent findChildrenForParent(Brand brand) {
         return findChildrenForParent(brand.getCanonicalUri(), true);
     }
@@ -97,15 +207,23 @@ public class MongoContentResolver implements KnownTypeContentResolver {
     }
 
     public ResolvedContent findChildrenForParent(String parentUri, boolean isContainer) {
+        return findChildrenForParent(parentUri, isContainer, HydrationProfile.FULL);
+    }
+
+    public ResolvedContent findChildrenForParent(String parentUri, boolean isContainer,
+            HydrationProfile profile) {
         String fieldName = isContainer ? ItemTranslator.CONTAINER : ItemTranslator.SERIES;
         Builder<String, Identified> results = ImmutableMap.builder();
 
         DBCollection childrenCollection = contentTables.collectionFor(ContentCategory.CHILD_ITEM);
 
-        DBCursor found = childrenCollection.find(where().fieldEquals(fieldName, parentUri).build());
+        DBCursor found = childrenCollection.find(
+                where().fieldEquals(fieldName, parentUri).build(),
+                profile.projection()
+        );
         if (found != null) {
             for (DBObject dbo : found) {
-                Identified model = toModel(dbo);
+                Identified model = toModel(dbo, profile);
                 results.put(model.getCanonicalUri(), model);
             }
         }
@@ -136,7 +254,7 @@ public class MongoContentResolver implements KnownTypeContentResolver {
     }
 
     private void addIdsToResults(ImmutableMap<String, Identified> uriToIdentified) {
-        Map<String, Long> idsForCanonicalUris = lookupEntryStore.idsForCanonicalUris(uriToIdentified.keySet());
+        Map<String, Long> idsForCanonicalUris = idsFor(uriToIdentified.keySet());
         
         for(Entry<String, Identified> result : uriToIdentified.entrySet()) {
             Long id = idsForCanonicalUris.get(result.getKey());
@@ -147,6 +265,31 @@ public class MongoContentResolver implements KnownTypeContentResolver {
         }
     }
 
+    private Map<String, Long> idsFor(Set<String> uris) {
+        if (canonicalUriIds == null) {
+            return lookupEntryStore.idsForCanonicalUris(uris);
+        }
+        Map<String, Long> cached = canonicalUriIds.getAll(uris);
+        Set<String> missing = Sets.difference(uris, cached.keySet());
+        if (missing.isEmpty()) {
+            return cached;
+        }
+        Map<String, Long> read = lookupEntryStore.idsForCanonicalUris(ImmutableSet.copyOf(missing));
+        canonicalUriIds.putAll(read);
+        return ImmutableMap.<String, Long>builder()
+                .putAll(cached)
+                .putAll(read)
+                .build();
+    }
+
+    private Identified toModel(DBObject dbo, HydrationProfile profile) {
+        Identified model = toModel(dbo);
+        if (model instanceof Content && profile.isPartial()) {
+            HydrationProfile.markPartiallyRead((Content) model);
+        }
+        return model;
+    }
+
     private Identified toModel(DBObject dbo) {
         if(dbo == null) {
             return null;
@@ -10,7 +10,10 @@ import com.metabroadcast.common.persistence.mongo.DatabasedMongo;
 import com.metabroadcast.common.persistence.mongo.MongoConstants;
 import com.metabroadcast.common.persistence.mongo.MongoQueryBuilder;
 import com.metabroadcast.common.time.Clock;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
 import org.atlasapi.media.entity.Brand;
@@ -18,6 +21,7 @@ import org.atlasapi.media.entity.Broadcast;
 import org.atlasapi.media.entity.ChildRef;
 import org.atlasapi.media.entity.Clip;
 import org.atlasapi.media.entity.Container;
+import org.atlasapi.media.entity.Content;
 import org.atlasapi.media.entity.Encoding;
 import org.atlasapi.media.entity.Episode;
 import org.atlasapi.media.entity.Item;
@@ -29,6 +33,7 @@ import org.atlasapi.media.entity.SeriesRef;
 import org.atlasapi.media.entity.Version;
 import org.atlasapi.persistence.audit.PersistenceAuditLog;
 import org.atlasapi.persistence.content.ContentCategory;
+import org.atlasapi.persistence.content.ContentWriteContext;
 import org.atlasapi.persistence.content.ContentWriter;
 import org.atlasapi.persistence.lookup.NewLookupWriter;
 import org.atlasapi.persistence.media.entity.ContainerTranslator;
@@ -42,8 +47,13 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -116,6 +126,17 @@ public class MongoContentWriter implements ContentWriter {
     public MongoContentWriter(DatabasedMongo mongo, NewLookupWriter lookupStore,
             PersistenceAuditLog persistenceAuditLog, PlayerResolver playerResolver,
             ServiceResolver serviceResolver, Clock clock) {
+        this(mongo, lookupStore, persistenceAuditLog, playerResolver, serviceResolver, clock, null);
+    }
+
+    /**
+     * Holds changes to the refs containers hold to their children in the
+     * buffer, if given, to be written together. Batches written with
+     * {@link #createOrUpdateAll(Collection)} flush the buffer once written.
+     */
+    public MongoContentWriter(DatabasedMongo mongo, NewLookupWriter lookupStore,
+            PersistenceAuditLog persistenceAuditLog, PlayerResolver playerResolver,
+            ServiceResolver serviceResolver, Clock clock, @Nullable ChildRefBuffer childRefBuffer) {
 
         this.lookupStore = checkNotNull(lookupStore);
         this.clock = checkNotNull(clock);
@@ -130,7 +151,7 @@ public class MongoContentWriter implements ContentWriter {
         containers = contentTables.collectionFor(ContentCategory.CONTAINER);
         programmeGroups = contentTables.collectionFor(ContentCategory.PROGRAMME_GROUP);
 
-        this.childRefWriter = new ChildRefWriter(mongo);
+        this.childRefWriter = new ChildRefWriter(mongo, childRefBuffer);
         NumberToShortStringCodec idCodec = new SubstitutionTableNumberCodec();
         this.itemTranslator = new ItemTranslator(idCodec);
         this.containerTranslator = new ContainerTranslator(idCodec);
@@ -152,19 +173,128 @@ public class MongoContentWriter implements ContentWriter {
         this.programmeGroups = writer.programmeGroups;
         this.persistenceAuditLog = writer.persistenceAuditLog;
     }
+    /**
+     * Translates the item once, within the {@link ContentWriteContext} of the
+     * write, and writes that document if its hash has changed.
+     */
     @Override
     public Item createOrUpdate(Item item) {
         checkNotNull(item, "Tried to persist null item");
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            return createOrUpdate(item, context);
+        }
+    }
+
+    private Item createOrUpdate(Item item, ContentWriteContext context) {
+        ItemWrite write = prepareWrite(item, context);
+        if (write == null) {
+            return item;
+        }
+
+        write.collection.update(where().idEquals(item.getCanonicalUri()).build(), write.dbo, UPSERT, SINGLE);
+        if (write.removeFromTopLevelItems) {
+            remove(item.getCanonicalUri(), topLevelItems);
+        }
+
+        lookupStore.ensureLookup(item);
+
+        return item;
+    }
+
+    /**
+     * Writes the content as {@link #createOrUpdate(Container)} and
+     * {@link #createOrUpdate(Item)} would, containers first. Items are written
+     * with one unordered bulk write per collection, and their lookup entries
+     * ensured together. Refs to items are added to their containers one at a
+     * time, unless held in a {@link ChildRefBuffer}.
+     */
+    @Override
+    public void createOrUpdateAll(Collection<? extends Content> contents) {
+        List<Item> items = Lists.newArrayList();
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            for (Content content : contents) {
+                if (content instanceof Container) {
+                    createOrUpdate((Container) content);
+                } else if (content instanceof Item) {
+                    items.add((Item) content);
+                } else {
+                    throw new IllegalArgumentException("Not item or container: " + content.getCanonicalUri());
+                }
+            }
+            createOrUpdateAll(items, context);
+        }
+        childRefWriter.flush();
+    }
+
+    private void createOrUpdateAll(List<Item> items, ContentWriteContext context) {
+        Map<String, Item> written = Maps.newLinkedHashMap();
+        Map<String, ItemWrite> writes = Maps.newHashMap();
+        for (Item item : items) {
+            ItemWrite write = prepareWrite(item, context);
+            if (write != null) {
+                // the last write of an item wins, as it would written singly
+                written.remove(item.getCanonicalUri());
+                written.put(item.getCanonicalUri(), item);
+                writes.put(item.getCanonicalUri(), write);
+            }
+        }
+        if (written.isEmpty()) {
+            return;
+        }
+
+        BulkWriteOperation childWrites = children.initializeUnorderedBulkOperation();
+        BulkWriteOperation topLevelWrites = topLevelItems.initializeUnorderedBulkOperation();
+        boolean anyChildren = false;
+        boolean anyTopLevel = false;
+        Set<String> noLongerTopLevel = Sets.newHashSet();
+        for (Map.Entry<String, ItemWrite> uriAndWrite : writes.entrySet()) {
+            ItemWrite write = uriAndWrite.getValue();
+            DBObject query = where().idEquals(uriAndWrite.getKey()).build();
+            if (write.collection == children) {
+                childWrites.find(query).upsert().replaceOne(write.dbo);
+                anyChildren = true;
+            } else {
+                topLevelWrites.find(query).upsert().replaceOne(write.dbo);
+                anyTopLevel = true;
+            }
+            if (write.removeFromTopLevelItems) {
+                noLongerTopLevel.add(uriAndWrite.getKey());
+            }
+        }
+        if (anyChildren) {
+            childWrites.execute();
+        }
+        if (anyTopLevel) {
+            topLevelWrites.execute();
+        }
+        if (!noLongerTopLevel.isEmpty()) {
+            topLevelItems.remove(where().idIn(noLongerTopLevel).build());
+        }
 
+        lookupStore.ensureLookups(written.values());
+    }
+
+    private void checkNotPartial(Content content) {
+        checkArgument(!HydrationProfile.isPartiallyRead(content),
+                "%s was partially read, so can't be written", content.getCanonicalUri());
+    }
+
+    /*
+     * Does everything up to writing the item's document, returning the
+     * document and where to write it, or null if the item hasn't changed.
+     */
+    @Nullable
+    private ItemWrite prepareWrite(Item item, ContentWriteContext context) {
+        checkNotNull(item, "Tried to persist null item");
+        checkNotPartial(item);
         setThisOrChildLastUpdated(item);
         item.setLastFetched(clock.now());
 
-        MongoQueryBuilder where = where().fieldEquals(IdentifiedTranslator.ID, item.getCanonicalUri());
-
-        if (!item.hashChanged(itemTranslator.hashCodeOf(item))) {
+        ContentWriteContext.Translated translated = context.translated(item, itemTranslator);
+        if (!item.hashChanged(translated.hash())) {
             log.debug("Item {} hash not changed. Not writing.", item.getCanonicalUri());
             persistenceAuditLog.logNoWrite(item);
-            return item;
+            return null;
         }
 
         validateRefs(item);
@@ -172,7 +302,6 @@ public class MongoContentWriter implements ContentWriter {
         persistenceAuditLog.logWrite(item);
         log.debug("Item {} hash changed so writing to db", item.getCanonicalUri());
 
-        boolean itemOrParentlessEpisode = true;
         if (item instanceof Episode) {
             Episode episode = (Episode) item;
             boolean containerlessEpisodeAllowed = item.getPublisher() != null
@@ -187,33 +316,24 @@ public class MongoContentWriter implements ContentWriter {
             }
 
             if (episode.getSeriesRef() != null || episode.getContainer() != null) {
-                itemOrParentlessEpisode = false;
                 childRefWriter.includeEpisodeInSeriesAndBrand(episode);
-                DBObject dbo = itemTranslator.toDB(item);
-                children.update(where.build(), checkContainerRefs(dbo), UPSERT, SINGLE);
-
-                remove(item.getCanonicalUri(), topLevelItems);
+                return childWrite(item, translated);
             }
         }
-        if (itemOrParentlessEpisode) {
-            if (item.getContainer() != null) {
-
-                childRefWriter.includeItemInTopLevelContainer(item);
-                DBObject dbo = itemTranslator.toDB(item);
-                children.update(where.build(), checkContainerRefs(dbo), UPSERT, SINGLE);
-
-                remove(item.getCanonicalUri(), topLevelItems);
-            } else {
-                topLevelItems.update(where.build(), itemTranslator.toDB(item), UPSERT, SINGLE);
-
-                //disabled for now. need to remove the childref from the brand/series if enabled
-                //remove(item.getCanonicalUri(), children);
-            }
+        if (item.getContainer() != null) {
+            childRefWriter.includeItemInTopLevelContainer(item);
+            return childWrite(item, translated);
         }
 
-        lookupStore.ensureLookup(item);
+        //disabled for now. need to remove the childref from the brand/series if enabled
+        //remove(item.getCanonicalUri(), children);
+        return new ItemWrite(topLevelItems, translated.dbo(), false);
+    }
 
-        return item;
+    private ItemWrite childWrite(Item item, ContentWriteContext.Translated translated) {
+        DBObject dbo = translated.dbo();
+        itemTranslator.updateParentRefs(dbo, item);
+        return new ItemWrite(children, checkContainerRefs(dbo), true);
     }
 
     /**
@@ -321,7 +441,13 @@ public class MongoContentWriter implements ContentWriter {
         checkNotNull(container);
         checkArgument(container instanceof Brand || container instanceof Series,
                 "Not brand or series");
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            createOrUpdate(container, context);
+        }
+    }
 
+    private void createOrUpdate(Container container, ContentWriteContext context) {
+        checkNotPartial(container);
         Iterable<String> dbKeysToRemove = container instanceof Brand
                 ? getBrandKeysToRemove()
                 : getSeriesKeysToRemove();
@@ -329,7 +455,8 @@ public class MongoContentWriter implements ContentWriter {
         setThisOrChildLastUpdated(container);
         container.setLastFetched(clock.now());
 
-        if (!container.hashChanged(containerTranslator.hashCodeOf(container))) {
+        ContentWriteContext.Translated translated = context.translated(container, containerTranslator);
+        if (!container.hashChanged(translated.hash())) {
             log.debug("Container {} hash not changed. Not writing.", container.getCanonicalUri());
             persistenceAuditLog.logNoWrite(container);
             return;
@@ -342,7 +469,7 @@ public class MongoContentWriter implements ContentWriter {
 
         if (container instanceof Brand || isTopLevelSeries(container)) {
 
-            DBObject containerDbo = containerTranslator.toDB(container);
+            DBObject containerDbo = translated.dbo();
             createOrUpdateContainer(container, containers, containerDbo, dbKeysToRemove);
 
             // The series inside a brand cannot be top level items any more so we
@@ -360,7 +487,8 @@ public class MongoContentWriter implements ContentWriter {
         } else {
             Series series = (Series)container;
             childRefWriter.includeSeriesInTopLevelContainer(series);
-            DBObject dbo = containerTranslator.toDB(container);
+            DBObject dbo = translated.dbo();
+            containerTranslator.updateParentRef(dbo, series);
             checkContainerIdRef(dbo, ContainerTranslator.CONTAINER, ContainerTranslator.CONTAINER_ID);
             createOrUpdateContainer(container, programmeGroups, dbo, dbKeysToRemove);
             //this isn't a top-level series so ensure it's not in the container table.
@@ -464,6 +592,19 @@ public class MongoContentWriter implements ContentWriter {
         return current;
     }
 
+    private static final class ItemWrite {
+
+        private final DBCollection collection;
+        private final DBObject dbo;
+        private final boolean removeFromTopLevelItems;
+
+        ItemWrite(DBCollection collection, DBObject dbo, boolean removeFromTopLevelItems) {
+            this.collection = collection;
+            this.dbo = dbo;
+            this.removeFromTopLevelItems = removeFromTopLevelItems;
+        }
+    }
+
     protected class InnerMongoContentWriter extends MongoContentWriter {
 
         private final Iterable<String> brandKeysToRemove;
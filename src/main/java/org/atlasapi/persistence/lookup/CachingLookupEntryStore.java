@@ -0,0 +1,394 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.v3.EquivalenceChangeMessage;
+import org.atlasapi.persistence.Transaction;
+import org.atlasapi.persistence.content.listing.ContentListingProgress;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
+import org.atlasapi.persistence.lookup.entry.LookupEntryWriteListener;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.metabroadcast.common.query.Selection;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>
+ * A {@link LookupEntryStore} which caches the entries read by canonical URI
+ * and by id, reading through to a delegate for those it doesn't hold. All
+ * other reads, and all reads within a {@link Transaction}, go straight to the
+ * delegate.
+ * </p>
+ *
+ * <p>
+ * Entries are held once, by URI, with a separate index from id to URI. The
+ * cache is bounded by the total weight of the entries it holds, which grows
+ * with the size of their equivalence sets and aliases, since a single very
+ * large set can outweigh many ordinary ones.
+ * </p>
+ *
+ * <p>
+ * Entries written through this store are discarded from the cache once the
+ * write is committed. Writes made directly to the delegate by this node
+ * should be reported by registering this store as a
+ * {@link LookupEntryWriteListener}, e.g. with
+ * {@link org.atlasapi.persistence.lookup.mongo.MongoLookupEntryStore#addWriteListener},
+ * and writes made by other nodes either with
+ * {@link #invalidate(EquivalenceChangeMessage)} or by registering with a
+ * {@link org.atlasapi.persistence.lookup.mongo.MongoLookupChangeTailer}.
+ * Since those messages only name the subject and its neighbours, invalidating
+ * an entry also discards the cached entries for the other members of its
+ * equivalence set, before and after the change, reading the set from the
+ * delegate. Entries also expire a fixed time after they are read,
+ * which bounds how stale a missed invalidation can leave them.
+ * </p>
+ */
+public class CachingLookupEntryStore implements LookupEntryStore, LookupEntryWriteListener {
+
+    private static final Duration DEFAULT_EXPIRY = Duration.standardMinutes(10);
+
+    public static CachingLookupEntryStore create(LookupEntryStore delegate, long maximumWeight) {
+        return new CachingLookupEntryStore(delegate, maximumWeight, DEFAULT_EXPIRY);
+    }
+
+    private final LookupEntryStore delegate;
+    private final Cache<String, LookupEntry> entries;
+    private final Cache<Long, String> uris;
+
+    // incremented on every invalidation, so that reads which overlap one
+    // don't cache what they read
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public CachingLookupEntryStore(LookupEntryStore delegate, long maximumWeight, Duration expiry) {
+        checkArgument(maximumWeight > 0, "maximum weight must be positive");
+        this.delegate = checkNotNull(delegate);
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String uri, LookupEntry entry) -> weightOf(entry))
+                .expireAfterWrite(expiry.getMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.uris = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((Long id, String uri) -> 1)
+                .expireAfterWrite(expiry.getMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    private static int weightOf(LookupEntry entry) {
+        return 1
+                + entry.equivalents().size()
+                + entry.directEquivalents().getLookupRefs().size()
+                + entry.explicitEquivalents().getLookupRefs().size()
+                + entry.aliasUrls().size()
+                + entry.aliases().size();
+    }
+
+    /**
+     * Statistics of reads by canonical URI, and of the entries found through
+     * the id index.
+     */
+    public CacheStats stats() {
+        return entries.stats();
+    }
+
+    /**
+     * Statistics of reads by id, counting a hit only where the id's URI is
+     * known. The entry for the URI is then counted by {@link #stats()}.
+     */
+    public CacheStats idStats() {
+        return uris.stats();
+    }
+
+    /**
+     * Entries are returned in the order of <code>uris</code>, as the delegate
+     * returns them.
+     */
+    @Override
+    public Iterable<LookupEntry> entriesForCanonicalUris(Iterable<String> uris) {
+        Set<String> requested = ImmutableSet.copyOf(uris);
+        Map<String, LookupEntry> found = Maps.newHashMap(entries.getAllPresent(requested));
+        Set<String> missing = ImmutableSet.copyOf(Sets.difference(requested, found.keySet()));
+        if (!missing.isEmpty()) {
+            long invalidationsBeforeRead = invalidations.get();
+            List<LookupEntry> read = ImmutableList.copyOf(delegate.entriesForCanonicalUris(missing));
+            cache(read, invalidationsBeforeRead);
+            for (LookupEntry entry : read) {
+                found.put(entry.uri(), entry);
+            }
+        }
+        return inRequestOrder(requested, found);
+    }
+
+    /**
+     * Entries are returned in the order of <code>ids</code>, as the delegate
+     * returns them.
+     */
+    @Override
+    public Iterable<LookupEntry> entriesForIds(Iterable<Long> ids) {
+        Set<Long> requested = ImmutableSet.copyOf(ids);
+        Map<Long, LookupEntry> found = Maps.newHashMap();
+        Set<Long> missing = Sets.newLinkedHashSet();
+        for (Long id : requested) {
+            LookupEntry entry = cachedEntryFor(id, true);
+            if (entry != null) {
+                found.put(id, entry);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long invalidationsBeforeRead = invalidations.get();
+            List<LookupEntry> read = ImmutableList.copyOf(delegate.entriesForIds(missing));
+            cache(read, invalidationsBeforeRead);
+            for (LookupEntry entry : read) {
+                found.put(entry.id(), entry);
+            }
+        }
+        return inRequestOrder(requested, found);
+    }
+
+    private static <K> List<LookupEntry> inRequestOrder(Set<K> requested, Map<K, LookupEntry> found) {
+        ImmutableList.Builder<LookupEntry> ordered = ImmutableList.builder();
+        for (K key : requested) {
+            LookupEntry entry = found.get(key);
+            if (entry != null) {
+                ordered.add(entry);
+            }
+        }
+        return ordered.build();
+    }
+
+    @Nullable
+    private LookupEntry cachedEntryFor(Long id, boolean recordStats) {
+        String uri = recordStats ? uris.getIfPresent(id) : uris.asMap().get(id);
+        if (uri == null) {
+            return null;
+        }
+        LookupEntry entry = recordStats ? entries.getIfPresent(uri) : entries.asMap().get(uri);
+        // the entry may have been evicted, or replaced by one with another id
+        return entry != null && id.equals(entry.id()) ? entry : null;
+    }
+
+    /*
+     * Entries are cached before checking for an invalidation during the read,
+     * so that one arriving between the check and the put can't be missed.
+     */
+    private void cache(List<LookupEntry> read, long invalidationsBeforeRead) {
+        for (LookupEntry entry : read) {
+            entries.put(entry.uri(), entry);
+            if (entry.id() != null) {
+                uris.put(entry.id(), entry.uri());
+            }
+        }
+        if (invalidations.get() != invalidationsBeforeRead) {
+            for (LookupEntry entry : read) {
+                entries.invalidate(entry.uri());
+            }
+        }
+    }
+
+    /**
+     * Discards the cached entries for the subject of <code>message</code> and
+     * its neighbours, before and after the change, and for the other members
+     * of their equivalence sets.
+     */
+    public void invalidate(EquivalenceChangeMessage message) {
+        invalidateIds(ImmutableSet.<Long>builder()
+                .add(message.getSubjectId())
+                .addAll(message.getOutgoingIdsAdded())
+                .addAll(message.getOutgoingIdsRemoved())
+                .addAll(message.getOutgoingIdsUnchanged())
+                .build());
+    }
+
+    /**
+     * Discards the cached entries with the given ids, and those of the other
+     * members of their equivalence sets, as cached and as read from the
+     * delegate. An entry which isn't cached may still have cached members.
+     */
+    public void invalidateIds(Iterable<Long> ids) {
+        Set<Long> invalidatedIds = ImmutableSet.copyOf(ids);
+        invalidations.incrementAndGet();
+        Set<String> invalidated = Sets.newHashSet();
+        for (Long id : invalidatedIds) {
+            LookupEntry entry = cachedEntryFor(id, false);
+            if (entry != null) {
+                addSetUris(invalidated, entry);
+            }
+        }
+        for (LookupEntry entry : delegate.entriesForIds(invalidatedIds)) {
+            addSetUris(invalidated, entry);
+        }
+        entries.invalidateAll(invalidated);
+        uris.invalidateAll(invalidatedIds);
+    }
+
+    private void addSetUris(Set<String> uris, LookupEntry entry) {
+        uris.add(entry.uri());
+        for (LookupRef equivalent : entry.equivalents()) {
+            uris.add(equivalent.uri());
+        }
+    }
+
+    /**
+     * Discards the cached entries with the given canonical URIs.
+     */
+    public void invalidateUris(Iterable<String> uris) {
+        invalidations.incrementAndGet();
+        entries.invalidateAll(uris);
+    }
+
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        entries.invalidateAll();
+        uris.invalidateAll();
+    }
+
+    @Override
+    public void written(Iterable<LookupEntry> written) {
+        List<String> writtenUris = Lists.newArrayList();
+        for (LookupEntry entry : written) {
+            writtenUris.add(entry.uri());
+        }
+        invalidateUris(writtenUris);
+    }
+
+    @Override
+    public void missedWrites() {
+        invalidateAll();
+    }
+
+    @Override
+    public Transaction startTransaction() {
+        return delegate.startTransaction();
+    }
+
+    /*
+     * Written entries are discarded once the write is committed, since a read
+     * before then could cache the entries being replaced again.
+     */
+    @Override
+    public void store(LookupEntry entry) {
+        delegate.store(entry);
+        written(ImmutableList.of(entry));
+    }
+
+    @Override
+    public void store(Transaction transaction, LookupEntry entry) {
+        delegate.store(transaction, entry);
+        transaction.afterCommit(() -> written(ImmutableList.of(entry)));
+    }
+
+    @Override
+    public void storeAll(Transaction transaction, Collection<LookupEntry> entries) {
+        delegate.storeAll(transaction, entries);
+        List<LookupEntry> stored = ImmutableList.copyOf(entries);
+        transaction.afterCommit(() -> written(stored));
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForIdentifiers(Iterable<String> identifiers, boolean useAliases) {
+        return delegate.entriesForIdentifiers(identifiers, useAliases);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForAliases(Optional<String> namespace, Iterable<String> values) {
+        return delegate.entriesForAliases(namespace, values);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForAliases(
+            Optional<String> namespace,
+            Iterable<String> values,
+            boolean includeUnpublishedEntries
+    ) {
+        return delegate.entriesForAliases(namespace, values, includeUnpublishedEntries);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForAliases(
+            Optional<String> namespace,
+            Iterable<String> values,
+            @Nullable Iterable<Publisher> publishers,
+            boolean includeUnpublishedEntries
+    ) {
+        return delegate.entriesForAliases(namespace, values, publishers, includeUnpublishedEntries);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForCanonicalUris(Transaction transaction, Iterable<String> uris) {
+        return delegate.entriesForCanonicalUris(transaction, uris);
+    }
+
+    @Override
+    public Map<String, Set<String>> transitiveUrisFor(Transaction transaction, Iterable<String> uris) {
+        return delegate.transitiveUrisFor(transaction, uris);
+    }
+
+    @Override
+    public Map<String, Integer> equivalenceSetSizesFor(Transaction transaction, Iterable<String> uris) {
+        return delegate.equivalenceSetSizesFor(transaction, uris);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForEquivalenceSets(Transaction transaction, Iterable<String> setIds) {
+        return delegate.entriesForEquivalenceSets(transaction, setIds);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForIds(Transaction transaction, Iterable<Long> ids) {
+        return delegate.entriesForIds(transaction, ids);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForPublishers(Iterable<Publisher> publishers, Selection selection) {
+        return delegate.entriesForPublishers(publishers, selection);
+    }
+
+    @Override
+    public Iterable<LookupEntry> allEntriesForPublishers(
+            Iterable<Publisher> publishers,
+            ContentListingProgress progress
+    ) {
+        return delegate.allEntriesForPublishers(publishers, progress);
+    }
+
+    @Override
+    public Map<String, Long> idsForCanonicalUris(Iterable<String> uris) {
+        return delegate.idsForCanonicalUris(uris);
+    }
+
+    @Override
+    public Iterable<LookupEntry> updatedSince(Publisher publisher, DateTime dateTime) {
+        return delegate.updatedSince(publisher, dateTime);
+    }
+
+    @Override
+    public Iterable<LookupEntry> equivUpdatedSince(Publisher publisher, DateTime dateTime) {
+        return delegate.equivUpdatedSince(publisher, dateTime);
+    }
+}
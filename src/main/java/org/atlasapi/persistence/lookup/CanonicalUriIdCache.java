@@ -0,0 +1,217 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>
+ * A bounded, thread-safe cache of the ids of content by canonical URI.
+ * </p>
+ *
+ * <p>
+ * An id is never changed once assigned to a URI, so cached ids are never
+ * invalidated. Ids are held as primitive <code>long</code>s alongside interned
+ * URIs, in a fixed number of segments, each an open-addressed table of fixed
+ * capacity. When a segment is full the least recently read of its URIs,
+ * approximately, is evicted. Reads of a segment share its lock, marking the
+ * URIs they read in an atomic array, so they're never held up by each other.
+ * </p>
+ */
+public class CanonicalUriIdCache {
+
+    private static final int SEGMENTS = 64;
+
+    public static CanonicalUriIdCache create(int maximumSize) {
+        return new CanonicalUriIdCache(maximumSize);
+    }
+
+    private final Interner<String> uris = Interners.newWeakInterner();
+    private final Segment[] segments;
+
+    private CanonicalUriIdCache(int maximumSize) {
+        checkArgument(maximumSize >= SEGMENTS, "maximum size must be at least %s", SEGMENTS);
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maximumSize / SEGMENTS);
+        }
+    }
+
+    /**
+     * @return the cached ids of those of <code>uris</code> which have one.
+     */
+    public Map<String, Long> getAll(Iterable<String> uris) {
+        ImmutableMap.Builder<String, Long> ids = ImmutableMap.builder();
+        for (String uri : ImmutableSet.copyOf(uris)) {
+            int hash = hash(uri);
+            Segment segment = segmentFor(hash);
+            segment.lock.readLock().lock();
+            try {
+                int slot = segment.slotOf(uri, hash);
+                if (slot >= 0) {
+                    segment.referenced.set(slot, 1);
+                    ids.put(uri, segment.ids[slot]);
+                }
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return ids.build();
+    }
+
+    public void put(String uri, long id) {
+        checkNotNull(uri);
+        int hash = hash(uri);
+        Segment segment = segmentFor(hash);
+        segment.lock.writeLock().lock();
+        try {
+            segment.put(uri, hash, id);
+        } finally {
+            segment.lock.writeLock().unlock();
+        }
+    }
+
+    public void putAll(Map<String, Long> ids) {
+        for (Map.Entry<String, Long> id : ids.entrySet()) {
+            if (id.getValue() != null) {
+                put(id.getKey(), id.getValue());
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            segment.lock.readLock().lock();
+            try {
+                size += segment.size;
+            } finally {
+                segment.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS))];
+    }
+
+    // Fibonacci hashing; segments are chosen by the high bits
+    private static int hash(String uri) {
+        return uri.hashCode() * 0x9E3779B9;
+    }
+
+    // the low bits of the product are weak, so fold in the high ones for slots
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final int maximumSize;
+
+        // a null key marks an empty slot
+        private final String[] keys;
+        private final long[] ids;
+        // set on read, under the read lock, and cleared as the clock hand
+        // passes, so that recently read URIs survive one more sweep
+        private final AtomicIntegerArray referenced;
+        private int size;
+        private int hand;
+
+        Segment(int maximumSize) {
+            this.maximumSize = maximumSize;
+            int capacity = Integer.highestOneBit(Math.max(2, maximumSize * 4 / 3) - 1) << 1;
+            this.keys = new String[capacity];
+            this.ids = new long[capacity];
+            this.referenced = new AtomicIntegerArray(capacity);
+        }
+
+        /*
+         * Returns the slot holding the URI, or the bitwise complement of the
+         * empty slot where it would be inserted.
+         */
+        int slotOf(String uri, int hash) {
+            int mask = keys.length - 1;
+            int slot = spread(hash) & mask;
+            while (keys[slot] != null) {
+                if (keys[slot].equals(uri)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return ~slot;
+        }
+
+        void put(String uri, int hash, long id) {
+            int slot = slotOf(uri, hash);
+            if (slot >= 0) {
+                ids[slot] = id;
+                return;
+            }
+            if (size == maximumSize) {
+                evict();
+                slot = slotOf(uri, hash);
+            }
+            slot = ~slot;
+            keys[slot] = uris.intern(uri);
+            ids[slot] = id;
+            referenced.set(slot, 0);
+            size++;
+        }
+
+        private void evict() {
+            int mask = keys.length - 1;
+            while (true) {
+                int slot = hand;
+                hand = (hand + 1) & mask;
+                if (keys[slot] == null) {
+                    continue;
+                }
+                if (referenced.getAndSet(slot, 0) == 1) {
+                    continue;
+                }
+                removeAt(slot);
+                return;
+            }
+        }
+
+        /*
+         * Backward-shift deletion: entries later in the probe sequence are
+         * moved into the gap, unless their home slot lies between the gap
+         * and their current slot, so that no tombstones are needed.
+         */
+        private void removeAt(int gap) {
+            int mask = keys.length - 1;
+            int slot = gap;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (keys[slot] == null) {
+                    break;
+                }
+                int home = spread(hash(keys[slot])) & mask;
+                boolean homeBetween = gap <= slot
+                                      ? gap < home && home <= slot
+                                      : gap < home || home <= slot;
+                if (!homeBetween) {
+                    keys[gap] = keys[slot];
+                    ids[gap] = ids[slot];
+                    referenced.set(gap, referenced.get(slot));
+                    gap = slot;
+                }
+            }
+            keys[gap] = null;
+            referenced.set(gap, 0);
+            size--;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * <p>
+ * The connected components of the equivalence graph formed by a set of
+ * {@link LookupEntry}s and the refs they're linked to. Each component is a
+ * transitive equivalence set.
+ * </p>
+ *
+ * <p>
+ * Refs are mapped to compact integer ids and components are tracked with a
+ * union-find over those ids. Adding links only merges components. Removing
+ * links marks the component as needing recomputation, which is done lazily
+ * from the links of that component's members only, so other components are
+ * never touched.
+ * </p>
+ *
+ * <p>
+ * A ref which shares its URI with an entry but isn't that entry's own ref is
+ * treated as linked to the entry.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread-safe.
+ * </p>
+ */
+final class EquivalenceGraph {
+
+    private static final int[] NO_LINKS = new int[0];
+    private static final int INITIAL_CAPACITY = 16;
+
+    public static EquivalenceGraph of(Collection<LookupEntry> entries) {
+        EquivalenceGraph graph = new EquivalenceGraph();
+        for (LookupEntry entry : entries) {
+            graph.entryIds.put(entry.uri(), graph.idFor(entry.lookupRef()));
+        }
+        for (LookupEntry entry : entries) {
+            graph.update(entry);
+        }
+        return graph;
+    }
+
+    private final Map<LookupRef, Integer> ids = Maps.newHashMap();
+    private final Map<String, Integer> entryIds = Maps.newHashMap();
+    private final List<LookupRef> refs = Lists.newArrayList();
+    private final BitSet stale = new BitSet();
+
+    private int[] parents = new int[INITIAL_CAPACITY];
+    private int[] sizes = new int[INITIAL_CAPACITY];
+    private int[][] links = new int[INITIAL_CAPACITY][];
+
+    private EquivalenceGraph() {
+    }
+
+    /**
+     * Replaces the links recorded for <code>entry</code> with its current
+     * {@link LookupEntry#getNeighbours() neighbours}.
+     */
+    public void update(LookupEntry entry) {
+        Integer existingId = entryIds.get(entry.uri());
+        int id = existingId != null ? existingId : idFor(entry.lookupRef());
+        entryIds.put(entry.uri(), id);
+
+        int[] previous = links[id];
+        int[] current = neighbourIds(entry);
+        if (Arrays.equals(previous, current)) {
+            return;
+        }
+        links[id] = current;
+        for (int neighbour : current) {
+            union(id, neighbour);
+        }
+        if (!containsAll(current, previous)) {
+            stale.set(id);
+        }
+    }
+
+    /**
+     * @return the refs of each component, each component appearing once.
+     */
+    public List<ImmutableSet<LookupRef>> components() {
+        recomputeStaleComponents();
+        Map<Integer, ImmutableSet.Builder<LookupRef>> components = Maps.newLinkedHashMap();
+        for (int id = 0; id < refs.size(); id++) {
+            components.computeIfAbsent(root(id), root -> ImmutableSet.builder())
+                    .add(refs.get(id));
+        }
+        ImmutableList.Builder<ImmutableSet<LookupRef>> built = ImmutableList.builder();
+        for (ImmutableSet.Builder<LookupRef> component : components.values()) {
+            built.add(component.build());
+        }
+        return built.build();
+    }
+
+    /**
+     * @return whether the refs are in the same component.
+     */
+    public boolean connected(LookupRef first, LookupRef second) {
+        Integer firstId = ids.get(first);
+        Integer secondId = ids.get(second);
+        if (firstId == null || secondId == null) {
+            return first.equals(second);
+        }
+        recomputeStaleComponents();
+        return root(firstId) == root(secondId);
+    }
+
+    private int idFor(LookupRef ref) {
+        Integer existing = ids.get(ref);
+        if (existing != null) {
+            return existing;
+        }
+        int id = refs.size();
+        ensureCapacity(id + 1);
+        refs.add(ref);
+        ids.put(ref, id);
+        parents[id] = id;
+        sizes[id] = 1;
+        links[id] = NO_LINKS;
+
+        Integer entryId = entryIds.get(ref.uri());
+        if (entryId != null && entryId != id) {
+            links[id] = new int[] { entryId };
+            union(id, entryId);
+        }
+        return id;
+    }
+
+    private int[] neighbourIds(LookupEntry entry) {
+        Collection<LookupRef> neighbours = entry.getNeighbours();
+        int[] neighbourIds = new int[neighbours.size()];
+        int i = 0;
+        for (LookupRef neighbour : neighbours) {
+            neighbourIds[i++] = idFor(neighbour);
+        }
+        Arrays.sort(neighbourIds);
+        return neighbourIds;
+    }
+
+    private static boolean containsAll(int[] sortedIds, int[] candidates) {
+        for (int candidate : candidates) {
+            if (Arrays.binarySearch(sortedIds, candidate) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Removed links may have split a component, so each component containing
+     * a node which lost links is rebuilt from the links of its members.
+     */
+    private void recomputeStaleComponents() {
+        if (stale.isEmpty()) {
+            return;
+        }
+        BitSet staleRoots = new BitSet();
+        for (int id = stale.nextSetBit(0); id >= 0; id = stale.nextSetBit(id + 1)) {
+            staleRoots.set(root(id));
+        }
+        stale.clear();
+
+        int[] members = new int[refs.size()];
+        int memberCount = 0;
+        for (int id = 0; id < refs.size(); id++) {
+            if (staleRoots.get(root(id))) {
+                members[memberCount++] = id;
+            }
+        }
+        for (int i = 0; i < memberCount; i++) {
+            parents[members[i]] = members[i];
+            sizes[members[i]] = 1;
+        }
+        for (int i = 0; i < memberCount; i++) {
+            for (int neighbour : links[members[i]]) {
+                union(members[i], neighbour);
+            }
+        }
+    }
+
+    private int root(int id) {
+        while (parents[id] != id) {
+            parents[id] = parents[parents[id]];
+            id = parents[id];
+        }
+        return id;
+    }
+
+    private void union(int first, int second) {
+        int firstRoot = root(first);
+        int secondRoot = root(second);
+        if (firstRoot == secondRoot) {
+            return;
+        }
+        if (sizes[firstRoot] < sizes[secondRoot]) {
+            int swap = firstRoot;
+            firstRoot = secondRoot;
+            secondRoot = swap;
+        }
+        parents[secondRoot] = firstRoot;
+        sizes[firstRoot] += sizes[secondRoot];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= parents.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, parents.length * 2);
+        parents = Arrays.copyOf(parents, newCapacity);
+        sizes = Arrays.copyOf(sizes, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+    }
+}
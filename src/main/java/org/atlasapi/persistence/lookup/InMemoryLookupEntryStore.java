@@ -1,14 +1,16 @@
 package org.atlasapi.persistence.lookup;
 
-import com.google.common.base.Functions;
 import com.google.common.base.Optional;
-import com.google.common.base.Predicates;
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import com.metabroadcast.common.query.Selection;
 import org.atlasapi.media.entity.Alias;
+import org.atlasapi.media.entity.LookupRef;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.persistence.Transaction;
 import org.atlasapi.persistence.content.listing.ContentListingProgress;
@@ -17,54 +19,156 @@ import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
+/**
+ * <p>
+ * A thread-safe {@link LookupEntryStore} held in memory.
+ * </p>
+ *
+ * <p>
+ * Entries are keyed by URI and by primitive id, the indexes holding the
+ * entry's own URI string rather than a copy. The identifier, alias and
+ * equivalence set indexes map each key to an immutable set of entry URIs
+ * which is replaced on every change, so readers never see a partially
+ * updated set. Reads by URI and through the indexes take no locks; reads by
+ * id take the read lock of the id's stripe, so they wait only for a store
+ * to the same stripe. Stores of the same URI are serialized so that an
+ * entry's index keys are always replaced as a whole.
+ * </p>
+ *
+ * <p>
+ * Since the indexes are updated after the entry itself, a concurrent reader
+ * may briefly find an entry through a key it no longer has. Index lookups
+ * therefore check the key against the entry before returning it.
+ * </p>
+ */
 public class InMemoryLookupEntryStore implements LookupEntryStore {
 
-    private Map<String,LookupEntry> uriStore;
-    private Map<Long,LookupEntry> idStore;
-    private Multimap<String,LookupEntry> identifierStore;
-    private Multimap<String, LookupEntry> aliasValueStore;
-    private Multimap<Alias, LookupEntry> aliasStore;
+    private static final int STORE_LOCK_STRIPES = 256;
+
+    private final Striped<Lock> storeLocks = Striped.lock(STORE_LOCK_STRIPES);
+
+    private final ConcurrentMap<String, LookupEntry> uriStore = Maps.newConcurrentMap();
+    private final StripedLongMap<LookupEntry> idStore = StripedLongMap.create();
+    private final ConcurrentMap<String, ImmutableSet<String>> identifierIndex = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, ImmutableSet<String>> aliasValueIndex = Maps.newConcurrentMap();
+    private final ConcurrentMap<Alias, ImmutableSet<String>> aliasIndex = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, ImmutableSet<String>> equivalenceSetIndex = Maps.newConcurrentMap();
 
-    public InMemoryLookupEntryStore() {
-        uriStore = Maps.newConcurrentMap();
-        idStore = Maps.newConcurrentMap();
-        identifierStore = ArrayListMultimap.create();
-        aliasValueStore = ArrayListMultimap.create();
-        aliasStore = ArrayListMultimap.create();
-    }
-    
     @Override
     public void store(LookupEntry entry) {
-        uriStore.put(entry.uri(), entry);
+        String uri = entry.uri();
+        Lock lock = storeLocks.get(uri);
+        lock.lock();
+        try {
+            LookupEntry previous = uriStore.put(uri, entry);
+            reindexId(previous, entry);
+            reindex(identifierIndex, uri, identifiersOf(previous), entry.identifiers());
+            reindex(aliasValueIndex, uri, aliasValuesOf(previous), aliasValuesOf(entry));
+            reindex(aliasIndex, uri, aliasesOf(previous), entry.aliases());
+            reindex(
+                    equivalenceSetIndex,
+                    uri,
+                    previous == null ? ImmutableSet.of() : ImmutableSet.of(previous.equivalenceSetId()),
+                    ImmutableSet.of(entry.equivalenceSetId())
+            );
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reindexId(@Nullable LookupEntry previous, LookupEntry entry) {
         if (entry.id() != null) {
             idStore.put(entry.id(), entry);
         }
-        for (String aliasUri : entry.aliasUrls()) {
-            identifierStore.put(aliasUri, entry);
+        if (previous != null && previous.id() != null && !previous.id().equals(entry.id())) {
+            idStore.remove(previous.id(), previous);
+        }
+    }
+
+    private <K> void reindex(
+            ConcurrentMap<K, ImmutableSet<String>> index,
+            String uri,
+            Set<K> previousKeys,
+            Set<K> keys
+    ) {
+        for (K key : keys) {
+            if (!previousKeys.contains(key)) {
+                index.merge(key, ImmutableSet.of(uri), (existing, added) ->
+                        existing.contains(uri)
+                        ? existing
+                        : ImmutableSet.<String>builder().addAll(existing).add(uri).build()
+                );
+            }
+        }
+        for (K key : previousKeys) {
+            if (!keys.contains(key)) {
+                index.computeIfPresent(key, (k, existing) -> {
+                    if (!existing.contains(uri)) {
+                        return existing;
+                    }
+                    ImmutableSet<String> remaining = ImmutableSet.copyOf(
+                            Sets.difference(existing, ImmutableSet.of(uri))
+                    );
+                    return remaining.isEmpty() ? null : remaining;
+                });
+            }
         }
+    }
+
+    private Set<String> identifiersOf(@Nullable LookupEntry entry) {
+        return entry == null ? ImmutableSet.of() : entry.identifiers();
+    }
+
+    private Set<Alias> aliasesOf(@Nullable LookupEntry entry) {
+        return entry == null ? ImmutableSet.of() : entry.aliases();
+    }
+
+    private Set<String> aliasValuesOf(@Nullable LookupEntry entry) {
+        if (entry == null) {
+            return ImmutableSet.of();
+        }
+        ImmutableSet.Builder<String> values = ImmutableSet.builder();
         for (Alias alias : entry.aliases()) {
-            aliasValueStore.put(alias.getValue(), entry);
-            aliasStore.put(alias, entry);
+            values.add(alias.getValue());
         }
+        return values.build();
     }
-    
+
     @Override
     public Iterable<LookupEntry> entriesForCanonicalUris(Iterable<String> uris) {
-        return Iterables.filter(Iterables.transform(uris, Functions.forMap(uriStore, null)), Predicates.notNull());
+        ImmutableList.Builder<LookupEntry> entries = ImmutableList.builder();
+        for (String uri : uris) {
+            LookupEntry entry = uriStore.get(uri);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries.build();
     }
 
     @Override
     public Iterable<LookupEntry> entriesForIds(Iterable<Long> ids) {
-        return Iterables.filter(Iterables.transform(ids, Functions.forMap(idStore, null)), Predicates.notNull());
+        ImmutableList.Builder<LookupEntry> entries = ImmutableList.builder();
+        for (Long id : ids) {
+            LookupEntry entry = idStore.get(id);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries.build();
     }
 
     @Override
     public Iterable<LookupEntry> entriesForIdentifiers(Iterable<String> identifiers, boolean useAliases) {
-        return Iterables.concat(Iterables.filter(Iterables.transform(identifiers, Functions.forMap(identifierStore.asMap(),null)),Predicates.notNull()));
+        return fromIndex(identifierIndex, identifiers, entry -> entry.identifiers()::contains);
     }
 
     @Override
@@ -90,30 +194,18 @@ public class InMemoryLookupEntryStore implements LookupEntryStore {
     ) {
         Iterable<LookupEntry> lookupEntries;
         if (namespace.isPresent()) {
-            // create Aliases
-            Iterable<Alias> aliases = StreamSupport.stream(values.spliterator(), false)
-                    .map(value -> new Alias(namespace.get(), value))
-                    .collect(Collectors.toList());
-            lookupEntries = Iterables.concat(
-                    Iterables.filter(
-                            Iterables.transform(aliases, Functions.forMap(aliasStore.asMap(), null)
-                            ),
-                            Predicates.notNull()
-                    )
+            Iterable<Alias> aliases = Iterables.transform(
+                    values,
+                    value -> new Alias(namespace.get(), value)
             );
+            lookupEntries = fromIndex(aliasIndex, aliases, entry -> entry.aliases()::contains);
         } else {
-            lookupEntries = Iterables.concat(
-                    Iterables.filter(
-                            Iterables.transform(values, Functions.forMap(aliasValueStore.asMap(), null)
-                            ),
-                            Predicates.notNull()
-                    )
-            );
+            lookupEntries = fromIndex(aliasValueIndex, values, entry -> aliasValuesOf(entry)::contains);
         }
 
         lookupEntries = Iterables.filter(
                 lookupEntries,
-                lookupEntry -> includeUnpublishedEntries || (lookupEntry != null && lookupEntry.activelyPublished())
+                lookupEntry -> includeUnpublishedEntries || lookupEntry.activelyPublished()
         );
 
         lookupEntries = Iterables.filter(
@@ -122,7 +214,32 @@ public class InMemoryLookupEntryStore implements LookupEntryStore {
                         && (publishers == null || Iterables.contains(publishers, lookupEntry.lookupRef().publisher()))
         );
 
-        return lookupEntries;
+        return ImmutableList.copyOf(lookupEntries);
+    }
+
+    /*
+     * Resolves the entries indexed under each key, each entry appearing once,
+     * ignoring those which no longer have the key they were found by.
+     */
+    private <K> Iterable<LookupEntry> fromIndex(
+            Map<K, ImmutableSet<String>> index,
+            Iterable<K> keys,
+            Function<LookupEntry, Predicate<K>> hasKey
+    ) {
+        Map<String, LookupEntry> entries = Maps.newLinkedHashMap();
+        for (K key : keys) {
+            ImmutableSet<String> indexed = index.get(key);
+            if (indexed == null) {
+                continue;
+            }
+            for (String uri : indexed) {
+                LookupEntry entry = uriStore.get(uri);
+                if (entry != null && hasKey.apply(entry).test(key)) {
+                    entries.put(uri, entry);
+                }
+            }
+        }
+        return ImmutableList.copyOf(entries.values());
     }
 
     @Override
@@ -161,11 +278,49 @@ public class InMemoryLookupEntryStore implements LookupEntryStore {
         store(entry);
     }
 
+    @Override
+    public void storeAll(Transaction transaction, Collection<LookupEntry> entries) {
+        for (LookupEntry entry : entries) {
+            store(entry);
+        }
+    }
+
     @Override
     public Iterable<LookupEntry> entriesForCanonicalUris(Transaction transaction, Iterable<String> uris) {
         return entriesForCanonicalUris(uris);
     }
 
+    @Override
+    public Map<String, Set<String>> transitiveUrisFor(Transaction transaction, Iterable<String> uris) {
+        ImmutableMap.Builder<String, Set<String>> transitiveUris = ImmutableMap.builder();
+        for (LookupEntry entry : entriesForCanonicalUris(uris)) {
+            Set<String> members = Sets.newHashSet(entry.uri());
+            for (LookupRef equivalent : entry.equivalents()) {
+                members.add(equivalent.uri());
+            }
+            transitiveUris.put(entry.uri(), members);
+        }
+        return transitiveUris.build();
+    }
+
+    @Override
+    public Map<String, Integer> equivalenceSetSizesFor(Transaction transaction, Iterable<String> uris) {
+        Map<String, Integer> setSizes = Maps.newHashMap();
+        for (Set<String> members : transitiveUrisFor(transaction, uris).values()) {
+            setSizes.put(LookupEntry.equivalenceSetIdOf(members), members.size());
+        }
+        return ImmutableMap.copyOf(setSizes);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForEquivalenceSets(Transaction transaction, Iterable<String> setIds) {
+        return fromIndex(
+                equivalenceSetIndex,
+                setIds,
+                entry -> entry.equivalenceSetId()::equals
+        );
+    }
+
     @Override
     public Iterable<LookupEntry> entriesForIds(Transaction transaction, Iterable<Long> ids) {
         return entriesForIds(ids);
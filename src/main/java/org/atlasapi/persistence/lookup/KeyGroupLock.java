@@ -0,0 +1,52 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Set;
+
+import org.atlasapi.persistence.Transaction;
+
+/**
+ * A lock which is acquired atomically for a group of keys on behalf of the
+ * calling thread.
+ */
+public interface KeyGroupLock<T> {
+
+    /**
+     * Attempts to lock all <code>keys</code> for the calling thread. Either
+     * all keys are locked, or none are.
+     *
+     * @return true if all keys were locked, false if any key is held by
+     *         another owner.
+     */
+    boolean tryLock(Set<T> keys);
+
+    /**
+     * Releases those <code>keys</code> held by the calling thread.
+     */
+    void unlock(Set<T> keys);
+
+    /**
+     * Blocks until one of the <code>keys</code> currently held by another
+     * owner has been released. Returns immediately if none of the keys are
+     * held by another owner.
+     */
+    void awaitRelease(Set<T> keys) throws InterruptedException;
+
+    /**
+     * @return true if all <code>keys</code> are still held by the calling
+     *         thread.
+     */
+    boolean isHeld(Set<T> keys);
+
+    /**
+     * Checks that all <code>keys</code> are still held by the calling thread
+     * and, for a lock whose holds expire, extends them as part of
+     * <code>transaction</code>, so that they can't be taken by another owner
+     * before it commits.
+     *
+     * @return true if all <code>keys</code> are still held.
+     */
+    default boolean renew(Transaction transaction, Set<T> keys) {
+        return isHeld(keys);
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Set;
+
+import org.atlasapi.persistence.Transaction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Combines a lock local to this JVM with one shared between processes. The
+ * local lock is always acquired first, so threads in the same process queue
+ * on each other cheaply and only one of them at a time contends for the
+ * shared lock.
+ */
+public class LayeredGroupLock<T> implements KeyGroupLock<T> {
+
+    public static <T> LayeredGroupLock<T> of(KeyGroupLock<T> local, KeyGroupLock<T> shared) {
+        return new LayeredGroupLock<T>(local, shared);
+    }
+
+    private final KeyGroupLock<T> local;
+    private final KeyGroupLock<T> shared;
+
+    private LayeredGroupLock(KeyGroupLock<T> local, KeyGroupLock<T> shared) {
+        this.local = checkNotNull(local);
+        this.shared = checkNotNull(shared);
+    }
+
+    @Override
+    public boolean tryLock(Set<T> keys) {
+        if (!local.tryLock(keys)) {
+            return false;
+        }
+        if (shared.tryLock(keys)) {
+            return true;
+        }
+        local.unlock(keys);
+        return false;
+    }
+
+    @Override
+    public void unlock(Set<T> keys) {
+        try {
+            shared.unlock(keys);
+        } finally {
+            local.unlock(keys);
+        }
+    }
+
+    @Override
+    public void awaitRelease(Set<T> keys) throws InterruptedException {
+        local.awaitRelease(keys);
+        shared.awaitRelease(keys);
+    }
+
+    @Override
+    public boolean isHeld(Set<T> keys) {
+        return local.isHeld(keys) && shared.isHeld(keys);
+    }
+
+    @Override
+    public boolean renew(Transaction transaction, Set<T> keys) {
+        return local.renew(transaction, keys) && shared.renew(transaction, keys);
+    }
+}
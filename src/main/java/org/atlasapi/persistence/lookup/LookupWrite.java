@@ -0,0 +1,82 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Set;
+
+import org.atlasapi.equiv.ContentRef;
+import org.atlasapi.media.entity.Publisher;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single equivalence assertion to be recorded as part of a batch by
+ * {@link LookupWriter#writeLookups(java.util.Collection)}. The arguments have
+ * the same meaning as those of
+ * {@link LookupWriter#writeLookup(ContentRef, Iterable, Set)}.
+ */
+public class LookupWrite {
+
+    public static LookupWrite of(
+            ContentRef subject,
+            Iterable<ContentRef> equivalents,
+            Set<Publisher> publishers
+    ) {
+        return new LookupWrite(subject, equivalents, publishers);
+    }
+
+    private final ContentRef subject;
+    private final ImmutableSet<ContentRef> equivalents;
+    private final ImmutableSet<Publisher> publishers;
+
+    private LookupWrite(
+            ContentRef subject,
+            Iterable<ContentRef> equivalents,
+            Set<Publisher> publishers
+    ) {
+        this.subject = checkNotNull(subject);
+        this.equivalents = ImmutableSet.copyOf(equivalents);
+        this.publishers = ImmutableSet.copyOf(publishers);
+    }
+
+    public ContentRef getSubject() {
+        return subject;
+    }
+
+    public ImmutableSet<ContentRef> getEquivalents() {
+        return equivalents;
+    }
+
+    public ImmutableSet<Publisher> getPublishers() {
+        return publishers;
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (this == that) {
+            return true;
+        }
+        if (that instanceof LookupWrite) {
+            LookupWrite other = (LookupWrite) that;
+            return subject.equals(other.subject)
+                    && equivalents.equals(other.equivalents)
+                    && publishers.equals(other.publishers);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(subject, equivalents, publishers);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("subject", subject.getCanonicalUri())
+                .add("equivalents", equivalents.size())
+                .add("publishers", publishers)
+                .toString();
+    }
+}
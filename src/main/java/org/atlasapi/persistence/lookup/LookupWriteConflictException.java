@@ -0,0 +1,15 @@
+package org.atlasapi.persistence.lookup;
+
+/**
+ * Thrown when a lookup write conflicted with a concurrent write and was not
+ * recorded. The write can safely be attempted again.
+ */
+public class LookupWriteConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public LookupWriteConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,241 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>
+ * Applies lookup writes asynchronously, retrying those which conflict with
+ * concurrent writes after a delay rather than blocking the submitting thread.
+ * </p>
+ *
+ * <p>
+ * A conflicting write is parked on the executor's delay queue for an
+ * exponentially increasing delay, with random jitter so that writes which
+ * conflicted with each other don't retry in lock-step.
+ * </p>
+ *
+ * <p>
+ * A write submitted for a subject which already has a write waiting to be
+ * attempted replaces the waiting write, since a write records the complete
+ * set of neighbours of its subject. Both submissions share the same result.
+ * </p>
+ */
+public class LookupWriteRetryScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(LookupWriteRetryScheduler.class);
+
+    private static final Duration DEFAULT_INITIAL_DELAY = Duration.millis(250);
+    private static final Duration DEFAULT_MAX_DELAY = Duration.standardSeconds(30);
+    private static final int DEFAULT_MAX_ATTEMPTS = 8;
+
+    public static LookupWriteRetryScheduler create(SingleAttemptLookupWriter writer, int threads) {
+        ScheduledExecutorService executor = Executors.newScheduledThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setNameFormat("lookup-write-%d").build()
+        );
+        return new LookupWriteRetryScheduler(
+                writer,
+                executor,
+                DEFAULT_INITIAL_DELAY,
+                DEFAULT_MAX_DELAY,
+                DEFAULT_MAX_ATTEMPTS
+        );
+    }
+
+    private final SingleAttemptLookupWriter writer;
+    private final ScheduledExecutorService executor;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxAttempts;
+
+    // writes waiting to be attempted, by subject URI
+    private final Map<String, PendingWrite> waiting = Maps.newHashMap();
+
+    public LookupWriteRetryScheduler(
+            SingleAttemptLookupWriter writer,
+            ScheduledExecutorService executor,
+            Duration initialDelay,
+            Duration maxDelay,
+            int maxAttempts
+    ) {
+        checkArgument(initialDelay.getMillis() > 0, "initial delay must be positive");
+        checkArgument(!maxDelay.isShorterThan(initialDelay), "max delay must not be less than initial delay");
+        checkArgument(maxAttempts > 0, "max attempts must be positive");
+        this.writer = checkNotNull(writer);
+        this.executor = checkNotNull(executor);
+        this.initialDelayMillis = initialDelay.getMillis();
+        this.maxDelayMillis = maxDelay.getMillis();
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Submits <code>write</code> to be recorded.
+     *
+     * @return the result of recording the write, or of the later write for
+     *         the same subject which replaced it. Fails with a
+     *         {@link LookupWriteConflictException} if the write still
+     *         conflicted after the maximum number of attempts.
+     */
+    public ListenableFuture<Optional<Set<LookupEntry>>> submit(LookupWrite write) {
+        String subjectUri = write.getSubject().getCanonicalUri();
+        synchronized (waiting) {
+            PendingWrite existing = waiting.get(subjectUri);
+            if (existing != null) {
+                existing.write = write;
+                return existing.result;
+            }
+            PendingWrite pending = new PendingWrite(write);
+            waiting.put(subjectUri, pending);
+            try {
+                executor.execute(() -> attempt(subjectUri, pending));
+            } catch (RejectedExecutionException e) {
+                waiting.remove(subjectUri);
+                pending.result.setException(e);
+            }
+            return pending.result;
+        }
+    }
+
+    /**
+     * Stops accepting writes. Writes waiting to be attempted, including those
+     * waiting for a retry, are abandoned, and their results fail with a
+     * {@link RejectedExecutionException}. Writes being attempted are
+     * interrupted.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        // every write submitted but not yet attempted is waiting, including
+        // those of the tasks shutting down drops
+        List<PendingWrite> abandoned;
+        synchronized (waiting) {
+            abandoned = ImmutableList.copyOf(waiting.values());
+            waiting.clear();
+        }
+        for (PendingWrite pending : abandoned) {
+            pending.result.setException(new RejectedExecutionException("Lookup write scheduler shut down"));
+        }
+    }
+
+    private void attempt(String subjectUri, PendingWrite pending) {
+        LookupWrite write;
+        synchronized (waiting) {
+            if (!waiting.remove(subjectUri, pending)) {
+                // abandoned on shutdown
+                return;
+            }
+            write = pending.write;
+        }
+        try {
+            pending.result.set(writer.attemptWriteLookup(write));
+        } catch (LookupWriteConflictException e) {
+            retry(subjectUri, pending, e);
+        } catch (Throwable t) {
+            pending.result.setException(t);
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+        }
+    }
+
+    private void retry(String subjectUri, PendingWrite pending, LookupWriteConflictException conflict) {
+        int attempts = ++pending.attempts;
+        if (attempts >= maxAttempts) {
+            log.warn("{} when updating {}, giving up after {} attempts", new Object[] {
+                    conflict.getMessage(),
+                    subjectUri,
+                    attempts
+            });
+            pending.result.setException(conflict);
+            return;
+        }
+        synchronized (waiting) {
+            PendingWrite newer = waiting.get(subjectUri);
+            if (newer != null) {
+                // a later write for the subject is already waiting, and
+                // replaces this one
+                follow(pending.result, newer.result);
+                return;
+            }
+            waiting.put(subjectUri, pending);
+        }
+        long delay = delayFor(attempts);
+        log.debug("{} when updating {} (attempt {}), retrying in {}ms", new Object[] {
+                conflict.getMessage(),
+                subjectUri,
+                attempts,
+                delay
+        });
+        try {
+            executor.schedule(() -> attempt(subjectUri, pending), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            synchronized (waiting) {
+                waiting.remove(subjectUri, pending);
+            }
+            pending.result.setException(conflict);
+        }
+    }
+
+    /*
+     * Exponential backoff with "equal jitter": at least half the exponential
+     * delay, plus a random amount up to the other half.
+     */
+    private long delayFor(int attempts) {
+        long exponential = initialDelayMillis << Math.min(attempts - 1, 30);
+        long capped = Math.min(maxDelayMillis, exponential > 0 ? exponential : maxDelayMillis);
+        long half = capped / 2;
+        return half + ThreadLocalRandom.current().nextLong(capped - half + 1);
+    }
+
+    private static <V> void follow(SettableFuture<V> follower, ListenableFuture<V> leader) {
+        Futures.addCallback(leader, new FutureCallback<V>() {
+
+            @Override
+            public void onSuccess(V result) {
+                follower.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                follower.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private static class PendingWrite {
+
+        private final SettableFuture<Optional<Set<LookupEntry>>> result = SettableFuture.create();
+        // guarded by waiting
+        private LookupWrite write;
+        // only accessed by the thread attempting the write
+        private int attempts;
+
+        public PendingWrite(LookupWrite write) {
+            this.write = write;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.atlasapi.persistence.lookup;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import org.atlasapi.equiv.ContentRef;
@@ -7,6 +9,8 @@ import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.persistence.lookup.entry.LookupEntry;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 
 /**
  * <p>
@@ -62,4 +66,37 @@ public interface LookupWriter {
      */
     Optional<Set<LookupEntry>> writeLookup(ContentRef subject, Iterable<ContentRef> equivalents, Set<Publisher> publishers);
 
+    /**
+     * <p>Record each of <code>writes</code> as if by
+     * {@link #writeLookup(ContentRef, Iterable, Set)}. Where several writes
+     * share a subject only the last of them is recorded.</p>
+     * 
+     * <p>Implementations may apply writes affecting the same equivalence
+     * graph together, so the intermediate states produced by applying them
+     * one at a time are not necessarily recorded.</p>
+     * 
+     * @param writes - the assertions to record.
+     * @return all entries updated by the writes.
+     */
+    default Set<LookupEntry> writeLookups(Collection<LookupWrite> writes) {
+        Map<String, LookupWrite> latestWrites = Maps.newLinkedHashMap();
+        for (LookupWrite write : writes) {
+            latestWrites.put(write.getSubject().getCanonicalUri(), write);
+        }
+        Map<String, LookupEntry> updatedEntries = Maps.newHashMap();
+        for (LookupWrite write : latestWrites.values()) {
+            Optional<Set<LookupEntry>> updated = writeLookup(
+                    write.getSubject(),
+                    write.getEquivalents(),
+                    write.getPublishers()
+            );
+            if (updated.isPresent()) {
+                for (LookupEntry entry : updated.get()) {
+                    updatedEntries.put(entry.uri(), entry);
+                }
+            }
+        }
+        return ImmutableSet.copyOf(updatedEntries.values());
+    }
+
 }
@@ -6,4 +6,14 @@ public interface NewLookupWriter {
     
     void ensureLookup(Content content);
 
+    /**
+     * Ensures lookup entries for all the content, as
+     * {@link #ensureLookup(Content)} does for each.
+     */
+    default void ensureLookups(Iterable<? extends Content> contents) {
+        for (Content content : contents) {
+            ensureLookup(content);
+        }
+    }
+
 }
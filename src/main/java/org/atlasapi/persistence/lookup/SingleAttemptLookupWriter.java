@@ -0,0 +1,25 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Set;
+
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.base.Optional;
+
+/**
+ * A {@link LookupWriter} which can attempt a write without retrying when it
+ * conflicts with a concurrent write.
+ */
+public interface SingleAttemptLookupWriter {
+
+    /**
+     * Attempts to record <code>write</code> as if by
+     * {@link LookupWriter#writeLookup(org.atlasapi.equiv.ContentRef, Iterable, Set)}
+     * once.
+     *
+     * @throws LookupWriteConflictException if the write conflicted with
+     *         another and nothing was recorded.
+     */
+    Optional<Set<LookupEntry>> attemptWriteLookup(LookupWrite write);
+
+}
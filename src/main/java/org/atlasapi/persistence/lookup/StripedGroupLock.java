@@ -0,0 +1,217 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>
+ * A table of per-key locks which can be acquired atomically for a group of
+ * keys. Keys are spread over a fixed number of stripes, each guarded by its
+ * own monitor, so that threads locking disjoint groups of keys only contend
+ * when their keys happen to share a stripe.
+ * </p>
+ *
+ * <p>
+ * Keys are owned by the thread which locked them. Unlocking a key which is
+ * not held by the calling thread has no effect, so a thread can always
+ * safely unlock the full group it attempted to lock.
+ * </p>
+ *
+ * <p>
+ * Threads which fail to acquire a group can {@link #awaitRelease(Set) wait}
+ * for a contended key to be released. Only threads waiting on keys in the
+ * same stripe are woken when a key is released.
+ * </p>
+ */
+public class StripedGroupLock<T> implements KeyGroupLock<T> {
+
+    private static final int DEFAULT_STRIPES = 1024;
+
+    public static <T> StripedGroupLock<T> create() {
+        return new StripedGroupLock<T>(DEFAULT_STRIPES);
+    }
+
+    public static <T> StripedGroupLock<T> withStripes(int stripes) {
+        return new StripedGroupLock<T>(stripes);
+    }
+
+    private final Stripe<T>[] stripes;
+
+    @SuppressWarnings("unchecked")
+    private StripedGroupLock(int stripes) {
+        checkArgument(stripes > 0, "stripes must be positive");
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe<T>();
+        }
+    }
+
+    /**
+     * Attempts to lock all <code>keys</code> for the calling thread. Either
+     * all keys are locked, or none are.
+     *
+     * @return true if all keys were locked, false if any key is held by
+     *         another thread.
+     */
+    @Override
+    public boolean tryLock(Set<T> keys) {
+        if (keys.isEmpty()) {
+            return true;
+        }
+        SortedMap<Integer, Stripe<T>> involved = stripesFor(keys);
+        Thread current = Thread.currentThread();
+        lockAll(involved);
+        try {
+            for (T key : keys) {
+                Thread owner = stripeFor(key).owners.get(key);
+                if (owner != null && owner != current) {
+                    return false;
+                }
+            }
+            for (T key : keys) {
+                stripeFor(key).owners.put(key, current);
+            }
+            return true;
+        } finally {
+            unlockAll(involved);
+        }
+    }
+
+    /**
+     * Releases those <code>keys</code> held by the calling thread, waking
+     * threads waiting on keys in the affected stripes.
+     */
+    @Override
+    public void unlock(Set<T> keys) {
+        Thread current = Thread.currentThread();
+        for (Stripe<T> stripe : stripesFor(keys).values()) {
+            stripe.monitor.lock();
+            try {
+                boolean released = false;
+                for (T key : keys) {
+                    if (stripeFor(key) == stripe && stripe.owners.get(key) == current) {
+                        stripe.owners.remove(key);
+                        released = true;
+                    }
+                }
+                if (released) {
+                    stripe.released.signalAll();
+                }
+            } finally {
+                stripe.monitor.unlock();
+            }
+        }
+    }
+
+    /**
+     * Blocks until one of the <code>keys</code> currently held by another
+     * thread has been released. Returns immediately if none of the keys are
+     * held by another thread.
+     */
+    @Override
+    public void awaitRelease(Set<T> keys) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        for (T key : keys) {
+            Stripe<T> stripe = stripeFor(key);
+            stripe.monitor.lock();
+            try {
+                Thread owner = stripe.owners.get(key);
+                if (owner == null || owner == current) {
+                    continue;
+                }
+                while (stripe.owners.get(key) == owner) {
+                    stripe.released.await();
+                }
+                return;
+            } finally {
+                stripe.monitor.unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean isHeld(Set<T> keys) {
+        Thread current = Thread.currentThread();
+        for (T key : keys) {
+            Stripe<T> stripe = stripeFor(key);
+            stripe.monitor.lock();
+            try {
+                if (stripe.owners.get(key) != current) {
+                    return false;
+                }
+            } finally {
+                stripe.monitor.unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the keys currently locked by any thread.
+     */
+    public Set<T> lockedKeys() {
+        ImmutableSet.Builder<T> locked = ImmutableSet.builder();
+        for (Stripe<T> stripe : stripes) {
+            stripe.monitor.lock();
+            try {
+                locked.addAll(stripe.owners.keySet());
+            } finally {
+                stripe.monitor.unlock();
+            }
+        }
+        return locked.build();
+    }
+
+    private Stripe<T> stripeFor(T key) {
+        return stripes[indexFor(key)];
+    }
+
+    private int indexFor(T key) {
+        int hash = key.hashCode();
+        // spread the hash so that keys with similar low bits don't cluster
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return (hash & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    /*
+     * Stripes are always locked in ascending index order so that concurrent
+     * group acquisitions cannot deadlock.
+     */
+    private SortedMap<Integer, Stripe<T>> stripesFor(Set<T> keys) {
+        SortedMap<Integer, Stripe<T>> involved = Maps.newTreeMap();
+        for (T key : keys) {
+            int index = indexFor(key);
+            involved.put(index, stripes[index]);
+        }
+        return involved;
+    }
+
+    private void lockAll(SortedMap<Integer, Stripe<T>> involved) {
+        for (Stripe<T> stripe : involved.values()) {
+            stripe.monitor.lock();
+        }
+    }
+
+    private void unlockAll(SortedMap<Integer, Stripe<T>> involved) {
+        for (Stripe<T> stripe : involved.values()) {
+            stripe.monitor.unlock();
+        }
+    }
+
+    private static final class Stripe<T> {
+
+        private final ReentrantLock monitor = new ReentrantLock();
+        private final Condition released = monitor.newCondition();
+        private final Map<T, Thread> owners = Maps.newHashMap();
+
+    }
+}
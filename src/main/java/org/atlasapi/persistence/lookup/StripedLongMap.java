@@ -0,0 +1,228 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>
+ * A thread-safe map from primitive <code>long</code> keys to values, avoiding
+ * the boxed key and per-mapping node of a <code>Map&lt;Long, V&gt;</code>.
+ * </p>
+ *
+ * <p>
+ * Keys are spread over a fixed number of stripes, each an open-addressed
+ * table with linear probing guarded by its own read-write lock, so readers
+ * never block each other and writers only contend within a stripe.
+ * </p>
+ *
+ * <p>
+ * Null values are not permitted.
+ * </p>
+ */
+final class StripedLongMap<V> {
+
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    public static <V> StripedLongMap<V> create() {
+        return new StripedLongMap<V>(DEFAULT_STRIPES);
+    }
+
+    public static <V> StripedLongMap<V> withStripes(int stripes) {
+        return new StripedLongMap<V>(stripes);
+    }
+
+    private final Stripe<V>[] stripes;
+    private final int stripeShift;
+
+    @SuppressWarnings("unchecked")
+    private StripedLongMap(int stripes) {
+        checkArgument(stripes > 0 && Integer.bitCount(stripes) == 1, "stripes must be a power of two");
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe<V>();
+        }
+        this.stripeShift = 64 - Integer.numberOfTrailingZeros(stripes);
+    }
+
+    @Nullable
+    public V get(long key) {
+        long hash = hash(key);
+        Stripe<V> stripe = stripeFor(hash);
+        stripe.lock.readLock().lock();
+        try {
+            return stripe.get(key, hash);
+        } finally {
+            stripe.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the value previously mapped to <code>key</code>, if any.
+     */
+    @Nullable
+    public V put(long key, V value) {
+        checkNotNull(value);
+        long hash = hash(key);
+        Stripe<V> stripe = stripeFor(hash);
+        stripe.lock.writeLock().lock();
+        try {
+            return stripe.put(key, hash, value);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the mapping for <code>key</code> only if it's currently mapped
+     * to <code>expected</code>.
+     *
+     * @return true if the mapping was removed.
+     */
+    public boolean remove(long key, V expected) {
+        long hash = hash(key);
+        Stripe<V> stripe = stripeFor(hash);
+        stripe.lock.writeLock().lock();
+        try {
+            return stripe.remove(key, hash, expected);
+        } finally {
+            stripe.lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<V> stripe : stripes) {
+            stripe.lock.readLock().lock();
+            try {
+                size += stripe.size;
+            } finally {
+                stripe.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    private Stripe<V> stripeFor(long hash) {
+        return stripes[stripeShift == 64 ? 0 : (int) (hash >>> stripeShift)];
+    }
+
+    // Fibonacci hashing; stripes are chosen by the high bits
+    private static long hash(long key) {
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    // the low bits of the product are weak, so fold in the high ones for slots
+    private static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private static final class Stripe<V> {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        // a null value marks an empty slot
+        private Object[] values = new Object[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        V get(long key, long hash) {
+            int slot = slotOf(key, hash);
+            return slot < 0 ? null : (V) values[slot];
+        }
+
+        @SuppressWarnings("unchecked")
+        V put(long key, long hash, V value) {
+            int slot = slotOf(key, hash);
+            if (slot >= 0) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+                slot = slotOf(key, hash);
+            }
+            slot = ~slot;
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+            return null;
+        }
+
+        boolean remove(long key, long hash, Object expected) {
+            int slot = slotOf(key, hash);
+            if (slot < 0 || !values[slot].equals(expected)) {
+                return false;
+            }
+            removeAt(slot);
+            return true;
+        }
+
+        /*
+         * Returns the slot holding the key, or the bitwise complement of the
+         * empty slot where it would be inserted.
+         */
+        private int slotOf(long key, long hash) {
+            int mask = keys.length - 1;
+            int slot = spread(hash) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return ~slot;
+        }
+
+        /*
+         * Backward-shift deletion: entries later in the probe sequence are
+         * moved into the gap, unless their home slot lies between the gap
+         * and their current slot, so that no tombstones are needed.
+         */
+        private void removeAt(int gap) {
+            int mask = keys.length - 1;
+            int slot = gap;
+            while (true) {
+                slot = (slot + 1) & mask;
+                if (values[slot] == null) {
+                    break;
+                }
+                int home = spread(hash(keys[slot])) & mask;
+                boolean homeBetween = gap <= slot
+                                      ? gap < home && home <= slot
+                                      : gap < home || home <= slot;
+                if (!homeBetween) {
+                    keys[gap] = keys[slot];
+                    values[gap] = values[slot];
+                    gap = slot;
+                }
+            }
+            values[gap] = null;
+            size--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Object[oldValues.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = spread(hash(oldKeys[i])) & mask;
+                    while (values[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package org.atlasapi.persistence.lookup;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
@@ -15,13 +16,14 @@ import org.atlasapi.messaging.v3.EquivalenceChangeMessenger;
 import org.atlasapi.persistence.Transaction;
 import org.atlasapi.persistence.lookup.entry.LookupEntry;
 import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
-import org.atlasapi.util.GroupLock;
 
 import com.metabroadcast.common.stream.MoreCollectors;
 
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -35,9 +37,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Strings.emptyToNull;
 import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.INCOMING;
 
-public class TransitiveLookupWriter implements LookupWriter {
+public class TransitiveLookupWriter implements LookupWriter, SingleAttemptLookupWriter {
     
-    private static final GroupLock<String> lock = GroupLock.<String>natural();
+    // Shared by all writers in the JVM, since writers of different equiv types
+    // update the same entries
+    private static final StripedGroupLock<String> localLock = StripedGroupLock.create();
     
     private static final Logger log = LoggerFactory.getLogger(TransitiveLookupWriter.class);
     private static final Logger timerLog = LoggerFactory.getLogger("TIMER");
@@ -51,6 +55,7 @@ public class TransitiveLookupWriter implements LookupWriter {
     private final EquivType equivType;
     private final ContentEquivalenceAssertionMessenger equivAssertionMessenger;
     private final EquivalenceChangeMessenger equivChangeMessenger;
+    private final KeyGroupLock<String> lock;
 
     public static TransitiveLookupWriter explicitTransitiveLookupWriterWithMessengers(
             LookupEntryStore entryStore,
@@ -93,11 +98,39 @@ public class TransitiveLookupWriter implements LookupWriter {
             EquivType equivType,
             @Nullable ContentEquivalenceAssertionMessenger equivAssertionMessenger,
             @Nullable EquivalenceChangeMessenger equivChangeMessenger
+    ) {
+        this(entryStore, equivType, equivAssertionMessenger, equivChangeMessenger, localLock);
+    }
+
+    private TransitiveLookupWriter(
+            LookupEntryStore entryStore,
+            EquivType equivType,
+            @Nullable ContentEquivalenceAssertionMessenger equivAssertionMessenger,
+            @Nullable EquivalenceChangeMessenger equivChangeMessenger,
+            KeyGroupLock<String> lock
     ) {
         this.entryStore = checkNotNull(entryStore);
         this.equivType = checkNotNull(equivType);
         this.equivAssertionMessenger = equivAssertionMessenger;
         this.equivChangeMessenger = equivChangeMessenger;
+        this.lock = checkNotNull(lock);
+    }
+
+    /**
+     * Returns a copy of this writer which, as well as locking equivalence sets
+     * within this JVM, holds them with <code>sharedLock</code> while writing,
+     * for example a {@link org.atlasapi.persistence.lookup.mongo.MongoLeaseGroupLock}.
+     * Writers in different processes using the same shared lock then wait for
+     * each other rather than failing with write conflicts and backing off.
+     */
+    public TransitiveLookupWriter withSharedLock(KeyGroupLock<String> sharedLock) {
+        return new TransitiveLookupWriter(
+                entryStore,
+                equivType,
+                equivAssertionMessenger,
+                equivChangeMessenger,
+                LayeredGroupLock.of(localLock, sharedLock)
+        );
     }
 
     @Override
@@ -127,6 +160,54 @@ public class TransitiveLookupWriter implements LookupWriter {
     }
 
     public Optional<Set<LookupEntry>> writeLookup(final String subjectUri, Iterable<String> equivalentUris, final Set<Publisher> sources) {
+        UpdateResult result = writeWithRetries(
+                subjectUri,
+                transaction -> writeLookup(
+                        transaction,
+                        subjectUri,
+                        entryFor(transaction, subjectUri),
+                        equivalentUris,
+                        sources
+                )
+        );
+        return Optional.fromNullable(handleUpdateResult(result));
+    }
+
+    /**
+     * Attempts <code>write</code> once. Unlike
+     * {@link #writeLookup(ContentRef, Iterable, Set)} a conflict with a
+     * concurrent writer isn't retried here, so the caller can decide when to
+     * try again without holding a thread, for example with a
+     * {@link LookupWriteRetryScheduler}.
+     *
+     * @throws LookupWriteConflictException if the write conflicted with
+     *         another and nothing was recorded.
+     */
+    @Override
+    public Optional<Set<LookupEntry>> attemptWriteLookup(LookupWrite write) {
+        String subjectUri = write.getSubject().getCanonicalUri();
+        ImmutableSet<String> neighbourUris = ImmutableSet.copyOf(Iterables.transform(
+                filterContentSources(write.getEquivalents(), write.getPublishers()),
+                ContentRef::getCanonicalUri
+        ));
+        UpdateResult result = attemptWrite(
+                subjectUri,
+                transaction -> writeLookup(
+                        transaction,
+                        subjectUri,
+                        entryFor(transaction, subjectUri),
+                        neighbourUris,
+                        write.getPublishers()
+                )
+        );
+        return Optional.fromNullable(handleUpdateResult(result));
+    }
+
+    /*
+     * Writes are attempted within a transaction, retrying on write conflicts.
+     */
+    @Nullable
+    private <T> T writeWithRetries(String description, Function<Transaction, T> write) {
 
         for (int attempt = 1; attempt <= WRITE_RETRIES; attempt++) {
 
@@ -138,45 +219,281 @@ public class TransitiveLookupWriter implements LookupWriter {
                 }
             }
 
-            try (Transaction transaction = entryStore.startTransaction()) {
-                LookupEntry subjectEntry = entryFor(transaction, subjectUri);
-                UpdateResult result = writeLookup(
-                        transaction,
-                        subjectUri,
-                        subjectEntry,
-                        equivalentUris,
-                        sources
+            try {
+                return attemptWrite(description, write);
+            }
+            catch (LookupWriteConflictException e) {
+                log.warn(
+                        "{} when updating {} (attempt {}/{}), retrying",
+                        new Object[] { // This is to help the compiler use the correct overloaded method
+                                e.getMessage(),
+                                description,
+                                attempt,
+                                WRITE_RETRIES
+                        }
                 );
-                transaction.commit();
+            }
+        }
+        throw new IllegalStateException("Exceeded number of retry attempts to update " + description);
+    }
 
-                Set<LookupEntry> newLookups = handleUpdateResult(result);
-                return Optional.fromNullable(newLookups);
+    /*
+     * If the transaction is too large for Mongo the write is applied once more
+     * without a transaction.
+     */
+    @Nullable
+    private <T> T attemptWrite(String description, Function<Transaction, T> write) {
+        try (Transaction transaction = entryStore.startTransaction()) {
+            T result = write.apply(transaction);
+            transaction.commit();
+            return result;
+        }
+        catch (MongoCommandException e) {
+            // The transaction was too large due to Mongo restrictions so we have to do it without a transaction
+            if (e.getErrorCode() == 257 || e.getErrorCodeName().equals("TransactionTooLarge")) {
+                log.warn("Transaction for updating {} was too large, retrying without transactions", description);
+                return write.apply(Transaction.none());
             }
-            catch (MongoCommandException e) {
-                // The transaction was too large due to Mongo restrictions so we have to do it without a transaction
-                if (e.getErrorCode() == 257 || e.getErrorCodeName().equals("TransactionTooLarge")) {
-                    log.warn("Transaction for updating {} was too large, retrying without transactions", subjectUri);
-                    LookupEntry subjectEntry = entryFor(Transaction.none(), subjectUri);
-                    UpdateResult result = writeLookup(Transaction.none(), subjectUri, subjectEntry, equivalentUris, sources);
-                    Set<LookupEntry> newLookups = handleUpdateResult(result);
-                    return Optional.fromNullable(newLookups);
-                }
-                else if (e.getErrorCode() == 112 || e.getErrorCodeName().equals("WriteConflict")) {
-                    log.warn(
-                            "WriteConflict when updating {} (attempt {}/{}), retrying",
-                            new Object[] { // This is to help the compiler use the correct overloaded method
-                                    subjectUri,
-                                    attempt,
-                                    WRITE_RETRIES
-                            }
-                    );
-                }
-                else {
-                    throw e;
+            else if (e.getErrorCode() == 112 || e.getErrorCodeName().equals("WriteConflict")) {
+                throw new LookupWriteConflictException("WriteConflict", e);
+            }
+            else {
+                throw e;
+            }
+        }
+        catch (LockLostException e) {
+            throw new LookupWriteConflictException("Lost lock", e);
+        }
+    }
+
+    /**
+     * Records each of <code>writes</code>, applying writes whose transitive
+     * sets overlap together. The entries for all subjects and neighbours are
+     * resolved in one read, and each group of overlapping writes is then
+     * locked, resolved and has its transitive closures recomputed once.
+     * 
+     * Groups which would produce an oversize set are written one subject at
+     * a time, so the usual direct-equivalence shrinking rules apply.
+     */
+    @Override
+    public Set<LookupEntry> writeLookups(Collection<LookupWrite> writes) {
+        Map<String, PendingWrite> pendingWrites = Maps.newLinkedHashMap();
+        for (LookupWrite write : writes) {
+            Iterable<String> neighbourUris = Iterables.transform(
+                    filterContentSources(write.getEquivalents(), write.getPublishers()),
+                    ContentRef::getCanonicalUri
+            );
+            PendingWrite pendingWrite = new PendingWrite(
+                    write.getSubject().getCanonicalUri(),
+                    ImmutableSet.copyOf(neighbourUris),
+                    write.getPublishers()
+            );
+            pendingWrites.put(pendingWrite.getSubjectUri(), pendingWrite);
+        }
+
+        Map<String, LookupEntry> updatedEntries = Maps.newHashMap();
+        for (List<PendingWrite> group : groupOverlappingWrites(pendingWrites.values())) {
+            for (LookupEntry entry : writeGroup(group)) {
+                updatedEntries.put(entry.uri(), entry);
+            }
+        }
+        return ImmutableSet.copyOf(updatedEntries.values());
+    }
+
+    /*
+     * Partitions writes into groups whose current transitive sets overlap.
+     * Writes which don't change their subject's neighbours are dropped.
+     * 
+     * The partitioning is only a best guess at the time of reading; each group
+     * is re-resolved under lock before it's written, so sets merged by other
+     * writers in the meantime are still handled correctly.
+     */
+    private Collection<List<PendingWrite>> groupOverlappingWrites(Collection<PendingWrite> writes) {
+        Set<String> subjectsAndNeighbours = writes.stream()
+                .map(PendingWrite::getSubjectAndNeighbourUris)
+                .flatMap(Collection::stream)
+                .collect(MoreCollectors.toImmutableSet());
+        Map<String, LookupEntry> entries = Maps.uniqueIndex(
+                entriesFor(Transaction.none(), subjectsAndNeighbours),
+                LookupEntry::uri
+        );
+
+        List<PendingWrite> changedWrites = Lists.newArrayList();
+        for (PendingWrite write : writes) {
+            LookupEntry subject = entries.get(write.getSubjectUri());
+            if (subject == null) {
+                log.warn("No entry for {}, skipping", write.getSubjectUri());
+            } else if (noChangeInNeighbours(subject, write.getNeighbourUris(), write.getSources())) {
+                log.debug("{}: no change in neighbours: {}", write.getSubjectUri(), write.getNeighbourUris());
+            } else {
+                changedWrites.add(write);
+            }
+        }
+
+        int[] parents = new int[changedWrites.size()];
+        Map<String, Integer> firstWriteForUri = Maps.newHashMap();
+        for (int i = 0; i < changedWrites.size(); i++) {
+            parents[i] = i;
+            for (String uri : transitiveUris(changedWrites.get(i), entries)) {
+                Integer other = firstWriteForUri.putIfAbsent(uri, i);
+                if (other != null) {
+                    parents[root(parents, i)] = root(parents, other);
                 }
             }
         }
-        throw new IllegalStateException("Exceeded number of retry attempts to update " + subjectUri);
+
+        Map<Integer, List<PendingWrite>> groups = Maps.newLinkedHashMap();
+        for (int i = 0; i < changedWrites.size(); i++) {
+            groups.computeIfAbsent(root(parents, i), root -> Lists.newArrayList())
+                    .add(changedWrites.get(i));
+        }
+        return groups.values();
+    }
+
+    private static int root(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private Set<String> transitiveUris(PendingWrite write, Map<String, LookupEntry> entries) {
+        ImmutableSet.Builder<String> uris = ImmutableSet.builder();
+        for (String uri : write.getSubjectAndNeighbourUris()) {
+            uris.add(uri);
+            LookupEntry entry = entries.get(uri);
+            if (entry != null) {
+                uris.addAll(Iterables.transform(entry.equivalents(), LookupRef::uri));
+            }
+        }
+        return uris.build();
+    }
+
+    private Set<LookupEntry> writeGroup(List<PendingWrite> group) {
+        if (group.size() == 1) {
+            PendingWrite write = Iterables.getOnlyElement(group);
+            return writeLookup(write.getSubjectUri(), write.getNeighbourUris(), write.getSources())
+                    .or(ImmutableSet.of());
+        }
+
+        String description = String.format(
+                "%s subjects including %s",
+                group.size(),
+                group.get(0).getSubjectUri()
+        );
+        List<UpdateResult> results = writeWithRetries(
+                description,
+                transaction -> writeGroup(transaction, group)
+        );
+
+        ImmutableSet.Builder<LookupEntry> updatedEntries = ImmutableSet.builder();
+        if (results == null) {
+            log.info("Oversize set for {}, writing subjects individually", description);
+            for (PendingWrite write : group) {
+                updatedEntries.addAll(writeGroup(ImmutableList.of(write)));
+            }
+            return updatedEntries.build();
+        }
+        for (UpdateResult result : results) {
+            updatedEntries.addAll(handleUpdateResult(result));
+        }
+        return updatedEntries.build();
+    }
+
+    /*
+     * A null return means the combined transitive sets of the group are
+     * oversize and the writes need to be applied individually.
+     */
+    @Nullable
+    private List<UpdateResult> writeGroup(Transaction transaction, List<PendingWrite> group) {
+        Set<String> subjectsAndNeighbours = group.stream()
+                .map(PendingWrite::getSubjectAndNeighbourUris)
+                .flatMap(Collection::stream)
+                .collect(MoreCollectors.toImmutableSet());
+        Set<String> transitiveSetsUris = null;
+
+        try {
+            LockAttempt lockedSets = lockAllIds(transaction, subjectsAndNeighbours, false);
+            transitiveSetsUris = lockedSets.getTransitiveSetsUris();
+            return updateGroupEntries(transaction, group, lockedSets);
+        } catch (OversizeTransitiveSetException otse) {
+            return null;
+        } catch (InterruptedException e) {
+            // nothing of the group was written, so it mustn't be reported
+            // as done
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    String.format("Interrupted writing %s subjects", group.size()),
+                    e
+            );
+        } finally {
+            lock.unlock(subjectsAndNeighbours);
+            if (transitiveSetsUris != null) {
+                lock.unlock(transitiveSetsUris);
+            }
+        }
+    }
+
+    private List<UpdateResult> updateGroupEntries(
+            Transaction transaction,
+            List<PendingWrite> group,
+            LockAttempt lockedSets
+    ) {
+        // entries for all members in all transitive sets involved
+        Map<String, LookupEntry> entryIndex = resolveTransitiveSets(transaction, lockedSets);
+        Map<String, LookupEntry> originalEntries = ImmutableMap.copyOf(entryIndex);
+        EquivalenceGraph graph = EquivalenceGraph.of(entryIndex.values());
+
+        List<String> updatedSubjectUris = Lists.newArrayList();
+        for (PendingWrite write : group) {
+            LookupEntry subject = entryIndex.get(write.getSubjectUri());
+            checkNotNull(subject, "No entry for %s", write.getSubjectUri());
+            if (noChangeInNeighbours(subject, write.getNeighbourUris(), write.getSources())) {
+                log.debug("{}: no change in neighbours: {}", write.getSubjectUri(), write.getNeighbourUris());
+                continue;
+            }
+            Set<LookupEntry> newNeighbours = newSubjectNeighbours(write.getNeighbourUris(), entryIndex);
+            for (LookupEntry entry : entryIndex.values()) {
+                LookupEntry updatedEntry = updateEntryNeighbours(entry, subject, newNeighbours, write.getSources());
+                entryIndex.put(entry.uri(), updatedEntry);
+                graph.update(updatedEntry);
+            }
+            updatedSubjectUris.add(write.getSubjectUri());
+        }
+
+        if (updatedSubjectUris.isEmpty()) {
+            return ImmutableList.of();
+        }
+
+        Map<String, LookupEntry> newLookups = recomputeTransitiveClosures(graph, entryIndex);
+        storeAll(transaction, lockedSets.getTransitiveSetsUris(), newLookups.values());
+
+        Set<LookupEntry> allUpdatedEntries = ImmutableSet.copyOf(newLookups.values());
+        return updatedSubjectUris.stream()
+                .map(uri -> new UpdateResult(
+                        originalEntries.get(uri),
+                        newLookups.get(uri),
+                        allUpdatedEntries
+                ))
+                .collect(MoreCollectors.toImmutableList());
+    }
+
+    /*
+     * A shared lock may have expired while the sets were being updated, in
+     * which case another writer could have changed them, so nothing is stored
+     * unless all locks are still held. They're renewed in the transaction, so
+     * can't be taken over before the entries are committed.
+     */
+    private void storeAll(
+            Transaction transaction,
+            Set<String> lockedUris,
+            Collection<LookupEntry> entries
+    ) {
+        if (!lock.renew(transaction, lockedUris)) {
+            throw new LockLostException(lockedUris.size());
+        }
+        entryStore.storeAll(transaction, entries);
     }
 
     @Nullable
@@ -231,29 +548,14 @@ public class TransitiveLookupWriter implements LookupWriter {
         }
 
         try {
-            synchronized (lock) {
-                timerLog.debug("TIMER L TW 2 acquired the lock object. {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                lastTime = System.nanoTime();
-                int loop = 0;
-                while((transitiveSetsUris = tryLockAllIds(transaction, subjectAndNeighbours, strictSubset)) == null) {
-                    timerLog.debug("TIMER L TW 2 failed to lock ids (loop "+loop++ +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                    lastTime = System.nanoTime();
-                    lock.unlock(subjectAndNeighbours);
-                    timerLog.debug("TIMER L TW 2 unlocked "+subjectAndNeighbours.size()+" (loop "+loop++ +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                    lastTime = System.nanoTime();
-                    lock.wait();
-                    timerLog.debug("TIMER L TW 2 wait finished (loop "+loop++ +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                    lastTime = System.nanoTime();
-                }
-                timerLog.debug("TIMER L TW 2 all ids locked (loop "+loop +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                lastTime = System.nanoTime();
-            }
-            
+            LockAttempt lockedSets = lockAllIds(transaction, subjectAndNeighbours, strictSubset);
+            transitiveSetsUris = lockedSets.getTransitiveSetsUris();
+
             UpdateResult updateResult = updateEntries(
                     transaction,
                     subjectUri,
                     newNeighboursUris,
-                    transitiveSetsUris,
+                    lockedSets,
                     sources
             );
 
@@ -269,17 +571,12 @@ public class TransitiveLookupWriter implements LookupWriter {
         } finally {
             timerLog.debug("TIMER L TW Finally block reached. {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
             lastTime = System.nanoTime();
-            synchronized (lock) {
-                timerLog.debug("TIMER L TW Finally acquired the lock object.{}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                lastTime = System.nanoTime();
-                lock.unlock(subjectAndNeighbours);
-                timerLog.debug("TIMER L TW Finally unlocked subjet and neighbours ("+subjectAndNeighbours.size()+").{}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                lastTime = System.nanoTime();
-                if (transitiveSetsUris != null) {
-                    lock.unlock(transitiveSetsUris);
-                    timerLog.debug("TIMER L TW Finally unlocked transitive uris ("+transitiveSetsUris.size()+").{}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
-                }
-                lock.notifyAll();
+            lock.unlock(subjectAndNeighbours);
+            timerLog.debug("TIMER L TW Finally unlocked subjet and neighbours ("+subjectAndNeighbours.size()+").{}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
+            lastTime = System.nanoTime();
+            if (transitiveSetsUris != null) {
+                lock.unlock(transitiveSetsUris);
+                timerLog.debug("TIMER L TW Finally unlocked transitive uris ("+transitiveSetsUris.size()+").{}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
             }
         }
     }
@@ -315,7 +612,7 @@ public class TransitiveLookupWriter implements LookupWriter {
             Transaction transaction,
             String subjectUri,
             ImmutableSet<String> newNeighboursUris,
-            Set<String> transitiveSetsUris,
+            LockAttempt lockedSets,
             Set<Publisher> sources
     ) {
         long startTime = System.nanoTime();
@@ -333,22 +630,21 @@ public class TransitiveLookupWriter implements LookupWriter {
         }
         
         // entries for all members in all transitive sets involved
-        Map<String, LookupEntry> entryIndex = resolveTransitiveSets(transaction, transitiveSetsUris);
+        Map<String, LookupEntry> entryIndex = resolveTransitiveSets(transaction, lockedSets);
 
         timerLog.debug("TIMER L TW 4 Resolved transitive sets ("+entryIndex.size()+"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
         lastTime = System.nanoTime();
         Set<LookupEntry> newNeighbours = newSubjectNeighbours(newNeighboursUris, entryIndex);
+        EquivalenceGraph graph = EquivalenceGraph.of(entryIndex.values());
         
         for (LookupEntry entry : entryIndex.values()) {
-            entryIndex.put(entry.uri(), 
-                updateEntryNeighbours(entry, subject, newNeighbours, sources)
-            );
+            LookupEntry updatedEntry = updateEntryNeighbours(entry, subject, newNeighbours, sources);
+            entryIndex.put(entry.uri(), updatedEntry);
+            graph.update(updatedEntry);
         }
    
-        Map<String, LookupEntry> newLookups = recomputeTransitiveClosures(entryIndex);
-        for (LookupEntry entry : newLookups.values()) {
-            entryStore.store(transaction, entry);
-        }
+        Map<String, LookupEntry> newLookups = recomputeTransitiveClosures(graph, entryIndex);
+        storeAll(transaction, lockedSets.getTransitiveSetsUris(), newLookups.values());
 
         timerLog.debug("TIMER L TW 4 Saved entries to db. {}ms. {}", (System.nanoTime() - lastTime) / 1000000,Thread.currentThread().getName());
 
@@ -393,8 +689,88 @@ public class TransitiveLookupWriter implements LookupWriter {
                 .collect(MoreCollectors.toImmutableSet());
     }
 
-    private Map<String, LookupEntry> resolveTransitiveSets(Transaction transaction, Set<String> transitiveSetUris) {
-        return Maps.newHashMap(Maps.uniqueIndex(entriesFor(transaction, transitiveSetUris), LookupEntry::uri));
+    /*
+     * Members of the locked sets are resolved with a single indexed query on
+     * their equivalence set ids. Any members not found that way, such as
+     * those recorded before set ids were stored, are then resolved by URI.
+     * Entries outside the locked sets are ignored.
+     */
+    private Map<String, LookupEntry> resolveTransitiveSets(Transaction transaction, LockAttempt lockedSets) {
+        Set<String> transitiveSetUris = lockedSets.getTransitiveSetsUris();
+        Map<String, LookupEntry> entryIndex = Maps.newHashMap();
+        for (LookupEntry entry : entryStore.entriesForEquivalenceSets(transaction, lockedSets.getEquivalenceSetIds())) {
+            if (transitiveSetUris.contains(entry.uri())) {
+                entryIndex.put(entry.uri(), entry);
+            }
+        }
+        Set<String> missingUris = ImmutableSet.copyOf(Sets.difference(transitiveSetUris, entryIndex.keySet()));
+        if (!missingUris.isEmpty()) {
+            for (LookupEntry entry : entriesFor(transaction, missingUris)) {
+                entryIndex.put(entry.uri(), entry);
+            }
+        }
+        return entryIndex;
+    }
+
+    /*
+     * Blocks until the URIs of the directly affected entries, and those of all
+     * the transitive sets they're in, are locked.
+     * 
+     * Returns the successful attempt, holding all URIs in all transitive sets
+     * relevant to this update. The caller is responsible for unlocking both
+     * the given URIs and those of the returned sets.
+     */
+    private LockAttempt lockAllIds(
+            Transaction transaction,
+            Set<String> neighboursUris,
+            boolean strictSubset
+    ) throws InterruptedException {
+        boolean projectedOversize = isProjectedOversize(transaction, neighboursUris, strictSubset);
+        long lastTime = System.nanoTime();
+        int loop = 0;
+        LockAttempt lockAttempt;
+        while (!(lockAttempt = tryLockAllIds(transaction, neighboursUris, strictSubset, projectedOversize)).isLocked()) {
+            timerLog.debug("TIMER L TW 2 failed to lock ids (loop "+loop++ +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
+            lastTime = System.nanoTime();
+            lock.unlock(neighboursUris);
+            timerLog.debug("TIMER L TW 2 unlocked "+neighboursUris.size()+" (loop "+loop++ +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
+            lastTime = System.nanoTime();
+            lock.awaitRelease(lockAttempt.getContendedUris());
+            timerLog.debug("TIMER L TW 2 wait finished (loop "+loop++ +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
+            lastTime = System.nanoTime();
+        }
+        timerLog.debug("TIMER L TW 2 all ids locked (loop "+loop +"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
+        return lockAttempt;
+    }
+
+    /*
+     * Whether the recorded sizes of the sets involved suggest the update is
+     * oversize, read before anything is locked. The sizes may be stale, so
+     * an update is only rejected once they're read again under the lock.
+     */
+    private boolean isProjectedOversize(
+            Transaction transaction,
+            Set<String> neighboursUris,
+            boolean strictSubset
+    ) {
+        return isOversizeChecked(strictSubset)
+                && recordedSetSize(transaction, neighboursUris) > maxSetSize;
+    }
+
+    private int recordedSetSize(Transaction transaction, Set<String> neighboursUris) {
+        int size = 0;
+        for (int setSize : entryStore.equivalenceSetSizesFor(transaction, neighboursUris).values()) {
+            size += setSize;
+        }
+        return size;
+    }
+
+    // We allow oversize sets if this is being written as an explicit equivalence,
+    // since a user has explicitly asked us to make the assertion, so we must
+    // honour it
+    // If we will shrink the direct equivalences then we allow this as well
+    private boolean isOversizeChecked(boolean strictSubset) {
+        return equivType.equals(EquivType.DIRECT) && !strictSubset;
     }
 
     /*
@@ -406,49 +782,62 @@ public class TransitiveLookupWriter implements LookupWriter {
      * and locking the full equivalence sets another thread could potentially
      * have changed those entries.
      * 
-     * A return value of null means either of the lock attempts failed an
-     * locking needs to re-attempted. Non-null return is a set containing all
-     * URIs in all transitive sets relevant to this update.
+     * If either of the lock attempts fails the returned attempt holds the
+     * URIs which could not be locked, so the caller can wait for them to be
+     * released before re-attempting. Otherwise it holds all URIs in all
+     * transitive sets relevant to this update.
+     *
+     * If the update was projected to be oversize, the recorded set sizes are
+     * read again once the directly affected entries are locked, and the
+     * update rejected without reading any set members if they still are.
      */
-    @Nullable
-    private Set<String> tryLockAllIds(
+    private LockAttempt tryLockAllIds(
             Transaction transaction,
             Set<String> neighboursUris,
-            boolean strictSubset
-    ) throws InterruptedException {
+            boolean strictSubset,
+            boolean projectedOversize
+    ) {
         long startTime = System.nanoTime();
         long lastTime = System.nanoTime();
         timerLog.debug("TIMER L TW 3 Trying to lock all ids. {}", Thread.currentThread().getName());
         if (!lock.tryLock(neighboursUris)) {
             timerLog.debug("TIMER L TW 3 Failed. {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
             lastTime = System.nanoTime();
-            return null;
+            return LockAttempt.contended(neighboursUris);
         }
 
         timerLog.debug("TIMER L TW 3 all ids locked. {}ms. {}", (System.nanoTime() - lastTime) / 1000000,  Thread.currentThread().getName());
         lastTime = System.nanoTime();
-        Set<LookupEntry> entries = entriesFor(transaction, neighboursUris);
+        if (projectedOversize) {
+            int lockedSetSize = recordedSetSize(transaction, neighboursUris);
+            if (lockedSetSize > maxSetSize) {
+                throw new OversizeTransitiveSetException(lockedSetSize);
+            }
+        }
+        // Only the set members are needed here, so entries are resolved in
+        // full once the sets are locked
+        Map<String, Set<String>> transitiveUris = entryStore.transitiveUrisFor(transaction, neighboursUris);
 
-        timerLog.debug("TIMER L TW 3 got all entries from the DB ("+entries.size()+"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
+        timerLog.debug("TIMER L TW 3 got all entries from the DB ("+transitiveUris.size()+"). {}ms. {}", (System.nanoTime() - lastTime) / 1000000, Thread.currentThread().getName());
 
-        Set<String> transitiveSetUris = entries.stream()
-                .map(LookupEntry::equivalents)
+        Set<String> transitiveSetUris = transitiveUris.values().stream()
                 .flatMap(Collection::stream)
-                .map(LookupRef::uri)
                 .collect(MoreCollectors.toImmutableSet());
 
-        // We allow oversize sets if this is being written as an explicit equivalence, 
-        // since a user has explicitly asked us to make the assertion, so we must
-        // honour it
-        // If we will shrink the direct equivalences then we allow this as well
-        if (equivType.equals(EquivType.DIRECT) && transitiveSetUris.size() > maxSetSize && !strictSubset) {
+        if (isOversizeChecked(strictSubset) && transitiveSetUris.size() > maxSetSize) {
             throw new OversizeTransitiveSetException(transitiveSetUris.size());
         }
         Set<String> urisToLock = transitiveSetUris.stream()
                 .filter(uri -> !neighboursUris.contains(uri))
                 .collect(MoreCollectors.toImmutableSet());
 
-        return lock.tryLock(urisToLock) ? transitiveSetUris : null;
+        Set<String> equivalenceSetIds = transitiveUris.values().stream()
+                .map(LookupEntry::equivalenceSetIdOf)
+                .collect(MoreCollectors.toImmutableSet());
+
+        return lock.tryLock(urisToLock)
+               ? LockAttempt.locked(transitiveSetUris, equivalenceSetIds)
+               : LockAttempt.contended(urisToLock);
     }
 
     private LookupEntry updateEntryNeighbours(
@@ -591,36 +980,13 @@ public class TransitiveLookupWriter implements LookupWriter {
         }
     }
 
-    private Map<String, LookupEntry> recomputeTransitiveClosures(Map<String, LookupEntry> entries) {
-        
+    private Map<String, LookupEntry> recomputeTransitiveClosures(
+            EquivalenceGraph graph,
+            Map<String, LookupEntry> entries
+    ) {
         Map<String, LookupEntry> updatedEntries = Maps.newHashMap();
-        for (LookupEntry entry : entries.values()) {
-            if (updatedEntries.containsKey(entry.uri())) {
-                continue;
-            }
-
-            Set<LookupRef> transitiveSet = Sets.newHashSet();
-            
-            Queue<LookupRef> neighboursToProcess = Lists.newLinkedList(entry.getNeighbours());
-            //Traverse equivalence graph breadth-first
-            Set<LookupRef> seen = Sets.newHashSet();
-            while (!neighboursToProcess.isEmpty()) {
-                LookupRef current = neighboursToProcess.poll();
-                if (!seen.contains(current)) {
-                    transitiveSet.add(current);
-                    if (entries.get(current.uri()) != null) {
-                        LookupEntry currentEntry = entries.get(current.uri());
-                        currentEntry.getNeighbours().stream()
-                                .filter(neighbour -> !transitiveSet.contains(neighbour))
-                                .forEach(neighboursToProcess::add);
-                    }
-                    seen.add(current);
-                }
-            }
-
-            // Because all entries in the same transitive set should have
-            // the same equivalents their entries can be updated here,
-            // short-circuiting the top-level loop.
+        for (Set<LookupRef> transitiveSet : graph.components()) {
+            // All entries in the same transitive set have the same equivalents
             for (LookupRef lookupRef : transitiveSet) {
                 LookupEntry lookupEntry = entries.get(lookupRef.uri());
                 if (lookupEntry != null) {
@@ -655,6 +1021,85 @@ public class TransitiveLookupWriter implements LookupWriter {
         
     }
 
+    private static class LockLostException extends RuntimeException {
+
+        public LockLostException(int lockedUris) {
+            super(String.format("Lock on %s URIs no longer held", lockedUris));
+        }
+
+    }
+
+    private static class PendingWrite {
+
+        private final String subjectUri;
+        private final ImmutableSet<String> neighbourUris;
+        private final Set<Publisher> sources;
+
+        public PendingWrite(String subjectUri, ImmutableSet<String> neighbourUris, Set<Publisher> sources) {
+            this.subjectUri = checkNotNull(emptyToNull(subjectUri), "null subject");
+            this.neighbourUris = neighbourUris;
+            this.sources = sources;
+        }
+
+        public String getSubjectUri() {
+            return subjectUri;
+        }
+
+        public ImmutableSet<String> getNeighbourUris() {
+            return neighbourUris;
+        }
+
+        public Set<Publisher> getSources() {
+            return sources;
+        }
+
+        public Set<String> getSubjectAndNeighbourUris() {
+            return Sets.union(neighbourUris, ImmutableSet.of(subjectUri));
+        }
+    }
+
+    private static class LockAttempt {
+
+        @Nullable private final Set<String> transitiveSetsUris;
+        private final Set<String> equivalenceSetIds;
+        private final Set<String> contendedUris;
+
+        private LockAttempt(
+                @Nullable Set<String> transitiveSetsUris,
+                Set<String> equivalenceSetIds,
+                Set<String> contendedUris
+        ) {
+            this.transitiveSetsUris = transitiveSetsUris;
+            this.equivalenceSetIds = equivalenceSetIds;
+            this.contendedUris = contendedUris;
+        }
+
+        public static LockAttempt locked(Set<String> transitiveSetsUris, Set<String> equivalenceSetIds) {
+            return new LockAttempt(transitiveSetsUris, equivalenceSetIds, ImmutableSet.of());
+        }
+
+        public static LockAttempt contended(Set<String> contendedUris) {
+            return new LockAttempt(null, ImmutableSet.of(), contendedUris);
+        }
+
+        public boolean isLocked() {
+            return transitiveSetsUris != null;
+        }
+
+        @Nullable
+        public Set<String> getTransitiveSetsUris() {
+            return transitiveSetsUris;
+        }
+
+        public Set<String> getEquivalenceSetIds() {
+            return equivalenceSetIds;
+        }
+
+        public Set<String> getContendedUris() {
+            return contendedUris;
+        }
+    }
+
     private static class UpdateResult {
         private final LookupEntry originalSubject;
         private final LookupEntry updatedSubject;
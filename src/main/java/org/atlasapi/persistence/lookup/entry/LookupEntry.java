@@ -4,6 +4,7 @@ import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.metabroadcast.common.time.DateTimeZones;
 import org.atlasapi.media.entity.Alias;
@@ -196,6 +197,29 @@ public class LookupEntry {
         return equivs;
     }
 
+    /**
+     * An identifier shared by every member of this entry's equivalence set,
+     * being the least URI among its {@link #equivalents()}. It changes
+     * whenever the membership of the set changes.
+     */
+    public String equivalenceSetId() {
+        String setId = uri;
+        for (LookupRef equiv : equivs) {
+            if (equiv.uri().compareTo(setId) < 0) {
+                setId = equiv.uri();
+            }
+        }
+        return setId;
+    }
+
+    /**
+     * The {@link #equivalenceSetId()} of the entries of a set with the given
+     * member URIs.
+     */
+    public static String equivalenceSetIdOf(Iterable<String> memberUris) {
+        return Ordering.natural().min(memberUris);
+    }
+
     public LookupEntry copyWithEquivalents(Set<LookupRef> newEquivalents) {
         Set<LookupRef> equivs = ImmutableSet.<LookupRef>builder()
                 .addAll(newEquivalents)
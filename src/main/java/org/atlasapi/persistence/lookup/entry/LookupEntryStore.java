@@ -8,7 +8,9 @@ import org.atlasapi.persistence.content.listing.ContentListingProgress;
 import org.joda.time.DateTime;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 public interface LookupEntryStore {
 
@@ -23,6 +25,15 @@ public interface LookupEntryStore {
 
     void store(Transaction transaction, LookupEntry entry);
 
+    /**
+     * Stores all specified entries. Entries which are unchanged from those
+     * already stored may be skipped.
+     *
+     * @param transaction
+     * @param entries
+     */
+    void storeAll(Transaction transaction, Collection<LookupEntry> entries);
+
     /**
      * Get entries for given URIs or Aliases. There is a one-to-many mapping
      * from identifier to entry so more entries maybe returned than were
@@ -83,6 +94,39 @@ public interface LookupEntryStore {
 
     Iterable<LookupEntry> entriesForCanonicalUris(Transaction transaction, Iterable<String> uris);
 
+    /**
+     * Get the URIs of all members of the equivalence sets of the entries with
+     * the given canonical URIs, reading nothing else from each entry.
+     * 
+     * @return the member URIs of each entry's set, including its own URI,
+     *         keyed by the entry's URI. URIs without entries are absent.
+     */
+    Map<String, Set<String>> transitiveUrisFor(Transaction transaction, Iterable<String> uris);
+
+    /**
+     * Get the number of members of the equivalence sets of the entries with
+     * the given canonical URIs, without reading the members themselves where
+     * the store records set sizes.
+     * 
+     * @return the size of each set, including the entries themselves, keyed
+     *         by equivalence set id. Each set is counted once, however many
+     *         of its members are given.
+     * @see LookupEntry#equivalenceSetId()
+     */
+    Map<String, Integer> equivalenceSetSizesFor(Transaction transaction, Iterable<String> uris);
+
+    /**
+     * Get entries recorded as members of the equivalence sets with the given
+     * ids.
+     * 
+     * Entries recorded before equivalence set ids were stored are not
+     * returned, so callers needing a complete set should fall back to
+     * resolving any missing members by URI.
+     * 
+     * @see LookupEntry#equivalenceSetId()
+     */
+    Iterable<LookupEntry> entriesForEquivalenceSets(Transaction transaction, Iterable<String> setIds);
+
     Iterable<LookupEntry> entriesForIds(Iterable<Long> ids);
 
     Iterable<LookupEntry> entriesForIds(Transaction transaction, Iterable<Long> ids);
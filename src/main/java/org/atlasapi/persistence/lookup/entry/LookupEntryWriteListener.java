@@ -0,0 +1,23 @@
+package org.atlasapi.persistence.lookup.entry;
+
+/**
+ * Notified of entries written to a {@link LookupEntryStore}, so that copies
+ * of them held elsewhere can be discarded.
+ */
+public interface LookupEntryWriteListener {
+
+    /**
+     * Called after <code>entries</code> have been written, and any
+     * transaction they were written in committed. Entries which
+     * were skipped because they were unchanged are not included.
+     */
+    void written(Iterable<LookupEntry> entries);
+
+    /**
+     * Called when writes may have been made without being reported, so
+     * anything held from before then may be stale.
+     */
+    default void missedWrites() {
+    }
+
+}
@@ -0,0 +1,342 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.Alias;
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.content.ContentCategory;
+import org.atlasapi.persistence.lookup.entry.EquivRefs;
+import org.atlasapi.persistence.lookup.entry.EquivRefs.Direction;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.media.entity.AliasTranslator;
+import org.atlasapi.persistence.media.entity.IdentifiedTranslator;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.metabroadcast.common.time.DateTimeZones;
+import com.mongodb.DBObject;
+import com.mongodb.DBObjectCodec;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.joda.time.DateTime;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.metabroadcast.common.persistence.mongo.MongoConstants.ID;
+import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.BIDIRECTIONAL;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.ACTIVELY_PUBLISHED;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.ALIASES;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.BLACKLISTED;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.DIRECT;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.DIRECTION;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.EQUIVS;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.EXPLICIT;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.FIRST_CREATED;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.IDS;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.LAST_UPDATED;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.OPAQUE_ID;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.REF;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.SELF;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.TRANSITIVES_UPDATED;
+
+/**
+ * <p>
+ * Decodes lookup documents straight from BSON into {@link LookupEntry}s,
+ * building the same entries as {@link LookupEntryTranslator#fromDbo(DBObject)}
+ * without first building a {@link DBObject} tree of the document.
+ * </p>
+ *
+ * <p>
+ * Entries are encoded through the translator, since writes need the
+ * translated document to compute their write hash anyway.
+ * </p>
+ */
+public class LookupEntryCodec implements Codec<LookupEntry> {
+
+    private final LookupEntryTranslator translator = new LookupEntryTranslator();
+    private final DBObjectCodec dbObjectCodec;
+
+    public LookupEntryCodec(CodecRegistry codecRegistry) {
+        this.dbObjectCodec = new DBObjectCodec(checkNotNull(codecRegistry));
+    }
+
+    @Override
+    public Class<LookupEntry> getEncoderClass() {
+        return LookupEntry.class;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, LookupEntry entry, EncoderContext encoderContext) {
+        dbObjectCodec.encode(writer, translator.toDbo(entry), encoderContext);
+    }
+
+    @Override
+    public LookupEntry decode(BsonReader reader, DecoderContext decoderContext) {
+        String uri = null;
+        Long id = null;
+        LookupRef self = null;
+        ImmutableSet.Builder<String> aliasUris = ImmutableSet.builder();
+        ImmutableSet<Alias> aliases = ImmutableSet.of();
+        List<LookupRef> equivs = ImmutableList.of();
+        List<DirectedRef> direct = ImmutableList.of();
+        List<DirectedRef> explicit = ImmutableList.of();
+        List<DirectedRef> blacklisted = ImmutableList.of();
+        DateTime created = null;
+        DateTime updated = null;
+        DateTime transitivesUpdated = null;
+        boolean activelyPublished = true;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String field = reader.readName();
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+            switch (field) {
+            case ID:
+                uri = reader.readString();
+                break;
+            case OPAQUE_ID:
+                id = readLong(reader);
+                break;
+            case SELF:
+                self = readRef(reader);
+                break;
+            case ALIASES:
+                reader.readStartArray();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    aliasUris.add(reader.readString());
+                }
+                reader.readEndArray();
+                break;
+            case IDS:
+                aliases = readAliases(reader);
+                break;
+            case EQUIVS:
+                equivs = readRefs(reader);
+                break;
+            case DIRECT:
+                direct = readDirectedRefs(reader);
+                break;
+            case EXPLICIT:
+                explicit = readDirectedRefs(reader);
+                break;
+            case BLACKLISTED:
+                blacklisted = readDirectedRefs(reader);
+                break;
+            case FIRST_CREATED:
+                created = readDateTime(reader);
+                break;
+            case LAST_UPDATED:
+                updated = readDateTime(reader);
+                break;
+            case TRANSITIVES_UPDATED:
+                transitivesUpdated = readDateTime(reader);
+                break;
+            case ACTIVELY_PUBLISHED:
+                activelyPublished = reader.readBoolean();
+                break;
+            default:
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return new LookupEntry(
+                uri,
+                id,
+                self,
+                aliasUris.add(uri).build(),
+                aliases,
+                equivRefs(self, direct),
+                equivRefs(self, explicit),
+                equivRefs(null, blacklisted), // Don't include self
+                ImmutableSet.<LookupRef>builder().add(self).addAll(equivs).build(),
+                created,
+                updated,
+                transitivesUpdated,
+                activelyPublished
+        );
+    }
+
+    private EquivRefs equivRefs(@Nullable LookupRef self, List<DirectedRef> refs) {
+        ImmutableMap.Builder<LookupRef, Direction> equivRefs = ImmutableMap.builder();
+        if (self != null) {
+            equivRefs.put(self, BIDIRECTIONAL);
+        }
+        for (DirectedRef ref : refs) {
+            if (!ref.ref.equals(self)) {
+                equivRefs.put(ref.ref, ref.direction);
+            }
+        }
+        return EquivRefs.of(equivRefs.build());
+    }
+
+    private ImmutableSet<Alias> readAliases(BsonReader reader) {
+        ImmutableSet.Builder<Alias> aliases = ImmutableSet.builder();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String namespace = null;
+            String value = null;
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String field = reader.readName();
+                if (AliasTranslator.NAMESPACE.equals(field)) {
+                    namespace = readString(reader);
+                } else if (AliasTranslator.VALUE.equals(field)) {
+                    value = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            aliases.add(new Alias(namespace, value));
+        }
+        reader.readEndArray();
+        return aliases.build();
+    }
+
+    private List<LookupRef> readRefs(BsonReader reader) {
+        ImmutableList.Builder<LookupRef> refs = ImmutableList.builder();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            refs.add(readRef(reader));
+        }
+        reader.readEndArray();
+        return refs.build();
+    }
+
+    private LookupRef readRef(BsonReader reader) {
+        RefFields ref = new RefFields();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (!ref.read(reader, reader.readName())) {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return ref.build();
+    }
+
+    /*
+     * Equivalence refs are held in nested documents of the ref and its
+     * direction, or for entries written before directions were recorded, in
+     * the same form as the equivalents.
+     */
+    private List<DirectedRef> readDirectedRefs(BsonReader reader) {
+        ImmutableList.Builder<DirectedRef> refs = ImmutableList.builder();
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            LookupRef nested = null;
+            RefFields unnested = new RefFields();
+            String direction = null;
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String field = reader.readName();
+                if (REF.equals(field)) {
+                    nested = readRef(reader);
+                } else if (DIRECTION.equals(field)) {
+                    direction = readString(reader);
+                } else if (!unnested.read(reader, field)) {
+                    reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            // If we don't know we assume it's a bidirectional link, as the
+            // translator does
+            refs.add(new DirectedRef(
+                    nested != null ? nested : unnested.build(),
+                    Strings.isNullOrEmpty(direction) ? BIDIRECTIONAL : Direction.valueOf(direction)
+            ));
+        }
+        reader.readEndArray();
+        return refs.build();
+    }
+
+    @Nullable
+    private static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return reader.readString();
+    }
+
+    @Nullable
+    private static Long readLong(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+        case INT32:
+            return (long) reader.readInt32();
+        case INT64:
+            return reader.readInt64();
+        case DOUBLE:
+            return (long) reader.readDouble();
+        case NULL:
+            reader.readNull();
+            return null;
+        default:
+            throw new IllegalStateException("Unexpected id type " + reader.getCurrentBsonType());
+        }
+    }
+
+    private static DateTime readDateTime(BsonReader reader) {
+        return new DateTime(reader.readDateTime(), DateTimeZones.UTC);
+    }
+
+    private static final class RefFields {
+
+        private String uri;
+        private Long id;
+        private String publisher;
+        private String type;
+
+        boolean read(BsonReader reader, String field) {
+            switch (field) {
+            case ID:
+                uri = readString(reader);
+                return true;
+            case IdentifiedTranslator.OPAQUE_ID:
+                id = readLong(reader);
+                return true;
+            case IdentifiedTranslator.PUBLISHER:
+                publisher = readString(reader);
+                return true;
+            case IdentifiedTranslator.TYPE:
+                type = readString(reader);
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        LookupRef build() {
+            return new LookupRef(
+                    uri,
+                    id,
+                    Publisher.fromKey(publisher).requireValue(),
+                    ContentCategory.valueOf(type)
+            );
+        }
+    }
+
+    private static final class DirectedRef {
+
+        private final LookupRef ref;
+        private final Direction direction;
+
+        DirectedRef(LookupRef ref, Direction direction) {
+            this.ref = ref;
+            this.direction = direction;
+        }
+    }
+}
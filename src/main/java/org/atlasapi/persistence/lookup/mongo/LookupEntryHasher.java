@@ -1,18 +1,101 @@
 package org.atlasapi.persistence.lookup.mongo;
 
-import static com.google.common.base.Preconditions.checkNotNull;
+import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.Alias;
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.persistence.lookup.entry.EquivRefs;
+import org.atlasapi.persistence.lookup.entry.EquivRefs.Direction;
 import org.atlasapi.persistence.lookup.entry.LookupEntry;
 
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 public class LookupEntryHasher {
 
-    private final LookupEntryTranslator translator;
-    
-    public LookupEntryHasher(LookupEntryTranslator translator) {
-        this.translator = checkNotNull(translator);
+    private static final HashFunction FINGERPRINT = Hashing.murmur3_128();
+
+    /*
+     * Bumped whenever the fields persisted for an entry change, including
+     * those derived from it, so that every entry is rewritten in the new
+     * layout the next time it's stored.
+     *
+     * 2: equivSet, equivSetSize and aliasKeys
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * A 64-bit fingerprint of the persisted fields of an entry, ignoring audit
+     * timestamps, and of the layout they're persisted in. It's independent of
+     * the iteration order of the entry's collections and of the JVM, so it can
+     * be stored and compared against later.
+     */
+    public long fingerprintFor(LookupEntry lookupEntry) {
+        Hasher hasher = FINGERPRINT.newHasher();
+        hasher.putInt(FORMAT_VERSION);
+        putString(hasher, lookupEntry.uri());
+        putString(hasher, String.valueOf(lookupEntry.id()));
+        putString(hasher, refKey(lookupEntry.lookupRef()));
+
+        ImmutableSortedSet.Builder<String> aliasUris = ImmutableSortedSet.naturalOrder();
+        aliasUris.add(lookupEntry.uri());
+        aliasUris.addAll(lookupEntry.aliasUrls());
+        putStrings(hasher, aliasUris.build());
+
+        ImmutableSortedSet.Builder<String> aliases = ImmutableSortedSet.naturalOrder();
+        for (Alias alias : lookupEntry.aliases()) {
+            aliases.add(alias.getNamespace() + "|" + alias.getValue());
+        }
+        putStrings(hasher, aliases.build());
+
+        ImmutableSortedSet.Builder<String> equivalents = ImmutableSortedSet.naturalOrder();
+        for (LookupRef equivalent : lookupEntry.equivalents()) {
+            equivalents.add(refKey(equivalent));
+        }
+        putStrings(hasher, equivalents.build());
+
+        putEquivRefs(hasher, lookupEntry.directEquivalents());
+        putEquivRefs(hasher, lookupEntry.explicitEquivalents());
+        putEquivRefs(hasher, lookupEntry.blacklistedEquivalents());
+
+        hasher.putBoolean(lookupEntry.activelyPublished());
+        return hasher.hash().asLong();
+    }
+
+    private void putEquivRefs(Hasher hasher, EquivRefs equivRefs) {
+        ImmutableSortedSet.Builder<String> links = ImmutableSortedSet.naturalOrder();
+        for (Map.Entry<LookupRef, Direction> link : equivRefs.getEquivRefsAsMap().entrySet()) {
+            links.add(refKey(link.getKey()) + "|" + link.getValue());
+        }
+        putStrings(hasher, links.build());
+    }
+
+    private String refKey(@Nullable LookupRef ref) {
+        if (ref == null) {
+            return "";
+        }
+        return ref.uri() + "|" + ref.id() + "|" + ref.publisher() + "|" + ref.category();
+    }
+
+    private void putStrings(Hasher hasher, Set<String> values) {
+        hasher.putInt(values.size());
+        for (String value : values) {
+            putString(hasher, value);
+        }
     }
-    
-    public int writeHashFor(LookupEntry lookupEntry) {
-        return translator.removeFieldsForHash(translator.toDbo(lookupEntry)).hashCode();
+
+    // Length-prefixed so that adjacent values can't be confused
+    private void putString(Hasher hasher, @Nullable String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        hasher.putInt(value.length());
+        hasher.putUnencodedChars(value);
     }
 }
@@ -29,10 +29,10 @@ import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.BIDIRECT
 
 public class LookupEntryTranslator {
 
-    private static final String EXPLICIT = "explicit";
-    private static final String DIRECT = "direct";
-    private static final String BLACKLISTED = "blacklisted";
-    private static final String EQUIVS = "equivs";
+    static final String EXPLICIT = "explicit";
+    static final String DIRECT = "direct";
+    static final String BLACKLISTED = "blacklisted";
+    static final String EQUIVS = "equivs";
     public static final String LAST_UPDATED = "updated";
     public static final String TRANSITIVES_UPDATED = "transitivesUpdated";
     public static final String FIRST_CREATED = "created";
@@ -43,6 +43,14 @@ public class LookupEntryTranslator {
     public static final String SELF = "self";
     public static final String REF = "ref";
     public static final String DIRECTION = "direction";
+    public static final String WRITE_HASH = "writeHash";
+    public static final String EQUIVALENCE_SET = "equivSet";
+    public static final String EQUIVALENCE_SET_SIZE = "equivSetSize";
+    public static final String ALIAS_VALUES = "aliasValues";
+    public static final String ALIAS_KEYS = "aliasKeys";
+
+    // can't appear in a namespace, so keys for different aliases never collide
+    private static final char ALIAS_KEY_SEPARATOR = '\u0000';
 
     private final AliasTranslator aliasTranslator = new AliasTranslator();
     private static final LookupRefTranslator lookupRefTranslator = new LookupRefTranslator();
@@ -63,8 +71,11 @@ public class LookupEntryTranslator {
         TranslatorUtils.fromSet(dbo, aliases, ALIASES);
         
         TranslatorUtils.from(dbo, IDS, aliasTranslator.toDBList(entry.aliases()));
+        putAliasKeys(dbo, entry.aliases());
 
         translateRefsIntoField(dbo, EQUIVS, entry.equivalents());
+        TranslatorUtils.from(dbo, EQUIVALENCE_SET, entry.equivalenceSetId());
+        TranslatorUtils.from(dbo, EQUIVALENCE_SET_SIZE, equivalenceSetSizeOf(entry));
         translateEquivRefsIntoField(dbo, DIRECT, entry.directEquivalents());
         translateEquivRefsIntoField(dbo, EXPLICIT, entry.explicitEquivalents());
         translateEquivRefsIntoField(dbo, BLACKLISTED, entry.blacklistedEquivalents());
@@ -80,6 +91,44 @@ public class LookupEntryTranslator {
         return dbo;
     }
 
+    /*
+     * Alias values, and namespace and value pairs, are duplicated into flat
+     * arrays of strings so that lookups by alias can use plain multikey
+     * indexes rather than matching within the ids array. The arrays are
+     * always written, even if empty, so that entries lacking them can be
+     * found and backfilled.
+     */
+    private void putAliasKeys(DBObject dbo, Set<Alias> aliases) {
+        BasicDBList values = new BasicDBList();
+        BasicDBList keys = new BasicDBList();
+        for (Alias alias : aliases) {
+            if (!values.contains(alias.getValue())) {
+                values.add(alias.getValue());
+            }
+            keys.add(aliasKey(alias.getNamespace(), alias.getValue()));
+        }
+        dbo.put(ALIAS_VALUES, values);
+        dbo.put(ALIAS_KEYS, keys);
+    }
+
+    /**
+     * The value stored in {@link #ALIAS_KEYS} for an alias.
+     */
+    public static String aliasKey(String namespace, String value) {
+        return namespace + ALIAS_KEY_SEPARATOR + value;
+    }
+
+    /**
+     * The alias key fields for an entry's aliases, read from a document or a
+     * projection of its {@link #IDS} field, for backfilling entries written
+     * before the fields were.
+     */
+    public DBObject aliasKeysFrom(DBObject dbo) {
+        BasicDBObject aliasKeys = new BasicDBObject();
+        putAliasKeys(aliasKeys, aliasTranslator.fromDBObjects(TranslatorUtils.toDBObjectList(dbo, IDS)));
+        return aliasKeys;
+    }
+
     private void translateRefsIntoField(BasicDBObject dbo, String field, Set<LookupRef> refs) {
         BasicDBList refDbos = new BasicDBList();
         refDbos.addAll(ImmutableSet.copyOf(Iterables.transform(refs, refToDbo)));
@@ -144,6 +193,55 @@ public class LookupEntryTranslator {
         );
     }
     
+    /**
+     * A projection of just the fields read by
+     * {@link #transitiveUrisFrom(DBObject)}.
+     */
+    public BasicDBObject transitiveUrisProjection() {
+        return new BasicDBObject(EQUIVS + "." + ID, 1);
+    }
+
+    /**
+     * Reads the URIs of the members of an entry's equivalence set, including
+     * its own, from a document or from a {@link #transitiveUrisProjection()
+     * projection} of one.
+     */
+    public Set<String> transitiveUrisFrom(DBObject dbo) {
+        ImmutableSet.Builder<String> uris = ImmutableSet.builder();
+        uris.add(TranslatorUtils.toString(dbo, ID));
+        for (DBObject ref : TranslatorUtils.toDBObjectList(dbo, EQUIVS)) {
+            uris.add(TranslatorUtils.toString(ref, ID));
+        }
+        return uris.build();
+    }
+
+    private int equivalenceSetSizeOf(LookupEntry entry) {
+        Set<String> members = Sets.newHashSet(entry.uri());
+        for (LookupRef equivalent : entry.equivalents()) {
+            members.add(equivalent.uri());
+        }
+        return members.size();
+    }
+
+    /**
+     * A projection of just the fields read by
+     * {@link #equivalenceSetSizeFrom(DBObject)}, along with the set id.
+     */
+    public BasicDBObject equivalenceSetSizeProjection() {
+        return new BasicDBObject(EQUIVALENCE_SET, 1).append(EQUIVALENCE_SET_SIZE, 1);
+    }
+
+    /**
+     * Reads the number of members of an entry's equivalence set, including
+     * itself, from a document or from a
+     * {@link #equivalenceSetSizeProjection() projection} of one. Entries
+     * stored before set sizes were recorded have none.
+     */
+    @Nullable
+    public Integer equivalenceSetSizeFrom(DBObject dbo) {
+        return TranslatorUtils.toInteger(dbo, EQUIVALENCE_SET_SIZE);
+    }
+
     public DBObject removeFieldsForHash(DBObject dbo) {
         if (dbo == null) {
             return null;
@@ -151,6 +249,7 @@ public class LookupEntryTranslator {
         dbo.removeField(LAST_UPDATED);
         dbo.removeField(FIRST_CREATED);
         dbo.removeField(TRANSITIVES_UPDATED);
+        dbo.removeField(WRITE_HASH);
         return dbo;
     }
 
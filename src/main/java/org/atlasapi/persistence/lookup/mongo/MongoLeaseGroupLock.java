@@ -0,0 +1,266 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.persistence.Transaction;
+
+import org.atlasapi.persistence.lookup.KeyGroupLock;
+
+import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
+import com.metabroadcast.common.stream.MoreCollectors;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.DBObject;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.types.ObjectId;
+import org.joda.time.Duration;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.metabroadcast.common.persistence.mongo.MongoConstants.ID;
+import static com.metabroadcast.common.persistence.mongo.MongoConstants.IN;
+
+/**
+ * <p>
+ * A {@link KeyGroupLock} shared between processes, held as expiring leases in
+ * a Mongo collection with one document per key:
+ * <code>{_id: key, owner: ..., token: ..., expires: ...}</code>.
+ * </p>
+ *
+ * <p>
+ * A group is acquired with a single unordered bulk upsert. Each upsert only
+ * matches a lease which has expired or is already held by the caller, so a
+ * live lease held by someone else makes its upsert fail with a duplicate key
+ * error. In that case the leases taken by the attempt are released again and
+ * the attempt fails.
+ * </p>
+ *
+ * <p>
+ * Every acquisition is stamped with a token, an {@link ObjectId} generated
+ * by the caller, so that an attempt only gives back the leases it took, and
+ * waiters can tell a lease re-taken by its owner from one still held.
+ * </p>
+ *
+ * <p>
+ * A holder whose lease may have expired, for instance after a long pause,
+ * {@link #renew(Transaction, Set) renews} it in the transaction it writes
+ * in. The renewed leases are then part of the transaction, so another owner
+ * can't take them over until it has committed, and an expired lease fails
+ * the write instead of being lost silently. Expired leases are removed by
+ * the TTL index built by {@link #ensureIndexes()}.
+ * </p>
+ */
+public class MongoLeaseGroupLock implements KeyGroupLock<String> {
+
+    private static final String OWNER = "owner";
+    private static final String TOKEN = "token";
+    private static final String EXPIRES = "expires";
+    private static final int DUPLICATE_KEY = 11000;
+
+    private static final Duration DEFAULT_LEASE_DURATION = Duration.standardSeconds(60);
+    private static final Duration DEFAULT_POLL_INTERVAL = Duration.millis(100);
+
+    public static MongoLeaseGroupLock create(DatabasedMongoClient mongo, String collectionName) {
+        return new MongoLeaseGroupLock(
+                mongo,
+                collectionName,
+                new SystemClock(),
+                DEFAULT_LEASE_DURATION,
+                DEFAULT_POLL_INTERVAL
+        );
+    }
+
+    private final MongoCollection<DBObject> leases;
+    private final Clock clock;
+    private final Duration leaseDuration;
+    private final Duration pollInterval;
+    private final String processId = UUID.randomUUID().toString();
+
+    public MongoLeaseGroupLock(
+            DatabasedMongoClient mongo,
+            String collectionName,
+            Clock clock,
+            Duration leaseDuration,
+            Duration pollInterval
+    ) {
+        checkArgument(leaseDuration.getMillis() > 0, "lease duration must be positive");
+        checkArgument(pollInterval.getMillis() > 0, "poll interval must be positive");
+        this.leases = mongo.collection(collectionName, DBObject.class)
+                .withReadPreference(ReadPreference.primary());
+        this.clock = checkNotNull(clock);
+        this.leaseDuration = leaseDuration;
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * Creates the TTL index which removes expired leases. Does nothing if it
+     * already exists.
+     */
+    public void ensureIndexes() {
+        leases.createIndex(
+                new BasicDBObject(EXPIRES, 1),
+                new IndexOptions().expireAfter(0L, TimeUnit.SECONDS)
+        );
+    }
+
+    @Override
+    public boolean tryLock(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return true;
+        }
+        String owner = currentOwner();
+        Date now = clock.now().toDate();
+
+        Set<String> alreadyHeld = Sets.newHashSet();
+        for (DBObject lease : leases.find(keyIn(keys))) {
+            if (!isLive(lease, now)) {
+                continue;
+            }
+            if (!owner.equals(lease.get(OWNER))) {
+                return false;
+            }
+            alreadyHeld.add((String) lease.get(ID));
+        }
+
+        ObjectId token = new ObjectId();
+        DBObject lease = new BasicDBObject("$set", new BasicDBObject(OWNER, owner)
+                .append(TOKEN, token)
+                .append(EXPIRES, new Date(now.getTime() + leaseDuration.getMillis())));
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        List<WriteModel<DBObject>> acquisitions = keys.stream()
+                .map(key -> new UpdateOneModel<DBObject>(acquirable(key, owner, now), lease, upsert))
+                .collect(MoreCollectors.toImmutableList());
+        try {
+            leases.bulkWrite(acquisitions, new BulkWriteOptions().ordered(false));
+            return true;
+        } catch (MongoBulkWriteException e) {
+            if (!onlyDuplicateKeyErrors(e)) {
+                throw e;
+            }
+            // Another owner took a lease between the read and the write, so
+            // give back those taken by this attempt
+            leases.deleteMany(keyIn(Sets.difference(keys, alreadyHeld))
+                    .append(OWNER, owner)
+                    .append(TOKEN, token));
+            return false;
+        }
+    }
+
+    @Override
+    public void unlock(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        leases.deleteMany(keyIn(keys).append(OWNER, currentOwner()));
+    }
+
+    @Override
+    public void awaitRelease(Set<String> keys) throws InterruptedException {
+        Map<String, Object> contended = contendedTokens(keys);
+        if (contended.isEmpty()) {
+            return;
+        }
+        while (contendedTokens(keys).entrySet().containsAll(contended.entrySet())) {
+            Thread.sleep(pollInterval.getMillis());
+        }
+    }
+
+    @Override
+    public boolean isHeld(Set<String> keys) {
+        if (keys.isEmpty()) {
+            return true;
+        }
+        long held = leases.countDocuments(keyIn(keys)
+                .append(OWNER, currentOwner())
+                .append(EXPIRES, new BasicDBObject("$gt", clock.now().toDate())));
+        return held == keys.size();
+    }
+
+    /**
+     * Extends the leases on <code>keys</code> held by the calling thread by
+     * the lease duration, as a write in <code>transaction</code>. Leases
+     * which have already expired aren't renewed.
+     */
+    @Override
+    public boolean renew(Transaction transaction, Set<String> keys) {
+        if (keys.isEmpty()) {
+            return true;
+        }
+        Date now = clock.now().toDate();
+        BasicDBObject held = keyIn(keys)
+                .append(OWNER, currentOwner())
+                .append(EXPIRES, new BasicDBObject("$gt", now));
+        BasicDBObject renewal = new BasicDBObject("$set", new BasicDBObject(
+                EXPIRES,
+                new Date(now.getTime() + leaseDuration.getMillis())
+        ));
+        UpdateResult renewed = transaction.getSession() == null
+                ? leases.updateMany(held, renewal)
+                : leases.updateMany(transaction.getSession(), held, renewal);
+        return renewed.getMatchedCount() == keys.size();
+    }
+
+    private Map<String, Object> contendedTokens(Set<String> keys) {
+        String owner = currentOwner();
+        Date now = clock.now().toDate();
+        ImmutableMap.Builder<String, Object> contended = ImmutableMap.builder();
+        for (DBObject lease : leases.find(keyIn(keys))) {
+            if (isLive(lease, now) && !owner.equals(lease.get(OWNER))) {
+                contended.put((String) lease.get(ID), lease.get(TOKEN));
+            }
+        }
+        return contended.build();
+    }
+
+    private DBObject acquirable(String key, String owner, Date now) {
+        return new BasicDBObject(ID, key)
+                .append("$or", ImmutableList.of(
+                        new BasicDBObject(EXPIRES, new BasicDBObject("$lte", now)),
+                        new BasicDBObject(OWNER, owner)
+                ));
+    }
+
+    private boolean isLive(DBObject lease, Date now) {
+        Date expires = (Date) lease.get(EXPIRES);
+        return expires != null && expires.after(now);
+    }
+
+    private boolean onlyDuplicateKeyErrors(MongoBulkWriteException e) {
+        if (e.getWriteConcernError() != null) {
+            return false;
+        }
+        for (BulkWriteError error : e.getWriteErrors()) {
+            if (error.getCode() != DUPLICATE_KEY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private BasicDBObject keyIn(Set<String> keys) {
+        return new BasicDBObject(ID, new BasicDBObject(IN, keys));
+    }
+
+    private String currentOwner() {
+        return processId + "/" + Thread.currentThread().getId();
+    }
+}
@@ -0,0 +1,245 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.lookup.entry.LookupEntryWriteListener;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
+import com.mongodb.DBObject;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>
+ * Tails a change stream on the lookup collection, passing every entry
+ * written by any process to the registered
+ * {@link LookupEntryWriteListener}s. Registering a cache here, rather than
+ * with a single {@link MongoLookupEntryStore}, keeps it coherent with writes
+ * made by other nodes. Writes made by this node are seen too, so listeners
+ * registered in both places are told of them twice.
+ * </p>
+ *
+ * <p>
+ * Changes are passed on in batches, after which the position in the stream is
+ * recorded in a {@link ResumeTokenStore} under this tailer's task name. The
+ * tailer resumes from there when restarted, so each node should use a task
+ * name of its own. A change may be passed on again after a restart, but none
+ * are skipped unless the stream can't be resumed, e.g. because the oplog has
+ * rolled over since, in which case listeners are told with
+ * {@link LookupEntryWriteListener#missedWrites()} and tailing starts afresh.
+ * </p>
+ *
+ * <p>
+ * Change streams need a replica set, which may have a single member.
+ * </p>
+ */
+public class MongoLookupChangeTailer {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoLookupChangeTailer.class);
+
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final long MAX_AWAIT_MILLIS = 1000;
+    private static final long RETRY_BACKOFF_MILLIS = 5000;
+
+    // ChangeStreamFatalError and ChangeStreamHistoryLost
+    private static final ImmutableSet<Integer> UNRESUMABLE_ERROR_CODES = ImmutableSet.of(280, 286);
+
+    private final MongoCollection<DBObject> lookup;
+    private final ResumeTokenStore resumeTokens;
+    private final String taskName;
+    private final LookupEntryTranslator translator = new LookupEntryTranslator();
+    private final List<LookupEntryWriteListener> listeners = new CopyOnWriteArrayList<>();
+
+    // the thread of the current run, or null when stopped; a thread left
+    // over from an earlier run stops once it sees it's been replaced
+    @Nullable private volatile ExecutorService executor;
+    @Nullable private BsonDocument resumeToken;
+
+    public MongoLookupChangeTailer(
+            DatabasedMongoClient mongo,
+            String lookupCollectionName,
+            ResumeTokenStore resumeTokens,
+            String taskName
+    ) {
+        this.lookup = mongo.collection(lookupCollectionName, DBObject.class);
+        this.resumeTokens = checkNotNull(resumeTokens);
+        this.taskName = checkNotNull(taskName);
+    }
+
+    public void addListener(LookupEntryWriteListener listener) {
+        listeners.add(checkNotNull(listener));
+    }
+
+    /**
+     * Starts tailing on a background thread, from the last recorded position
+     * if there is one, or from now otherwise. The stream is opened before
+     * this returns, where possible, so no later write is missed. A stopped
+     * tailer may be started again.
+     */
+    public synchronized void start() {
+        checkState(executor == null, "already started");
+        ExecutorService run = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("lookup-change-tailer-" + taskName)
+                .setDaemon(true)
+                .build());
+        executor = run;
+        resumeToken = resumeTokens.resumeTokenFor(taskName).orNull();
+        MongoCursor<ChangeStreamDocument<DBObject>> changes = null;
+        try {
+            changes = openChangeStream();
+        } catch (MongoException e) {
+            // left for the background thread to handle, with retries
+            log.warn("Unable to open lookup changes for {}", taskName, e);
+        }
+        MongoCursor<ChangeStreamDocument<DBObject>> opened = changes;
+        run.execute(() -> tail(run, opened));
+    }
+
+    /**
+     * Stops tailing, waiting for the batch in progress to be passed on. Does
+     * nothing if the tailer isn't running.
+     */
+    public synchronized void stop() throws InterruptedException {
+        ExecutorService run = executor;
+        if (run == null) {
+            return;
+        }
+        executor = null;
+        run.shutdown();
+        run.awaitTermination(MAX_AWAIT_MILLIS * 10, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isRunning(ExecutorService run) {
+        return executor == run && !Thread.currentThread().isInterrupted();
+    }
+
+    private void tail(ExecutorService run, @Nullable MongoCursor<ChangeStreamDocument<DBObject>> opened) {
+        while (isRunning(run)) {
+            try (MongoCursor<ChangeStreamDocument<DBObject>> changes = opened != null
+                                                                       ? opened
+                                                                       : openChangeStream()) {
+                opened = null;
+                log.info("Tailing lookup changes for {}", taskName);
+                while (isRunning(run)) {
+                    if (!passOnBatch(changes)) {
+                        break;
+                    }
+                }
+            } catch (MongoInterruptedException e) {
+                return;
+            } catch (MongoCommandException e) {
+                if (!UNRESUMABLE_ERROR_CODES.contains(e.getErrorCode())) {
+                    backOff(run, e);
+                } else {
+                    log.warn("Unable to resume lookup changes for {}, starting afresh", taskName, e);
+                    restart();
+                }
+            } catch (MongoException e) {
+                backOff(run, e);
+            }
+        }
+    }
+
+    private MongoCursor<ChangeStreamDocument<DBObject>> openChangeStream() {
+        return (resumeToken == null ? lookup.watch() : lookup.watch().resumeAfter(resumeToken))
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(MAX_AWAIT_MILLIS, TimeUnit.MILLISECONDS)
+                .iterator();
+    }
+
+    /*
+     * Returns false if the stream has been invalidated, e.g. by the
+     * collection being dropped, and must be reopened.
+     */
+    private boolean passOnBatch(MongoCursor<ChangeStreamDocument<DBObject>> changes) {
+        List<LookupEntry> written = Lists.newArrayList();
+        BsonDocument lastToken = null;
+        ChangeStreamDocument<DBObject> change;
+        while (written.size() < MAX_BATCH_SIZE && (change = changes.tryNext()) != null) {
+            lastToken = change.getResumeToken();
+            OperationType operation = change.getOperationType();
+            if (operation == OperationType.INVALIDATE
+                    || operation == OperationType.DROP
+                    || operation == OperationType.DROP_DATABASE
+                    || operation == OperationType.RENAME) {
+                notify(written);
+                restart();
+                return false;
+            }
+            // deleted documents can't be translated, but entries are never
+            // deleted, and updates to since-deleted documents have none
+            if (change.getFullDocument() != null) {
+                written.add(translator.fromDbo(change.getFullDocument()));
+            }
+        }
+        if (lastToken != null) {
+            notify(written);
+            resumeToken = lastToken;
+            resumeTokens.storeResumeToken(taskName, lastToken);
+        }
+        return true;
+    }
+
+    private void notify(List<LookupEntry> written) {
+        if (written.isEmpty()) {
+            return;
+        }
+        List<LookupEntry> entries = ImmutableList.copyOf(written);
+        for (LookupEntryWriteListener listener : listeners) {
+            try {
+                listener.written(entries);
+            } catch (RuntimeException e) {
+                log.error("Listener failed on {} lookup changes", entries.size(), e);
+            }
+        }
+    }
+
+    private void restart() {
+        resumeToken = null;
+        for (LookupEntryWriteListener listener : listeners) {
+            try {
+                listener.missedWrites();
+            } catch (RuntimeException e) {
+                log.error("Listener failed on missed lookup changes", e);
+            }
+        }
+        // otherwise a restart before the next batch would try to resume from
+        // the same position again
+        resumeTokens.clearResumeToken(taskName);
+    }
+
+    private void backOff(ExecutorService run, MongoException e) {
+        if (!isRunning(run)) {
+            return;
+        }
+        log.warn("Error tailing lookup changes for {}, retrying", taskName, e);
+        try {
+            Thread.sleep(RETRY_BACKOFF_MILLIS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
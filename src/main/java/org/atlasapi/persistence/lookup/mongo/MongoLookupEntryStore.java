@@ -2,11 +2,18 @@ package org.atlasapi.persistence.lookup.mongo;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
 import com.metabroadcast.common.persistence.mongo.MongoBuilders;
 import com.metabroadcast.common.persistence.mongo.MongoConstants;
@@ -14,6 +21,7 @@ import com.metabroadcast.common.persistence.mongo.MongoQueryBuilder;
 import com.metabroadcast.common.persistence.translator.TranslatorUtils;
 import com.metabroadcast.common.query.Selection;
 import com.metabroadcast.common.stream.MoreCollectors;
+import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClientException;
 import com.mongodb.ReadPreference;
@@ -21,7 +29,12 @@ import com.mongodb.TransactionOptions;
 import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 import org.atlasapi.media.entity.Content;
 import org.atlasapi.media.entity.LookupRef;
 import org.atlasapi.media.entity.Publisher;
@@ -33,19 +46,27 @@ import org.atlasapi.persistence.lookup.NewLookupWriter;
 import org.atlasapi.persistence.lookup.entry.EquivRefs;
 import org.atlasapi.persistence.lookup.entry.LookupEntry;
 import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
+import org.atlasapi.persistence.lookup.entry.LookupEntryWriteListener;
+import org.atlasapi.persistence.media.entity.AliasTranslator;
 import org.atlasapi.persistence.media.entity.IdentifiedTranslator;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.metabroadcast.common.persistence.mongo.MongoBuilders.select;
 import static com.metabroadcast.common.persistence.mongo.MongoBuilders.sort;
@@ -56,18 +77,21 @@ import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.BIDIRECT
 import static org.atlasapi.persistence.lookup.entry.LookupEntry.lookupEntryFrom;
 import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.ACTIVELY_PUBLISHED;
 import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.ALIASES;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.ALIAS_KEYS;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.ALIAS_VALUES;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.EQUIVALENCE_SET;
 import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.IDS;
 import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.LAST_UPDATED;
 import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.OPAQUE_ID;
 import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.SELF;
 import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.TRANSITIVES_UPDATED;
-import static org.atlasapi.persistence.media.entity.AliasTranslator.NAMESPACE;
-import static org.atlasapi.persistence.media.entity.AliasTranslator.VALUE;
+import static org.atlasapi.persistence.lookup.mongo.LookupEntryTranslator.WRITE_HASH;
 
 public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter {
 
     private static final String PUBLISHER = SELF + "." + IdentifiedTranslator.PUBLISHER;
-    private static final Pattern ANYTHING = Pattern.compile("^.*");
+    private static final int BACKFILL_BATCH_SIZE = 500;
+    private static final int DEFAULT_MAX_KEYS_PER_QUERY = 500;
 
     private static final Function<ContentCategory, String> CONTENT_CATEGORY_TO_NAME =
             new Function<ContentCategory, String>() {
@@ -79,10 +103,16 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
     private final Logger log;
     private final MongoCollection<DBObject> lookupPrimaryRead;
     private final MongoCollection<DBObject> lookupSpecifiedRead;
+    private final MongoCollection<LookupEntry> entriesPrimaryRead;
+    private final MongoCollection<LookupEntry> entriesSpecifiedRead;
     private final DatabasedMongoClient mongo;
     private final LookupEntryTranslator translator;
     private final LookupEntryHasher lookupEntryHasher;
     private final PersistenceAuditLog persistenceAuditLog;
+    private final List<LookupEntryWriteListener> writeListeners = new CopyOnWriteArrayList<>();
+    private final ListeningExecutorService readExecutor;
+    private final int maxKeysPerQuery;
+    private volatile boolean aliasKeysBackfilled = false;
 
     public MongoLookupEntryStore(
             DatabasedMongoClient mongo,
@@ -106,14 +136,52 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
             PersistenceAuditLog persistenceAuditLog,
             Logger log
     ) {
+        this(
+                mongo,
+                lookupCollectionName,
+                readPreference,
+                persistenceAuditLog,
+                log,
+                MoreExecutors.newDirectExecutorService(),
+                DEFAULT_MAX_KEYS_PER_QUERY
+        );
+    }
+
+    /**
+     * Reads by more than <code>maxKeysPerQuery</code> URIs or ids are split
+     * into queries of at most that many keys, run on
+     * <code>readExecutor</code>. Reads within a transaction always run on the
+     * calling thread, since a session can't be used concurrently.
+     */
+    public MongoLookupEntryStore(
+            DatabasedMongoClient mongo,
+            String lookupCollectionName,
+            ReadPreference readPreference,
+            PersistenceAuditLog persistenceAuditLog,
+            Logger log,
+            ExecutorService readExecutor,
+            int maxKeysPerQuery
+    ) {
+        checkArgument(maxKeysPerQuery > 0, "max keys per query must be positive");
         this.mongo = checkNotNull(mongo);
         MongoCollection<DBObject> lookup = mongo.collection(lookupCollectionName, DBObject.class);
         this.lookupPrimaryRead = lookup.withReadPreference(ReadPreference.primary());
         this.lookupSpecifiedRead = lookup.withReadPreference(readPreference);
+        // full entries are decoded straight from BSON, rather than translated
+        // from DBObjects
+        MongoCollection<LookupEntry> entries = lookup.withDocumentClass(LookupEntry.class)
+                .withCodecRegistry(CodecRegistries.fromRegistries(
+                        CodecRegistries.fromCodecs(new LookupEntryCodec(lookup.getCodecRegistry())),
+                        lookup.getCodecRegistry()
+                ));
+        this.entriesPrimaryRead = entries.withReadPreference(ReadPreference.primary());
+        this.entriesSpecifiedRead = entries.withReadPreference(readPreference);
         this.persistenceAuditLog = checkNotNull(persistenceAuditLog);
         this.translator = new LookupEntryTranslator();
-        this.lookupEntryHasher = new LookupEntryHasher(translator);
+        this.lookupEntryHasher = new LookupEntryHasher();
         this.log = checkNotNull(log);
+        this.readExecutor = MoreExecutors.listeningDecorator(readExecutor);
+        this.maxKeysPerQuery = maxKeysPerQuery;
     }
 
     @Override
@@ -137,33 +205,98 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
         }
     }
 
+    /**
+     * Creates the indexes on equivalence set ids used by
+     * {@link #entriesForEquivalenceSets(Transaction, Iterable)}, and on the
+     * alias keys used by
+     * {@link #entriesForAliases(Optional, Iterable, Iterable, boolean)}. Does
+     * nothing for indexes which already exist. Entries are found by alias
+     * keys alone once no entries without them remain.
+     */
+    public void ensureIndexes() {
+        IndexOptions background = new IndexOptions().background(true);
+        lookupPrimaryRead.createIndex(new Document(EQUIVALENCE_SET, 1), background);
+        lookupPrimaryRead.createIndex(new Document(ALIAS_VALUES, 1), background);
+        lookupPrimaryRead.createIndex(new Document(ALIAS_KEYS, 1), background);
+        if (lookupPrimaryRead.find(missingAliasKeys()).projection(select().field(ID).buildAsDocument())
+                .first() == null) {
+            aliasKeysBackfilled = true;
+        }
+    }
+
+    private static Document missingAliasKeys() {
+        return new Document(ALIAS_VALUES, new Document("$exists", false));
+    }
+
+    /**
+     * Records the alias keys of entries written before they were stored, which
+     * are found by their aliases until then. Entries are updated in batches
+     * and without touching any other field, so this is safe to run alongside
+     * writers and to resume after interruption.
+     *
+     * @return the number of entries updated.
+     */
+    public long backfillAliasKeys() {
+        Document missingKeys = missingAliasKeys();
+        Document projection = select().field(IDS).buildAsDocument();
+
+        long updated = 0;
+        List<WriteModel<DBObject>> updates = Lists.newArrayList();
+        for (DBObject dbo : lookupPrimaryRead.find(missingKeys).projection(projection)) {
+            updates.add(new UpdateOneModel<>(
+                    new Document(ID, dbo.get(ID)).append(ALIAS_VALUES, new Document("$exists", false)),
+                    new BasicDBObject("$set", translator.aliasKeysFrom(dbo))
+            ));
+            if (updates.size() == BACKFILL_BATCH_SIZE) {
+                updated += lookupPrimaryRead.bulkWrite(updates, new BulkWriteOptions().ordered(false))
+                        .getModifiedCount();
+                updates.clear();
+            }
+        }
+        if (!updates.isEmpty()) {
+            updated += lookupPrimaryRead.bulkWrite(updates, new BulkWriteOptions().ordered(false))
+                    .getModifiedCount();
+        }
+        aliasKeysBackfilled = true;
+        log.info("Backfilled alias keys of {} lookup entries", updated);
+        return updated;
+    }
+
+    /**
+     * Registers <code>listener</code> to be told of every entry this store
+     * writes, such as a cache of entries which must not outlive them.
+     */
+    public void addWriteListener(LookupEntryWriteListener listener) {
+        writeListeners.add(checkNotNull(listener));
+    }
+
     @Override
     public void store(LookupEntry entry) {
         store(Transaction.none(), entry);
     }
 
+    /**
+     * Compares the entry's fingerprint against the one stored alongside the
+     * existing entry, reading only that field, and writes the entry if they
+     * differ. Entries stored before fingerprints were recorded are always
+     * rewritten, which records their fingerprint.
+     */
     @Override
     public void store(Transaction transaction, LookupEntry entry) {
-        Document queryDocument = new Document(MongoConstants.ID, entry.uri());
-        LookupEntry existing;
-        if (transaction.getSession() == null) {
-            existing = lookupPrimaryRead.find(queryDocument).map(translator::fromDbo).first();
-        } else {
-            existing = lookupPrimaryRead.find(transaction.getSession(), queryDocument).map(translator::fromDbo).first();
-        }
-
-        store(transaction, entry, existing);
+        Long existingHash = existingHashesFor(transaction, ImmutableSet.of(entry.uri())).get(entry.uri());
+        storeIfChanged(transaction, entry, existingHash);
     }
 
     private void store(Transaction transaction, LookupEntry newEntry, @Nullable LookupEntry existingEntry) {
-        if (existingEntry != null
-                && lookupEntryHasher.writeHashFor(newEntry) == lookupEntryHasher.writeHashFor(existingEntry)) {
-            log.debug("Hash code not changed for URI {}; skipping write", newEntry.uri());
-            persistenceAuditLog.logNoWrite(newEntry);
+        Long existingHash = existingEntry == null ? null : lookupEntryHasher.fingerprintFor(existingEntry);
+        storeIfChanged(transaction, newEntry, existingHash);
+    }
+
+    private void storeIfChanged(Transaction transaction, LookupEntry newEntry, @Nullable Long existingHash) {
+        long newHash = lookupEntryHasher.fingerprintFor(newEntry);
+        if (!needsWrite(newEntry, newHash, existingHash)) {
             return;
         }
-        log.debug("New entry or hash code changed for URI {}; writing", newEntry.uri());
-        persistenceAuditLog.logWrite(newEntry);
 
         Document queryDocument = MongoBuilders.where().idEquals(newEntry.uri()).buildAsDocument();
         ReplaceOptions replaceOptions = new ReplaceOptions();
@@ -172,17 +305,111 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
         if (transaction.getSession() == null) {
             lookupPrimaryRead.replaceOne(
                     queryDocument,
-                    translator.toDbo(newEntry),
+                    toDbo(newEntry, newHash),
                     replaceOptions
             );
         } else {
             lookupPrimaryRead.replaceOne(
                     transaction.getSession(),
                     queryDocument,
-                    translator.toDbo(newEntry),
+                    toDbo(newEntry, newHash),
                     replaceOptions
             );
         }
+        transaction.afterCommit(() -> notifyWritten(ImmutableList.of(newEntry)));
+    }
+
+    /**
+     * Reads the fingerprints of all existing entries with a single query and
+     * writes only those entries whose fingerprint has changed, in one
+     * unordered bulk write.
+     */
+    @Override
+    public void storeAll(Transaction transaction, Collection<LookupEntry> entries) {
+        Map<String, LookupEntry> newEntries = Maps.newLinkedHashMap();
+        for (LookupEntry entry : entries) {
+            newEntries.put(entry.uri(), entry);
+        }
+        if (newEntries.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> existingHashes = existingHashesFor(transaction, newEntries.keySet());
+
+        ReplaceOptions replaceOptions = new ReplaceOptions().upsert(true);
+        List<WriteModel<DBObject>> writes = Lists.newArrayList();
+        List<LookupEntry> written = Lists.newArrayList();
+        for (LookupEntry newEntry : newEntries.values()) {
+            long newHash = lookupEntryHasher.fingerprintFor(newEntry);
+            if (needsWrite(newEntry, newHash, existingHashes.get(newEntry.uri()))) {
+                written.add(newEntry);
+                writes.add(new ReplaceOneModel<>(
+                        MongoBuilders.where().idEquals(newEntry.uri()).buildAsDocument(),
+                        toDbo(newEntry, newHash),
+                        replaceOptions
+                ));
+            }
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        BulkWriteOptions bulkWriteOptions = new BulkWriteOptions().ordered(false);
+        if (transaction.getSession() == null) {
+            lookupPrimaryRead.bulkWrite(writes, bulkWriteOptions);
+        } else {
+            lookupPrimaryRead.bulkWrite(transaction.getSession(), writes, bulkWriteOptions);
+        }
+        transaction.afterCommit(() -> notifyWritten(written));
+    }
+
+    /*
+     * Listeners are only told of committed writes, since a reader could
+     * otherwise re-read and hold on to the entries they replace.
+     */
+    private void notifyWritten(List<LookupEntry> written) {
+        for (LookupEntryWriteListener listener : writeListeners) {
+            listener.written(written);
+        }
+    }
+
+    /*
+     * Entries without a stored fingerprint are left out of the result.
+     */
+    private Map<String, Long> existingHashesFor(Transaction transaction, Set<String> uris) {
+        List<DBObject> found = findByKeys(
+                lookupPrimaryRead,
+                transaction,
+                ID,
+                uris,
+                select().field(WRITE_HASH).buildAsDocument()
+        );
+
+        Map<String, Long> existingHashes = Maps.newHashMap();
+        for (DBObject dbo : found) {
+            Long hash = TranslatorUtils.toLong(dbo, WRITE_HASH);
+            if (hash != null) {
+                existingHashes.put(TranslatorUtils.toString(dbo, ID), hash);
+            }
+        }
+        return existingHashes;
+    }
+
+    private boolean needsWrite(LookupEntry newEntry, long newHash, @Nullable Long existingHash) {
+        if (existingHash != null && existingHash == newHash) {
+            log.debug("Hash code not changed for URI {}; skipping write", newEntry.uri());
+            persistenceAuditLog.logNoWrite(newEntry);
+            return false;
+        }
+        log.debug("New entry or hash code changed for URI {}; writing", newEntry.uri());
+        persistenceAuditLog.logWrite(newEntry);
+        return true;
+    }
+
+    private DBObject toDbo(LookupEntry entry, long writeHash) {
+        DBObject dbo = translator.toDbo(entry);
+        dbo.put(WRITE_HASH, writeHash);
+        return dbo;
     }
 
 
@@ -191,13 +418,65 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
         return entriesForCanonicalUris(Transaction.none(), uris);
     }
 
+    /**
+     * Returns the entries in the order of their URIs in <code>uris</code>.
+     */
     @Override
     public Iterable<LookupEntry> entriesForCanonicalUris(Transaction transaction, Iterable<String> uris) {
-        Document queryDocument = where().idIn(uris).buildAsDocument();
-        FindIterable<DBObject> found = transaction.getSession() == null
-                ? lookupSpecifiedRead.find(queryDocument)
-                : lookupSpecifiedRead.find(transaction.getSession(), queryDocument);
-        return found.map(translator::fromDbo);
+        return inKeyOrder(uris, findByKeys(entriesSpecifiedRead, transaction, ID, uris, null), LookupEntry::uri);
+    }
+
+    @Override
+    public Map<String, Set<String>> transitiveUrisFor(Transaction transaction, Iterable<String> uris) {
+        List<DBObject> found = findByKeys(
+                lookupSpecifiedRead,
+                transaction,
+                ID,
+                uris,
+                new Document(translator.transitiveUrisProjection())
+        );
+        ImmutableMap.Builder<String, Set<String>> transitiveUris = ImmutableMap.builder();
+        for (DBObject dbo : found) {
+            transitiveUris.put(TranslatorUtils.toString(dbo, ID), translator.transitiveUrisFrom(dbo));
+        }
+        return transitiveUris.build();
+    }
+
+    /**
+     * Reads the recorded size of each set, falling back to reading the
+     * members of sets of entries stored before sizes were recorded.
+     */
+    @Override
+    public Map<String, Integer> equivalenceSetSizesFor(Transaction transaction, Iterable<String> uris) {
+        List<DBObject> found = findByKeys(
+                lookupSpecifiedRead,
+                transaction,
+                ID,
+                uris,
+                new Document(translator.equivalenceSetSizeProjection())
+        );
+        Map<String, Integer> setSizes = Maps.newHashMap();
+        List<String> unrecorded = Lists.newArrayList();
+        for (DBObject dbo : found) {
+            String setId = TranslatorUtils.toString(dbo, EQUIVALENCE_SET);
+            Integer size = translator.equivalenceSetSizeFrom(dbo);
+            if (setId == null || size == null) {
+                unrecorded.add(TranslatorUtils.toString(dbo, ID));
+            } else {
+                setSizes.put(setId, size);
+            }
+        }
+        if (!unrecorded.isEmpty()) {
+            for (Set<String> members : transitiveUrisFor(transaction, unrecorded).values()) {
+                setSizes.put(LookupEntry.equivalenceSetIdOf(members), members.size());
+            }
+        }
+        return ImmutableMap.copyOf(setSizes);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForEquivalenceSets(Transaction transaction, Iterable<String> setIds) {
+        return findByKeys(entriesSpecifiedRead, transaction, EQUIVALENCE_SET, setIds, null);
     }
 
     @Override
@@ -205,35 +484,161 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
         return entriesForIds(Transaction.none(), ids);
     }
 
+    /**
+     * Returns the entries in the order of their ids in <code>ids</code>.
+     */
     @Override
     public Iterable<LookupEntry> entriesForIds(Transaction transaction, Iterable<Long> ids) {
-        Document queryDocument = new Document(OPAQUE_ID, new Document(IN, ids));
-        FindIterable<DBObject> found = transaction.getSession() == null
-                ? lookupSpecifiedRead.find(queryDocument)
-                : lookupSpecifiedRead.find(transaction.getSession(), queryDocument);
+        return inKeyOrder(ids, findByKeys(entriesSpecifiedRead, transaction, OPAQUE_ID, ids, null), LookupEntry::id);
+    }
+
+    private <K> List<LookupEntry> inKeyOrder(
+            Iterable<K> keys,
+            List<LookupEntry> found,
+            Function<LookupEntry, K> keyOf
+    ) {
+        Map<K, LookupEntry> entries = Maps.newHashMapWithExpectedSize(found.size());
+        for (LookupEntry entry : found) {
+            entries.put(keyOf.apply(entry), entry);
+        }
+        ImmutableList.Builder<LookupEntry> ordered = ImmutableList.builder();
+        for (K key : ImmutableSet.copyOf(keys)) {
+            LookupEntry entry = entries.get(key);
+            if (entry != null) {
+                ordered.add(entry);
+            }
+        }
+        return ordered.build();
+    }
+
+    /*
+     * Finds the documents whose field is one of the given keys, with queries
+     * of at most maxKeysPerQuery keys each. Outside a transaction the queries
+     * run concurrently on the read executor.
+     */
+    private <T> List<T> findByKeys(
+            MongoCollection<T> collection,
+            Transaction transaction,
+            String field,
+            Iterable<?> keys,
+            @Nullable Document projection
+    ) {
+        List<? extends List<?>> chunks = Lists.partition(
+                ImmutableList.copyOf(ImmutableSet.copyOf(keys)),
+                maxKeysPerQuery
+        );
+        if (chunks.isEmpty()) {
+            return ImmutableList.of();
+        }
+        if (transaction.getSession() != null || chunks.size() == 1) {
+            ImmutableList.Builder<T> found = ImmutableList.builder();
+            for (List<?> chunk : chunks) {
+                found.addAll(find(collection, transaction, field, chunk, projection));
+            }
+            return found.build();
+        }
+
+        List<ListenableFuture<List<T>>> queries = Lists.newArrayListWithCapacity(chunks.size());
+        for (List<?> chunk : chunks) {
+            queries.add(readExecutor.submit(
+                    () -> find(collection, Transaction.none(), field, chunk, projection)
+            ));
+        }
+        try {
+            ImmutableList.Builder<T> found = ImmutableList.builder();
+            for (List<T> chunkFound : Futures.allAsList(queries).get()) {
+                found.addAll(chunkFound);
+            }
+            return found.build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted reading lookup entries", e);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            for (ListenableFuture<?> query : queries) {
+                query.cancel(true);
+            }
+        }
+    }
 
-        return found.map(translator::fromDbo);
+    private <T> List<T> find(
+            MongoCollection<T> collection,
+            Transaction transaction,
+            String field,
+            List<?> keys,
+            @Nullable Document projection
+    ) {
+        Document queryDocument = new Document(field, new Document(IN, keys));
+        FindIterable<T> found = transaction.getSession() == null
+                ? collection.find(queryDocument)
+                : collection.find(transaction.getSession(), queryDocument);
+        if (projection != null) {
+            found = found.projection(projection);
+        }
+        return found.into(Lists.newArrayListWithCapacity(keys.size()));
     }
 
     @Override
     public void ensureLookup(Content content) {
         LookupEntry newEntry = lookupEntryFrom(content);
         // Since most content will already have a lookup entry we read first to avoid locking the database
-        LookupEntry existing = lookupPrimaryRead.find(new Document(MongoConstants.ID, content.getCanonicalUri()))
-                .map(translator::fromDbo)
+        LookupEntry existing = entriesPrimaryRead.find(new Document(MongoConstants.ID, content.getCanonicalUri()))
                 .first();
 
         if (existing == null) {
             store(Transaction.none(), newEntry, null);
         } else if(!newEntry.lookupRef().category().equals(existing.lookupRef().category())) {
             updateEntry(content, newEntry, existing);
-        } else if (!newEntry.aliasUrls().equals(existing.aliasUrls())
-                || !newEntry.aliases().equals(existing.aliases())
-                || newEntry.activelyPublished() != existing.activelyPublished()) {
+        } else if (aliasesOrPublishingChanged(newEntry, existing)) {
             store(Transaction.none(), merge(content, newEntry, existing), existing);
         }
     }
 
+    /**
+     * Ensures entries as {@link #ensureLookup(Content)} does, reading the
+     * existing entries with one query and storing those which change with one
+     * bulk write. Entries whose category changes are updated one at a time,
+     * since the entries equivalent to them must be updated too.
+     */
+    @Override
+    public void ensureLookups(Iterable<? extends Content> contents) {
+        Map<String, Content> contentByUri = Maps.newLinkedHashMap();
+        for (Content content : contents) {
+            contentByUri.put(content.getCanonicalUri(), content);
+        }
+        if (contentByUri.isEmpty()) {
+            return;
+        }
+
+        Map<String, LookupEntry> existingByUri = Maps.newHashMap();
+        for (LookupEntry existing : findByKeys(
+                entriesPrimaryRead, Transaction.none(), MongoConstants.ID, contentByUri.keySet(), null
+        )) {
+            existingByUri.put(existing.uri(), existing);
+        }
+
+        List<LookupEntry> toStore = Lists.newArrayList();
+        for (Content content : contentByUri.values()) {
+            LookupEntry newEntry = lookupEntryFrom(content);
+            LookupEntry existing = existingByUri.get(content.getCanonicalUri());
+            if (existing == null) {
+                toStore.add(newEntry);
+            } else if (!newEntry.lookupRef().category().equals(existing.lookupRef().category())) {
+                updateEntry(content, newEntry, existing);
+            } else if (aliasesOrPublishingChanged(newEntry, existing)) {
+                toStore.add(merge(content, newEntry, existing));
+            }
+        }
+        storeAll(Transaction.none(), toStore);
+    }
+
+    private boolean aliasesOrPublishingChanged(LookupEntry newEntry, LookupEntry existing) {
+        return !newEntry.aliasUrls().equals(existing.aliasUrls())
+                || !newEntry.aliases().equals(existing.aliases())
+                || newEntry.activelyPublished() != existing.activelyPublished();
+    }
+
     private void updateEntry(Content content, LookupEntry newEntry, LookupEntry existing) {
         LookupEntry merged = merge(content, newEntry, existing);
         LookupRef ref = merged.lookupRef();
@@ -298,13 +703,7 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
 
     @Override
     public Iterable<LookupEntry> entriesForIdentifiers(Iterable<String> identifiers, boolean useAliases) {
-        return find(identifiers).map(translator::fromDbo);
-    }
-
-    private FindIterable<DBObject> find(Iterable<String> identifiers) {
-        return lookupSpecifiedRead.find(
-                where().fieldIn(ALIASES, identifiers).buildAsDocument()
-        );
+        return entriesSpecifiedRead.find(where().fieldIn(ALIASES, identifiers).buildAsDocument());
     }
 
     @Override
@@ -318,7 +717,7 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
             Iterable<String> values,
             boolean includeUnpublishedEntries
     ) {
-        return find(namespace, values, null, includeUnpublishedEntries).map(translator::fromDbo);
+        return entriesSpecifiedRead.find(aliasQuery(namespace, values, null, includeUnpublishedEntries));
     }
 
     @Override
@@ -328,14 +727,19 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
             @Nullable Iterable<Publisher> publishers,
             boolean includeUnpublishedEntries
     ) {
-        return find(namespace, values, publishers, includeUnpublishedEntries).map(translator::fromDbo);
+        return entriesSpecifiedRead.find(aliasQuery(namespace, values, publishers, includeUnpublishedEntries));
     }
 
     @Override
     public Map<String, Long> idsForCanonicalUris(Iterable<String> uris) {
         Builder<String, Long> results = ImmutableMap.builder();
-        Iterable<DBObject> cursor = lookupSpecifiedRead.find(where().idIn(uris).buildAsDocument())
-                .projection(select().field(OPAQUE_ID).field(ID).buildAsDocument());
+        Iterable<DBObject> cursor = findByKeys(
+                lookupSpecifiedRead,
+                Transaction.none(),
+                ID,
+                uris,
+                select().field(OPAQUE_ID).field(ID).buildAsDocument()
+        );
         for (DBObject dbo : cursor) {
             Long id = TranslatorUtils.toLong(dbo, OPAQUE_ID);
             if (id != null) {
@@ -345,15 +749,32 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
         return results.build();
     }
 
-    private FindIterable<DBObject> find(
+    private Document aliasQuery(
             Optional<String> namespace,
             Iterable<String> values,
             @Nullable Iterable<Publisher> publishers,
             boolean includeUnpublishedEntries
     ) {
-        MongoQueryBuilder query = namespace.isPresent()
-                ? where().elemMatch(IDS, where().fieldEquals(NAMESPACE, namespace.get()).fieldIn(VALUE, values))
-                : where().elemMatch(IDS, where().fieldEquals(NAMESPACE, ANYTHING).fieldIn(VALUE, values));
+        List<String> aliasValues = ImmutableList.copyOf(values);
+        Document aliasMatch = namespace.isPresent()
+                ? where().fieldIn(ALIAS_KEYS, Iterables.transform(
+                        aliasValues,
+                        value -> LookupEntryTranslator.aliasKey(namespace.get(), value)
+                )).buildAsDocument()
+                : where().fieldIn(ALIAS_VALUES, aliasValues).buildAsDocument();
+        if (!aliasKeysBackfilled) {
+            // entries written before alias keys were stored are matched on
+            // their aliases until they've all been backfilled
+            MongoQueryBuilder alias = namespace.isPresent()
+                    ? where().fieldEquals(AliasTranslator.NAMESPACE, namespace.get())
+                            .fieldIn(AliasTranslator.VALUE, aliasValues)
+                    : where().fieldIn(AliasTranslator.VALUE, aliasValues);
+            Document legacyMatch = where().elemMatch(IDS, alias).buildAsDocument()
+                    .append(ALIAS_VALUES, new Document("$exists", false));
+            aliasMatch = new Document("$or", ImmutableList.of(aliasMatch, legacyMatch));
+        }
+
+        MongoQueryBuilder query = where();
         if (!includeUnpublishedEntries) {
             // Not actively published content will have this value set to false
             // Actively published content will either have this value be true or null
@@ -362,13 +783,15 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
         if (publishers != null) {
             query.fieldIn(PUBLISHER, Iterables.transform(publishers, Publisher.TO_KEY));
         }
-        return lookupSpecifiedRead.find(query.buildAsDocument());
+        Document queryDocument = query.buildAsDocument();
+        queryDocument.putAll(aliasMatch);
+        return queryDocument;
     }
 
     @Override
     public Iterable<LookupEntry> entriesForPublishers(Iterable<Publisher> publishers,
             @Nullable Selection selection) {
-        FindIterable<DBObject> find = lookupSpecifiedRead.find(
+        FindIterable<LookupEntry> find = entriesSpecifiedRead.find(
                 where()
                         .fieldIn(PUBLISHER, Iterables.transform(publishers, Publisher.TO_KEY))
                         // Not actively published content will have this value set to false
@@ -382,21 +805,20 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
             find.limit(selection.getLimit());
         }
 
-        return find.map(translator::fromDbo);
+        return find;
     }
 
     @Override
     public Iterable<LookupEntry> allEntriesForPublishers(Iterable<Publisher> publishers,
             ContentListingProgress progress) {
-        FindIterable<DBObject> cursor = cursorForPublishers(publishers, progress);
-        return cursor.map(translator::fromDbo);
+        return cursorForPublishers(publishers, progress);
     }
 
     public Iterable<LookupEntry> all() {
-        return lookupSpecifiedRead.find().map(translator::fromDbo);
+        return entriesSpecifiedRead.find();
     }
 
-    private FindIterable<DBObject> cursorForPublishers(Iterable<Publisher> publishers,
+    private FindIterable<LookupEntry> cursorForPublishers(Iterable<Publisher> publishers,
             ContentListingProgress progress) {
         MongoQueryBuilder queryBuilder = where()
                 .fieldIn(PUBLISHER, Iterables.transform(publishers, Publisher.TO_KEY));
@@ -405,7 +827,7 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
             limitQueryByProgress(progress, queryBuilder);
         }
 
-        return lookupSpecifiedRead.find(queryBuilder.buildAsDocument())
+        return entriesSpecifiedRead.find(queryBuilder.buildAsDocument())
                 .sort(sort().ascending(OPAQUE_ID).buildAsDocument());
     }
 
@@ -431,7 +853,7 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
                 .fieldNotEqualTo(ACTIVELY_PUBLISHED, false)
                 .buildAsDocument();
 
-        return StreamSupport.stream(lookupSpecifiedRead.find(query).map(translator::fromDbo).spliterator(), false)
+        return StreamSupport.stream(entriesSpecifiedRead.find(query).spliterator(), false)
                 .collect(Collectors.toList());
     }
 
@@ -443,7 +865,7 @@ public class MongoLookupEntryStore implements LookupEntryStore, NewLookupWriter
                 .fieldNotEqualTo(ACTIVELY_PUBLISHED, false)
                 .buildAsDocument();
 
-        return lookupSpecifiedRead.find(query).map(translator::fromDbo);
+        return entriesSpecifiedRead.find(query);
     }
 
 }
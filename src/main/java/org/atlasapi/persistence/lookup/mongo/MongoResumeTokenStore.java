@@ -0,0 +1,59 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import com.google.common.base.Optional;
+import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
+import com.metabroadcast.common.persistence.mongo.MongoConstants;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.ReplaceOptions;
+import org.bson.BsonDateTime;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+public class MongoResumeTokenStore implements ResumeTokenStore {
+
+    private static final String RESUME_TOKEN_COLLECTION_NAME = "changeStreamProgress";
+    private static final String RESUME_TOKEN = "resumeToken";
+    private static final String UPDATED = "updated";
+
+    private final MongoCollection<BsonDocument> resumeTokens;
+    private final Clock clock;
+
+    public MongoResumeTokenStore(DatabasedMongoClient mongo) {
+        this(mongo, new SystemClock());
+    }
+
+    public MongoResumeTokenStore(DatabasedMongoClient mongo, Clock clock) {
+        this.resumeTokens = checkNotNull(mongo).collection(RESUME_TOKEN_COLLECTION_NAME, BsonDocument.class);
+        this.clock = checkNotNull(clock);
+    }
+
+    @Override
+    public Optional<BsonDocument> resumeTokenFor(String taskName) {
+        BsonDocument progress = resumeTokens.find(idOf(taskName)).first();
+        if (progress == null || !progress.isDocument(RESUME_TOKEN)) {
+            return Optional.absent();
+        }
+        return Optional.of(progress.getDocument(RESUME_TOKEN));
+    }
+
+    @Override
+    public void storeResumeToken(String taskName, BsonDocument resumeToken) {
+        BsonDocument progress = idOf(taskName)
+                .append(RESUME_TOKEN, resumeToken)
+                .append(UPDATED, new BsonDateTime(clock.now().getMillis()));
+        resumeTokens.replaceOne(idOf(taskName), progress, new ReplaceOptions().upsert(true));
+    }
+
+    @Override
+    public void clearResumeToken(String taskName) {
+        resumeTokens.deleteOne(idOf(taskName));
+    }
+
+    private BsonDocument idOf(String taskName) {
+        return new BsonDocument(MongoConstants.ID, new BsonString(taskName));
+    }
+}
@@ -0,0 +1,21 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import com.google.common.base.Optional;
+import org.bson.BsonDocument;
+
+/**
+ * Records how far a task has read through a change stream, so that it can
+ * resume from where it left off.
+ */
+public interface ResumeTokenStore {
+
+    Optional<BsonDocument> resumeTokenFor(String taskName);
+
+    void storeResumeToken(String taskName, BsonDocument resumeToken);
+
+    /**
+     * Forgets the position of a task which can no longer resume from it.
+     */
+    void clearResumeToken(String taskName);
+
+}
@@ -0,0 +1,281 @@
+package org.atlasapi.persistence.lookup.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.content.ContentCategory;
+import org.atlasapi.persistence.lookup.entry.EquivRefs;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CountingInputStream;
+import com.metabroadcast.common.time.DateTimeZones;
+import org.joda.time.DateTime;
+
+import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.BIDIRECTIONAL;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.ACTIVELY_PUBLISHED;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.HAS_ENTRY;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.NO_ID;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.NO_SET;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_BYTES;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_CATEGORY;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_FLAGS;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_ID;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_PUBLISHER;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_SET;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_URI_LENGTH;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REF_URI_OFFSET;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.REGION_BYTES;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.padded;
+
+/**
+ * <p>
+ * A read-only view of a snapshot file written by a
+ * {@link LookupSnapshotWriter}. The file is memory mapped, so entries are
+ * found by binary search over the mapped pages without loading the file onto
+ * the heap, and a snapshot can be shared by any number of threads.
+ * </p>
+ *
+ * <p>
+ * The entries returned hold only what the snapshot records: their canonical
+ * URI as their only alias URI, no aliases, no blacklisted equivalents and
+ * only themselves as direct and explicit equivalents. Their timestamps are
+ * those of the snapshot. They are fit for resolving content and its
+ * equivalents, but not for writing back.
+ * </p>
+ *
+ * <p>
+ * Mapped files are released when the snapshot is garbage collected, so
+ * references to a snapshot should be dropped once it is replaced.
+ * </p>
+ */
+public final class LookupSnapshot {
+
+    public static LookupSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] regions = new MappedByteBuffer[(int) ((size + REGION_BYTES - 1) / REGION_BYTES)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = (long) i * REGION_BYTES;
+                regions[i] = channel.map(
+                        FileChannel.MapMode.READ_ONLY,
+                        start,
+                        Math.min(REGION_BYTES, size - start)
+                );
+            }
+            channel.position(0);
+            CountingInputStream counting = new CountingInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel))
+            );
+            return new LookupSnapshot(regions, new DataInputStream(counting), counting, file);
+        }
+    }
+
+    private final ByteBuffer[] regions;
+    private final DateTime createdAt;
+    private final Publisher[] publishers;
+    private final ContentCategory[] categories;
+    private final int refCount;
+    private final int idCount;
+    private final long refsStart;
+    private final long idsStart;
+    private final long idRefsStart;
+    private final long setOffsetsStart;
+    private final long membersStart;
+    private final long stringsStart;
+
+    private LookupSnapshot(
+            ByteBuffer[] regions,
+            DataInputStream header,
+            CountingInputStream counting,
+            Path file
+    ) throws IOException {
+        this.regions = regions;
+        if (header.readInt() != SnapshotFormat.MAGIC) {
+            throw new IOException(file + " is not a lookup snapshot");
+        }
+        int version = header.readInt();
+        if (version != SnapshotFormat.VERSION) {
+            throw new IOException("Unsupported lookup snapshot version " + version + " in " + file);
+        }
+        this.createdAt = new DateTime(header.readLong(), DateTimeZones.UTC);
+        this.publishers = new Publisher[header.readInt()];
+        for (int i = 0; i < publishers.length; i++) {
+            publishers[i] = Publisher.fromKey(header.readUTF()).requireValue();
+        }
+        this.categories = new ContentCategory[header.readInt()];
+        for (int i = 0; i < categories.length; i++) {
+            categories[i] = ContentCategory.valueOf(header.readUTF());
+        }
+        this.refCount = header.readInt();
+        int setCount = header.readInt();
+        this.idCount = header.readInt();
+        long memberCount = header.readLong();
+        header.readLong(); // stringBytes, implied by the file size
+
+        this.refsStart = padded(counting.getCount());
+        this.idsStart = refsStart + (long) refCount * REF_BYTES;
+        this.idRefsStart = idsStart + idCount * 8L;
+        this.setOffsetsStart = idRefsStart + padded(idCount * 4L);
+        this.membersStart = setOffsetsStart + (setCount + 1L) * 8;
+        this.stringsStart = membersStart + padded(memberCount * 4);
+    }
+
+    /**
+     * The time the export which wrote this snapshot started. Changes made
+     * since then may not be reflected in it.
+     */
+    public DateTime createdAt() {
+        return createdAt;
+    }
+
+    @Nullable
+    public LookupEntry entryForUri(String uri) {
+        byte[] target = uri.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = refCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int comparison = compareUri(mid, target);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                return entryAt(mid);
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    public LookupEntry entryForId(long id) {
+        int low = 0;
+        int high = idCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = getLong(idsStart + mid * 8L);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return entryAt(getInt(idRefsStart + mid * 4L));
+            }
+        }
+        return null;
+    }
+
+    private int compareUri(int ref, byte[] target) {
+        long start = stringsStart + getLong(refStart(ref) + REF_URI_OFFSET);
+        int length = getInt(refStart(ref) + REF_URI_LENGTH);
+        for (int i = 0; i < Math.min(length, target.length); i++) {
+            int comparison = Integer.compare(getByte(start + i) & 0xFF, target[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, target.length);
+    }
+
+    @Nullable
+    private LookupEntry entryAt(int ref) {
+        byte flags = getByte(refStart(ref) + REF_FLAGS);
+        if ((flags & HAS_ENTRY) == 0) {
+            return null;
+        }
+        LookupRef self = lookupRefAt(ref);
+        int set = getInt(refStart(ref) + REF_SET);
+        ImmutableSet<LookupRef> equivalents = set == NO_SET
+                                              ? ImmutableSet.of(self)
+                                              : ImmutableSet.copyOf(membersOf(set));
+        EquivRefs reflexive = EquivRefs.of(self, BIDIRECTIONAL);
+        return new LookupEntry(
+                self.uri(),
+                self.id(),
+                self,
+                ImmutableSet.of(self.uri()),
+                ImmutableSet.of(),
+                reflexive,
+                reflexive,
+                EquivRefs.of(),
+                equivalents,
+                createdAt,
+                createdAt,
+                createdAt,
+                (flags & ACTIVELY_PUBLISHED) != 0
+        );
+    }
+
+    private List<LookupRef> membersOf(int set) {
+        long first = getLong(setOffsetsStart + set * 8L);
+        long last = getLong(setOffsetsStart + (set + 1L) * 8);
+        ImmutableList.Builder<LookupRef> members = ImmutableList.builder();
+        for (long member = first; member < last; member++) {
+            members.add(lookupRefAt(getInt(membersStart + member * 4)));
+        }
+        return members.build();
+    }
+
+    private LookupRef lookupRefAt(int ref) {
+        long start = refStart(ref);
+        long id = getLong(start + REF_ID);
+        return new LookupRef(
+                uriAt(start),
+                id == NO_ID ? null : id,
+                publishers[getShort(start + REF_PUBLISHER)],
+                categories[getByte(start + REF_CATEGORY)]
+        );
+    }
+
+    private String uriAt(long refStart) {
+        long start = stringsStart + getLong(refStart + REF_URI_OFFSET);
+        byte[] bytes = new byte[getInt(refStart + REF_URI_LENGTH)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = getByte(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long refStart(int ref) {
+        return refsStart + (long) ref * REF_BYTES;
+    }
+
+    private ByteBuffer regionOf(long position) {
+        return regions[(int) (position / REGION_BYTES)];
+    }
+
+    private static int offsetOf(long position) {
+        return (int) (position % REGION_BYTES);
+    }
+
+    private long getLong(long position) {
+        return regionOf(position).getLong(offsetOf(position));
+    }
+
+    private int getInt(long position) {
+        return regionOf(position).getInt(offsetOf(position));
+    }
+
+    private short getShort(long position) {
+        return regionOf(position).getShort(offsetOf(position));
+    }
+
+    private byte getByte(long position) {
+        return regionOf(position).get(offsetOf(position));
+    }
+}
@@ -0,0 +1,309 @@
+package org.atlasapi.persistence.lookup.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.content.ContentCategory;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.UnsignedBytes;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.ACTIVELY_PUBLISHED;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.HAS_ENTRY;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.NO_ID;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.NO_SET;
+import static org.atlasapi.persistence.lookup.snapshot.SnapshotFormat.padded;
+
+/**
+ * <p>
+ * Exports lookup entries to a snapshot file, to be served by a
+ * {@link LookupSnapshot}. Only the identity, publisher, category and
+ * publication state of each entry are recorded, along with its equivalence
+ * set.
+ * </p>
+ *
+ * <p>
+ * Entries are read twice, first to build the URI and id dictionaries and then
+ * to record equivalence sets, so the entries passed should be re-iterable,
+ * e.g. {@link org.atlasapi.persistence.lookup.mongo.MongoLookupEntryStore#all()}.
+ * Entries written while the export runs may be missed, or recorded without
+ * some of their equivalents; since the snapshot records when the export
+ * started, a {@link SnapshotLookupEntryStore} can apply those changes on top.
+ * </p>
+ *
+ * <p>
+ * The dictionaries are built in memory, so this is intended to run offline,
+ * with a heap to match the size of the lookup collection. The file is written
+ * alongside the target and moved into place once complete, so readers never
+ * see a partial snapshot.
+ * </p>
+ */
+public class LookupSnapshotWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(LookupSnapshotWriter.class);
+
+    private final Clock clock;
+
+    public LookupSnapshotWriter() {
+        this(new SystemClock());
+    }
+
+    public LookupSnapshotWriter(Clock clock) {
+        this.clock = checkNotNull(clock);
+    }
+
+    public void write(Iterable<LookupEntry> entries, Path target) throws IOException {
+        DateTime createdAt = clock.now();
+
+        Map<String, Ref> refsByUri = Maps.newHashMap();
+        Map<Publisher, Integer> publishers = Maps.newLinkedHashMap();
+        Map<ContentCategory, Integer> categories = Maps.newLinkedHashMap();
+        for (LookupEntry entry : entries) {
+            Ref self = refFor(refsByUri, entry.lookupRef(), true, publishers, categories);
+            self.flags = (byte) (HAS_ENTRY | (entry.activelyPublished() ? ACTIVELY_PUBLISHED : 0));
+            for (LookupRef equivalent : entry.equivalents()) {
+                refFor(refsByUri, equivalent, false, publishers, categories);
+            }
+        }
+
+        List<Ref> refs = Lists.newArrayList(refsByUri.values());
+        refs.sort((a, b) -> UnsignedBytes.lexicographicalComparator().compare(a.uri, b.uri));
+        for (int i = 0; i < refs.size(); i++) {
+            refs.get(i).index = i;
+        }
+
+        List<int[]> sets = Lists.newArrayList();
+        Map<MemberKey, Integer> setIndexes = Maps.newHashMap();
+        long memberCount = 0;
+        int skipped = 0;
+        for (LookupEntry entry : entries) {
+            Ref self = refsByUri.get(entry.uri());
+            if (self == null || (self.flags & HAS_ENTRY) == 0) {
+                // created since the dictionaries were built
+                skipped++;
+                continue;
+            }
+            int[] members = membersOf(entry, refsByUri);
+            MemberKey key = new MemberKey(members);
+            Integer set = setIndexes.get(key);
+            if (set == null) {
+                set = sets.size();
+                sets.add(members);
+                setIndexes.put(key, set);
+                memberCount += members.length;
+            }
+            self.set = set;
+        }
+
+        // only entries are found by id, so equivalents without one are left out
+        List<Ref> refsById = Lists.newArrayList();
+        for (Ref ref : refs) {
+            if (ref.id != NO_ID && (ref.flags & HAS_ENTRY) != 0) {
+                refsById.add(ref);
+            }
+        }
+        refsById.sort((a, b) -> Long.compare(a.id, b.id));
+
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary), 1 << 16)
+        )) {
+            writeHeader(out, createdAt, publishers, categories, refs, sets, refsById, memberCount);
+            writeRefs(out, refs);
+            for (Ref ref : refsById) {
+                out.writeLong(ref.id);
+            }
+            for (Ref ref : refsById) {
+                out.writeInt(ref.index);
+            }
+            pad(out, refsById.size() * 4L);
+            long offset = 0;
+            for (int[] set : sets) {
+                out.writeLong(offset);
+                offset += set.length;
+            }
+            out.writeLong(offset);
+            for (int[] set : sets) {
+                for (int member : set) {
+                    out.writeInt(member);
+                }
+            }
+            pad(out, memberCount * 4);
+            for (Ref ref : refs) {
+                out.write(ref.uri);
+            }
+        }
+        Files.move(
+                temporary,
+                target,
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING
+        );
+        log.info("Wrote lookup snapshot of {} refs in {} sets to {}, skipping {} new entries", new Object[] {
+                refs.size(),
+                sets.size(),
+                target,
+                skipped
+        });
+    }
+
+    private Ref refFor(
+            Map<String, Ref> refs,
+            LookupRef lookupRef,
+            boolean own,
+            Map<Publisher, Integer> publishers,
+            Map<ContentCategory, Integer> categories
+    ) {
+        Ref ref = refs.get(lookupRef.uri());
+        if (ref == null) {
+            ref = new Ref(lookupRef.uri().getBytes(StandardCharsets.UTF_8));
+            refs.put(lookupRef.uri(), ref);
+        }
+        // an entry's own ref takes precedence over those of its equivalents,
+        // which may be stale, whichever is read first
+        if (own || (ref.flags & HAS_ENTRY) == 0) {
+            ref.id = lookupRef.id() == null ? NO_ID : lookupRef.id();
+            ref.publisher = (short) indexOf(publishers, lookupRef.publisher());
+            ref.category = (byte) indexOf(categories, lookupRef.category());
+        }
+        return ref;
+    }
+
+    private static <T> int indexOf(Map<T, Integer> table, T value) {
+        Integer index = table.get(value);
+        if (index == null) {
+            index = table.size();
+            table.put(value, index);
+        }
+        return index;
+    }
+
+    private int[] membersOf(LookupEntry entry, Map<String, Ref> refs) {
+        int[] members = new int[entry.equivalents().size() + 1];
+        int count = 0;
+        members[count++] = refs.get(entry.uri()).index;
+        for (LookupRef equivalent : entry.equivalents()) {
+            Ref ref = refs.get(equivalent.uri());
+            if (ref != null) {
+                members[count++] = ref.index;
+            }
+        }
+        members = Arrays.copyOf(members, count);
+        Arrays.sort(members);
+        int distinct = 0;
+        for (int i = 0; i < members.length; i++) {
+            if (i == 0 || members[i] != members[i - 1]) {
+                members[distinct++] = members[i];
+            }
+        }
+        return Arrays.copyOf(members, distinct);
+    }
+
+    private void writeHeader(
+            DataOutputStream out,
+            DateTime createdAt,
+            Map<Publisher, Integer> publishers,
+            Map<ContentCategory, Integer> categories,
+            List<Ref> refs,
+            List<int[]> sets,
+            List<Ref> refsById,
+            long memberCount
+    ) throws IOException {
+        out.writeInt(SnapshotFormat.MAGIC);
+        out.writeInt(SnapshotFormat.VERSION);
+        out.writeLong(createdAt.getMillis());
+        out.writeInt(publishers.size());
+        for (Publisher publisher : publishers.keySet()) {
+            out.writeUTF(publisher.key());
+        }
+        out.writeInt(categories.size());
+        for (ContentCategory category : categories.keySet()) {
+            out.writeUTF(category.name());
+        }
+        out.writeInt(refs.size());
+        out.writeInt(sets.size());
+        out.writeInt(refsById.size());
+        out.writeLong(memberCount);
+        long stringBytes = 0;
+        for (Ref ref : refs) {
+            stringBytes += ref.uri.length;
+        }
+        out.writeLong(stringBytes);
+        pad(out, out.size());
+    }
+
+    private void writeRefs(DataOutputStream out, List<Ref> refs) throws IOException {
+        long uriOffset = 0;
+        for (Ref ref : refs) {
+            out.writeLong(ref.id);
+            out.writeLong(uriOffset);
+            out.writeInt(ref.uri.length);
+            out.writeInt(ref.set);
+            out.writeShort(ref.publisher);
+            out.writeByte(ref.category);
+            out.writeByte(ref.flags);
+            out.writeInt(0);
+            uriOffset += ref.uri.length;
+        }
+    }
+
+    private void pad(DataOutputStream out, long written) throws IOException {
+        for (long i = written; i < padded(written); i++) {
+            out.writeByte(0);
+        }
+    }
+
+    private static final class Ref {
+
+        private final byte[] uri;
+        private long id = NO_ID;
+        private short publisher;
+        private byte category;
+        private byte flags;
+        private int index;
+        private int set = NO_SET;
+
+        Ref(byte[] uri) {
+            this.uri = uri;
+        }
+    }
+
+    private static final class MemberKey {
+
+        private final int[] members;
+        private final int hash;
+
+        MemberKey(int[] members) {
+            this.members = members;
+            this.hash = Arrays.hashCode(members);
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            return that instanceof MemberKey && Arrays.equals(members, ((MemberKey) that).members);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.atlasapi.persistence.lookup.snapshot;
+
+/**
+ * <p>
+ * Layout of a lookup snapshot file. All values are big-endian.
+ * </p>
+ *
+ * <pre>
+ * header:
+ *   int     magic, int version, long createdAt (epoch millis)
+ *   int n   then n modified-UTF-8 publisher keys
+ *   int n   then n modified-UTF-8 content category names
+ *   int     refCount, int setCount, int idCount
+ *   long    memberCount, long stringBytes
+ *   padding to a multiple of 8 bytes
+ * refs:        refCount records of REF_BYTES, sorted by the UTF-8 bytes of
+ *              their URIs: long id, long uriOffset, int uriLength, int set,
+ *              short publisher, byte category, byte flags, padding
+ * ids:         idCount longs, the sorted ids of refs with entries
+ * idRefs:      idCount ints, the ref with each id, padded to 8 bytes
+ * setOffsets:  setCount + 1 longs, the index of each set's first member
+ * members:     memberCount ints, the refs in each set, padded to 8 bytes
+ * strings:     stringBytes bytes of UTF-8 encoded URIs
+ * </pre>
+ *
+ * <p>
+ * Every record is a power of two bytes long, and every section starts on an
+ * 8-byte boundary, so no value spans two of the 1GB regions a file is mapped
+ * in.
+ * </p>
+ */
+final class SnapshotFormat {
+
+    static final int MAGIC = 0x4C4B534E;
+    static final int VERSION = 1;
+
+    static final int REF_BYTES = 32;
+    static final int REF_ID = 0;
+    static final int REF_URI_OFFSET = 8;
+    static final int REF_URI_LENGTH = 16;
+    static final int REF_SET = 20;
+    static final int REF_PUBLISHER = 24;
+    static final int REF_CATEGORY = 26;
+    static final int REF_FLAGS = 27;
+
+    // the ref is the subject of an entry, rather than only an equivalent of one
+    static final byte HAS_ENTRY = 1;
+    static final byte ACTIVELY_PUBLISHED = 2;
+
+    static final long NO_ID = Long.MIN_VALUE;
+    static final int NO_SET = -1;
+
+    static final int REGION_BYTES = 1 << 30;
+
+    private SnapshotFormat() {
+    }
+
+    static long padded(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
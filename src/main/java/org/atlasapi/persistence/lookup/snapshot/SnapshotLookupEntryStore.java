@@ -0,0 +1,407 @@
+package org.atlasapi.persistence.lookup.snapshot;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.v3.EquivalenceChangeMessage;
+import org.atlasapi.persistence.Transaction;
+import org.atlasapi.persistence.content.listing.ContentListingProgress;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
+import org.atlasapi.persistence.lookup.entry.LookupEntryWriteListener;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.metabroadcast.common.query.Selection;
+import com.metabroadcast.common.time.Clock;
+import com.metabroadcast.common.time.SystemClock;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>
+ * A {@link LookupEntryStore} which serves reads by canonical URI and by id
+ * from a {@link LookupSnapshot}, overlaid with the entries written since.
+ * Entries missing from both are read from the delegate, as are all other
+ * reads and all reads within a {@link Transaction}. Writes go to the
+ * delegate.
+ * </p>
+ *
+ * <p>
+ * The overlay holds every entry written through this store, once committed,
+ * every entry reported to it as a {@link LookupEntryWriteListener}, e.g. by
+ * {@link org.atlasapi.persistence.lookup.mongo.MongoLookupEntryStore#addWriteListener},
+ * and the equivalence sets named by messages passed to
+ * {@link #invalidate(EquivalenceChangeMessage)}, re-read from the delegate.
+ * An entry re-read that way doesn't replace one overlaid after the read
+ * started, which is at least as new. Entries written by other nodes are only
+ * seen once such a message arrives.
+ * Entries merely read from the delegate are not overlaid, since they may be
+ * replaced by a write made while they were being read.
+ * </p>
+ *
+ * <p>
+ * If the store is told it has {@link #missedWrites() missed writes}, neither
+ * the snapshot nor the overlay can be trusted, so every read goes to the
+ * delegate until a snapshot exported after then is swapped in.
+ * </p>
+ *
+ * <p>
+ * A newer snapshot is put in place with {@link #swap(LookupSnapshot)}, which
+ * drops the overlaid entries applied before that snapshot's export started,
+ * since the export will have read them. Those applied since are kept. This
+ * compares the clock of this node with the clock of the exporting one, so
+ * allow for skew between them when scheduling exports.
+ * </p>
+ */
+public class SnapshotLookupEntryStore implements LookupEntryStore, LookupEntryWriteListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotLookupEntryStore.class);
+
+    public static SnapshotLookupEntryStore create(LookupEntryStore delegate, LookupSnapshot snapshot) {
+        return new SnapshotLookupEntryStore(delegate, snapshot, new SystemClock());
+    }
+
+    private final LookupEntryStore delegate;
+    private final Clock clock;
+    private final AtomicReference<LookupSnapshot> snapshot;
+    private final ConcurrentMap<String, Overlaid> overlay = Maps.newConcurrentMap();
+    private final ConcurrentMap<Long, String> overlaidUris = Maps.newConcurrentMap();
+    private volatile DateTime missedWritesAt = null;
+
+    public SnapshotLookupEntryStore(LookupEntryStore delegate, LookupSnapshot snapshot, Clock clock) {
+        this.delegate = checkNotNull(delegate);
+        this.snapshot = new AtomicReference<>(checkNotNull(snapshot));
+        this.clock = checkNotNull(clock);
+    }
+
+    /**
+     * Replaces the snapshot entries are read from, returning the one it
+     * replaces.
+     */
+    public LookupSnapshot swap(LookupSnapshot newSnapshot) {
+        LookupSnapshot previous = snapshot.getAndSet(checkNotNull(newSnapshot));
+        DateTime exported = newSnapshot.createdAt();
+        overlay.values().removeIf(overlaid -> overlaid.appliedAt.isBefore(exported));
+        overlaidUris.values().removeIf(uri -> !overlay.containsKey(uri));
+        DateTime missed = missedWritesAt;
+        if (missed != null && exported.isAfter(missed)) {
+            missedWritesAt = null;
+            log.info("Serving lookup entries from snapshot exported at {}", exported);
+        }
+        return previous;
+    }
+
+    /**
+     * Whether reads are being served from the snapshot, which they aren't
+     * after missed writes until a newer snapshot is swapped in.
+     */
+    public boolean isServingSnapshot() {
+        return missedWritesAt == null;
+    }
+
+    public int overlaySize() {
+        return overlay.size();
+    }
+
+    @Override
+    public void missedWrites() {
+        missedWritesAt = clock.now();
+        overlay.clear();
+        overlaidUris.clear();
+        log.warn("Missed lookup entry writes, reading entries from the delegate until a snapshot is re-exported");
+    }
+
+    @Override
+    public void written(Iterable<LookupEntry> written) {
+        DateTime now = clock.now();
+        for (LookupEntry entry : written) {
+            overlay.put(entry.uri(), new Overlaid(entry, now));
+            if (entry.id() != null) {
+                overlaidUris.put(entry.id(), entry.uri());
+            }
+        }
+    }
+
+    /**
+     * Re-reads the entries for the subject of <code>message</code> and its
+     * neighbours, and for the other members of their equivalence sets, before
+     * and after the change.
+     */
+    public void invalidate(EquivalenceChangeMessage message) {
+        DateTime readFrom = clock.now();
+        Set<Long> ids = ImmutableSet.<Long>builder()
+                .add(message.getSubjectId())
+                .addAll(message.getOutgoingIdsAdded())
+                .addAll(message.getOutgoingIdsRemoved())
+                .addAll(message.getOutgoingIdsUnchanged())
+                .build();
+        Set<String> uris = Sets.newHashSet();
+        for (Long id : ids) {
+            LookupEntry current = entryForId(id);
+            if (current != null) {
+                addSetUris(uris, current);
+            }
+        }
+        List<LookupEntry> changed = ImmutableList.copyOf(delegate.entriesForIds(ids));
+        for (LookupEntry entry : changed) {
+            addSetUris(uris, entry);
+        }
+        overlayRead(delegate.entriesForCanonicalUris(uris), readFrom);
+    }
+
+    /*
+     * Overlays entries read from the delegate since readFrom, keeping any
+     * overlaid since then instead, since a write applied during the read may
+     * not be reflected in it.
+     */
+    private void overlayRead(Iterable<LookupEntry> read, DateTime readFrom) {
+        DateTime now = clock.now();
+        for (LookupEntry entry : read) {
+            Overlaid applied = overlay.compute(entry.uri(), (uri, existing) ->
+                    existing != null && !existing.appliedAt.isBefore(readFrom)
+                    ? existing
+                    : new Overlaid(entry, now)
+            );
+            if (applied.entry == entry && entry.id() != null) {
+                overlaidUris.put(entry.id(), entry.uri());
+            }
+        }
+    }
+
+    private void addSetUris(Set<String> uris, LookupEntry entry) {
+        uris.add(entry.uri());
+        for (LookupRef equivalent : entry.equivalents()) {
+            uris.add(equivalent.uri());
+        }
+    }
+
+    /**
+     * Entries are returned in the order of <code>uris</code>, as the delegate
+     * returns them.
+     */
+    @Override
+    public Iterable<LookupEntry> entriesForCanonicalUris(Iterable<String> uris) {
+        if (!isServingSnapshot()) {
+            return delegate.entriesForCanonicalUris(uris);
+        }
+        Set<String> requested = ImmutableSet.copyOf(uris);
+        Map<String, LookupEntry> found = Maps.newHashMap();
+        Set<String> missing = Sets.newLinkedHashSet();
+        for (String uri : requested) {
+            LookupEntry entry = entryForUri(uri);
+            if (entry != null) {
+                found.put(uri, entry);
+            } else {
+                missing.add(uri);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (LookupEntry entry : delegate.entriesForCanonicalUris(missing)) {
+                found.put(entry.uri(), entry);
+            }
+        }
+        return inRequestOrder(requested, found);
+    }
+
+    /**
+     * Entries are returned in the order of <code>ids</code>, as the delegate
+     * returns them.
+     */
+    @Override
+    public Iterable<LookupEntry> entriesForIds(Iterable<Long> ids) {
+        if (!isServingSnapshot()) {
+            return delegate.entriesForIds(ids);
+        }
+        Set<Long> requested = ImmutableSet.copyOf(ids);
+        Map<Long, LookupEntry> found = Maps.newHashMap();
+        Set<Long> missing = Sets.newLinkedHashSet();
+        for (Long id : requested) {
+            LookupEntry entry = entryForId(id);
+            if (entry != null) {
+                found.put(id, entry);
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (LookupEntry entry : delegate.entriesForIds(missing)) {
+                found.put(entry.id(), entry);
+            }
+        }
+        return inRequestOrder(requested, found);
+    }
+
+    private static <K> List<LookupEntry> inRequestOrder(Set<K> requested, Map<K, LookupEntry> found) {
+        ImmutableList.Builder<LookupEntry> ordered = ImmutableList.builder();
+        for (K key : requested) {
+            LookupEntry entry = found.get(key);
+            if (entry != null) {
+                ordered.add(entry);
+            }
+        }
+        return ordered.build();
+    }
+
+    @Nullable
+    private LookupEntry entryForUri(String uri) {
+        Overlaid overlaid = overlay.get(uri);
+        return overlaid != null ? overlaid.entry : snapshot.get().entryForUri(uri);
+    }
+
+    @Nullable
+    private LookupEntry entryForId(Long id) {
+        String uri = overlaidUris.get(id);
+        if (uri != null) {
+            Overlaid overlaid = overlay.get(uri);
+            if (overlaid != null && id.equals(overlaid.entry.id())) {
+                return overlaid.entry;
+            }
+        }
+        LookupEntry entry = snapshot.get().entryForId(id);
+        if (entry == null) {
+            return null;
+        }
+        // the entry may since have been overlaid under its URI
+        Overlaid overlaid = overlay.get(entry.uri());
+        if (overlaid == null) {
+            return entry;
+        }
+        return id.equals(overlaid.entry.id()) ? overlaid.entry : null;
+    }
+
+    @Override
+    public Transaction startTransaction() {
+        return delegate.startTransaction();
+    }
+
+    @Override
+    public void store(LookupEntry entry) {
+        delegate.store(entry);
+        written(ImmutableList.of(entry));
+    }
+
+    /*
+     * Written entries are overlaid once the write is committed, so that an
+     * aborted write isn't served.
+     */
+    @Override
+    public void store(Transaction transaction, LookupEntry entry) {
+        delegate.store(transaction, entry);
+        transaction.afterCommit(() -> written(ImmutableList.of(entry)));
+    }
+
+    @Override
+    public void storeAll(Transaction transaction, Collection<LookupEntry> entries) {
+        delegate.storeAll(transaction, entries);
+        List<LookupEntry> stored = ImmutableList.copyOf(entries);
+        transaction.afterCommit(() -> written(stored));
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForIdentifiers(Iterable<String> identifiers, boolean useAliases) {
+        return delegate.entriesForIdentifiers(identifiers, useAliases);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForAliases(Optional<String> namespace, Iterable<String> values) {
+        return delegate.entriesForAliases(namespace, values);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForAliases(
+            Optional<String> namespace,
+            Iterable<String> values,
+            boolean includeUnpublishedEntries
+    ) {
+        return delegate.entriesForAliases(namespace, values, includeUnpublishedEntries);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForAliases(
+            Optional<String> namespace,
+            Iterable<String> values,
+            @Nullable Iterable<Publisher> publishers,
+            boolean includeUnpublishedEntries
+    ) {
+        return delegate.entriesForAliases(namespace, values, publishers, includeUnpublishedEntries);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForCanonicalUris(Transaction transaction, Iterable<String> uris) {
+        return delegate.entriesForCanonicalUris(transaction, uris);
+    }
+
+    @Override
+    public Map<String, Set<String>> transitiveUrisFor(Transaction transaction, Iterable<String> uris) {
+        return delegate.transitiveUrisFor(transaction, uris);
+    }
+
+    @Override
+    public Map<String, Integer> equivalenceSetSizesFor(Transaction transaction, Iterable<String> uris) {
+        return delegate.equivalenceSetSizesFor(transaction, uris);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForEquivalenceSets(Transaction transaction, Iterable<String> setIds) {
+        return delegate.entriesForEquivalenceSets(transaction, setIds);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForIds(Transaction transaction, Iterable<Long> ids) {
+        return delegate.entriesForIds(transaction, ids);
+    }
+
+    @Override
+    public Iterable<LookupEntry> entriesForPublishers(Iterable<Publisher> publishers, Selection selection) {
+        return delegate.entriesForPublishers(publishers, selection);
+    }
+
+    @Override
+    public Iterable<LookupEntry> allEntriesForPublishers(
+            Iterable<Publisher> publishers,
+            ContentListingProgress progress
+    ) {
+        return delegate.allEntriesForPublishers(publishers, progress);
+    }
+
+    @Override
+    public Map<String, Long> idsForCanonicalUris(Iterable<String> uris) {
+        return delegate.idsForCanonicalUris(uris);
+    }
+
+    @Override
+    public Iterable<LookupEntry> updatedSince(Publisher publisher, DateTime dateTime) {
+        return delegate.updatedSince(publisher, dateTime);
+    }
+
+    @Override
+    public Iterable<LookupEntry> equivUpdatedSince(Publisher publisher, DateTime dateTime) {
+        return delegate.equivUpdatedSince(publisher, dateTime);
+    }
+
+    private static final class Overlaid {
+
+        private final LookupEntry entry;
+        private final DateTime appliedAt;
+
+        Overlaid(LookupEntry entry, DateTime appliedAt) {
+            this.entry = entry;
+            this.appliedAt = appliedAt;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+@NonNullByDefault
+package org.atlasapi.persistence.lookup.snapshot;
+
+import com.metabroadcast.common.annotation.NonNullByDefault;
+
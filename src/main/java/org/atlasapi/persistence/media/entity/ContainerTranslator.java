@@ -152,6 +152,28 @@ public class ContainerTranslator {
         return generateHashByRemovingFieldsFromTheDbo(toDBO(container, true), includeChildren);
     }
 
+    /**
+     * Updates the parent ref of a series, whose id the hash leaves out, in a
+     * document built by {@link #toDB(Container)} from that now on the series,
+     * e.g. once its id is known.
+     */
+    public void updateParentRef(DBObject containerDbo, Container container) {
+        if (container instanceof Series && ((Series) container).getParent() != null) {
+            ParentRef parent = ((Series) container).getParent();
+            containerDbo.put(CONTAINER, parent.getUri());
+            containerDbo.put(CONTAINER_ID, parent.getId());
+        }
+    }
+
+    /**
+     * The same hash as {@link #hashCodeOf(Container)}, of a document built by
+     * {@link #toDB(Container)}, which is left unchanged so it can still be
+     * written.
+     */
+    public String hashCodeOfTranslated(DBObject containerDbo) {
+        return generateHashByRemovingFieldsFromTheDbo(DBObjects.deepCopy(containerDbo), false);
+    }
+
     private List<SeriesRef> series(Iterable<DBObject> seriesDbos) {
         if (seriesDbos != null) {
             return SeriesRef.dedupeAndSort(seriesRefTranslator.fromDBObjects(seriesDbos));
@@ -0,0 +1,59 @@
+package org.atlasapi.persistence.media.entity;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+final class DBObjects {
+
+    private DBObjects() {
+    }
+
+    /**
+     * Copies <code>dbo</code> and every document and collection nested in
+     * it, so the copy can be changed, e.g. to remove the fields left out of a
+     * hash, without changing the original.
+     */
+    static DBObject deepCopy(DBObject dbo) {
+        return (DBObject) copyOf(dbo);
+    }
+
+    private static Object copyOf(Object value) {
+        if (value instanceof BasicDBList) {
+            BasicDBList copy = new BasicDBList();
+            copyInto(copy, (BasicDBList) value);
+            return copy;
+        }
+        if (value instanceof DBObject) {
+            DBObject dbo = (DBObject) value;
+            BasicDBObject copy = new BasicDBObject();
+            for (String key : dbo.keySet()) {
+                copy.put(key, copyOf(dbo.get(key)));
+            }
+            return copy;
+        }
+        if (value instanceof List) {
+            List<Object> copy = Lists.newArrayListWithCapacity(((List<?>) value).size());
+            copyInto(copy, (List<?>) value);
+            return copy;
+        }
+        if (value instanceof Set) {
+            Set<Object> copy = Sets.newLinkedHashSet();
+            copyInto(copy, (Set<?>) value);
+            return copy;
+        }
+        return value;
+    }
+
+    private static void copyInto(Collection<Object> copy, Collection<?> values) {
+        for (Object value : values) {
+            copy.add(copyOf(value));
+        }
+    }
+}
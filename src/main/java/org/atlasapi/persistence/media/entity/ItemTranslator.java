@@ -39,12 +39,12 @@ public class ItemTranslator implements ModelTranslator<Item> {
     private static final String FILM_RELEASES_KEY = "releases";
     private static final String FILM_SUBTITLES_KEY = "subtitles";
     private static final String PART_NUMBER = "partNumber";
-    private static final String EPISODE_NUMBER = "episodeNumber";
-    private static final String SERIES_NUMBER = "seriesNumber";
+    public static final String EPISODE_NUMBER = "episodeNumber";
+    public static final String SERIES_NUMBER = "seriesNumber";
     private static final String SPECIAL = "special";
 
 	private static final String IS_LONG_FORM_KEY = "isLongForm";
-	private static final String EPISODE_SERIES_URI_KEY = "seriesUri";
+	public static final String EPISODE_SERIES_URI_KEY = "seriesUri";
 	private static final String FILM_WEBSITE_URL_KEY = "websiteUrl";
 	private static final String BLACK_AND_WHITE_KEY = "blackAndWhite";
 	private static final String DURATION_KEY = "duration";
@@ -164,6 +164,32 @@ public class ItemTranslator implements ModelTranslator<Item> {
         return generateHashByRemovingFieldsFromTheDbo(toDB(item));
     }
 
+    /**
+     * Updates the container and series refs, which the hash leaves out, of a
+     * document built by {@link #toDB(Item)} from those now on the item, e.g.
+     * once their ids are known.
+     */
+    public void updateParentRefs(DBObject itemDbo, Item item) {
+        if (item.getContainer() != null) {
+            itemDbo.put(CONTAINER, item.getContainer().getUri());
+            itemDbo.put(CONTAINER_ID, item.getContainer().getId());
+        }
+        if (item instanceof Episode && ((Episode) item).getSeriesRef() != null) {
+            ParentRef series = ((Episode) item).getSeriesRef();
+            itemDbo.put(SERIES_ID, series.getId());
+            itemDbo.put(SERIES, series.getUri());
+            TranslatorUtils.from(itemDbo, EPISODE_SERIES_URI_KEY, series.getUri());
+        }
+    }
+
+    /**
+     * The same hash as {@link #hashCodeOf(Item)}, of a document built by
+     * {@link #toDB(Item)}, which is left unchanged so it can still be written.
+     */
+    public String hashCodeOfTranslated(DBObject itemDbo) {
+        return generateHashByRemovingFieldsFromTheDbo(DBObjects.deepCopy(itemDbo));
+    }
+
     private String generateHashByRemovingFieldsFromTheDbo(DBObject dbObject) {
         // don't include the last-fetched/update time and container/series ids in the hash
         removeFieldsForHash(dbObject);
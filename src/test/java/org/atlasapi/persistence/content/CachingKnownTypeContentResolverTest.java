@@ -0,0 +1,131 @@
+package org.atlasapi.persistence.content;
+
+import java.util.List;
+
+import org.atlasapi.media.entity.Brand;
+import org.atlasapi.media.entity.Episode;
+import org.atlasapi.media.entity.Identified;
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.v3.EntityUpdatedMessage;
+
+import com.google.common.collect.ImmutableList;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingKnownTypeContentResolverTest {
+
+    private final KnownTypeContentResolver delegate = mock(KnownTypeContentResolver.class);
+    private final CachingKnownTypeContentResolver resolver = new CachingKnownTypeContentResolver(
+            delegate, 1024 * 1024, Duration.standardMinutes(1)
+    );
+
+    private Episode episode;
+    private LookupRef ref;
+
+    @Before
+    public void setUp() {
+        episode = new Episode("episode", "episode", Publisher.METABROADCAST);
+        episode.setId(1225L);
+        ref = LookupRef.from(episode);
+        when(delegate.findByLookupRefs(anyListOf(LookupRef.class)))
+                .thenReturn(ResolvedContent.builder().put(episode.getCanonicalUri(), episode).build());
+    }
+
+    @Test
+    public void testContentIsReadOnceAndCopiedForEachCaller() {
+        Identified first = resolve();
+        Identified second = resolve();
+
+        assertEquals(episode.getCanonicalUri(), second.getCanonicalUri());
+        assertEquals(episode.getId(), second.getId());
+        assertNotSame(first, second);
+        verify(delegate, times(1)).findByLookupRefs(ImmutableList.of(ref));
+        assertEquals(1, resolver.stats().hitCount());
+    }
+
+    @Test
+    public void testContentIsReadAgainWhenUpdateMessageReceived() {
+        InMemoryMessageBus<EntityUpdatedMessage> bus = new InMemoryMessageBus<EntityUpdatedMessage>()
+                .subscribe(resolver::invalidate);
+        ContentWriter writer = new MessageQueueingContentWriter(
+                bus, mock(ContentWriter.class), mock(ContentResolver.class)
+        );
+        resolve();
+
+        episode.setReadHash(null);
+        writer.createOrUpdate(episode);
+        resolve();
+
+        verify(delegate, times(2)).findByLookupRefs(ImmutableList.of(ref));
+    }
+
+    @Test
+    public void testContentIsReadAgainWhenWrittenLocally() {
+        ContentWriter writer = new EventFiringContentWriter(mock(ContentWriter.class), resolver);
+        resolve();
+
+        writer.createOrUpdate(episode);
+        resolve();
+
+        verify(delegate, times(2)).findByLookupRefs(ImmutableList.of(ref));
+    }
+
+    @Test
+    public void testUnrelatedUpdateMessageLeavesContentCached() {
+        resolve();
+
+        resolver.invalidateIds(ImmutableList.of(1L));
+        resolve();
+
+        verify(delegate, times(1)).findByLookupRefs(ImmutableList.of(ref));
+    }
+
+    @Test
+    public void testContainerIsReadAgainWhenItsEpisodeIsWritten() {
+        LookupRef brandRef = cachedBrandOfEpisode();
+        ContentWriter writer = new EventFiringContentWriter(mock(ContentWriter.class), resolver);
+
+        writer.createOrUpdate(episode);
+        resolver.findByLookupRefs(ImmutableList.of(brandRef));
+
+        verify(delegate, times(2)).findByLookupRefs(ImmutableList.of(brandRef));
+    }
+
+    @Test
+    public void testContainerIsReadAgainWhenUpdateMessageReceivedForItsEpisode() {
+        LookupRef brandRef = cachedBrandOfEpisode();
+        resolve();
+
+        resolver.invalidateIds(ImmutableList.of(episode.getId()));
+        resolver.findByLookupRefs(ImmutableList.of(brandRef));
+
+        verify(delegate, times(2)).findByLookupRefs(ImmutableList.of(brandRef));
+    }
+
+    private LookupRef cachedBrandOfEpisode() {
+        Brand brand = new Brand("brand", "brand", Publisher.METABROADCAST);
+        brand.setId(1226L);
+        episode.setContainer(brand);
+        LookupRef brandRef = LookupRef.from(brand);
+        when(delegate.findByLookupRefs(ImmutableList.of(brandRef)))
+                .thenReturn(ResolvedContent.builder().put(brand.getCanonicalUri(), brand).build());
+        resolver.findByLookupRefs(ImmutableList.of(brandRef));
+        return brandRef;
+    }
+
+    private Identified resolve() {
+        List<Identified> resolved = resolver.findByLookupRefs(ImmutableList.of(ref)).getAllResolvedResults();
+        assertEquals(1, resolved.size());
+        return resolved.get(0);
+    }
+}
@@ -0,0 +1,60 @@
+package org.atlasapi.persistence.content;
+
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.media.entity.ItemTranslator;
+
+import com.metabroadcast.common.ids.SubstitutionTableNumberCodec;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class ContentWriteContextTest {
+
+    private final ItemTranslator itemTranslator = new ItemTranslator(new SubstitutionTableNumberCodec());
+
+    @Test
+    public void testTranslationIsSharedByNestedWriters() {
+        Item item = new Item("uri", "curie", Publisher.BBC);
+
+        try (ContentWriteContext outer = ContentWriteContext.enter()) {
+            ContentWriteContext.Translated nested;
+            try (ContentWriteContext inner = ContentWriteContext.enter()) {
+                nested = inner.translated(item, itemTranslator);
+            }
+
+            ContentWriteContext.Translated translated = outer.translated(item, itemTranslator);
+            assertThat(translated, sameInstance(nested));
+            assertEquals(itemTranslator.hashCodeOf(item), translated.hash());
+            assertEquals(itemTranslator.toDB(item), translated.dbo());
+        }
+    }
+
+    @Test
+    public void testTranslationIsNotSharedBetweenWrites() {
+        Item item = new Item("uri", "curie", Publisher.BBC);
+
+        ContentWriteContext.Translated first;
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            first = context.translated(item, itemTranslator);
+        }
+        item.setTitle("title");
+
+        try (ContentWriteContext context = ContentWriteContext.enter()) {
+            ContentWriteContext.Translated second = context.translated(item, itemTranslator);
+            assertThat(second, not(sameInstance(first)));
+            assertEquals(itemTranslator.hashCodeOf(item), second.hash());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosedContextCannotBeUsed() {
+        ContentWriteContext context = ContentWriteContext.enter();
+        context.close();
+
+        context.translated(new Item("uri", "curie", Publisher.BBC), itemTranslator);
+    }
+}
@@ -1,20 +1,33 @@
 package org.atlasapi.persistence.content;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import org.atlasapi.equiv.ContentRef;
 import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.LookupRef;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.persistence.lookup.InMemoryLookupEntryStore;
+import org.atlasapi.persistence.lookup.LookupWrite;
 import org.atlasapi.persistence.lookup.LookupWriter;
 import org.atlasapi.persistence.lookup.TransitiveLookupWriter;
 import org.atlasapi.persistence.lookup.entry.EquivRefs;
 import org.atlasapi.persistence.lookup.entry.LookupEntry;
 import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collection;
+import java.util.List;
 
 import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.OUTGOING;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyIterableOf;
+import static org.mockito.Matchers.anySetOf;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 public class EquivalenceWritingContentWriterTest {
@@ -103,4 +116,34 @@ public class EquivalenceWritingContentWriterTest {
         assertTrue(explicit.equivalents().contains(explicitEquiv.lookupRef()));
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testWritingContentsWritesTheirEquivalencesTogether() {
+        LookupWriter batchWriter = mock(LookupWriter.class);
+        EquivalenceWritingContentWriter writer = new EquivalenceWritingContentWriter(delegate, batchWriter);
+
+        Item equivalent = new Item("equivUri", "curie", Publisher.BBC);
+        Item first = new Item("firstUri", "curie", Publisher.METABROADCAST);
+        first.setEquivalentTo(ImmutableSet.of(LookupRef.from(equivalent)));
+        Item second = new Item("secondUri", "curie", Publisher.METABROADCAST);
+        second.setEquivalentTo(ImmutableSet.of(LookupRef.from(equivalent)));
+        Item unequivalated = new Item("unequivalatedUri", "curie", Publisher.METABROADCAST);
+        ImmutableList<Item> contents = ImmutableList.of(first, unequivalated, second);
+
+        writer.createOrUpdateAll(contents);
+
+        verify(delegate).createOrUpdateAll(contents);
+        ArgumentCaptor<Collection> writes = ArgumentCaptor.forClass(Collection.class);
+        verify(batchWriter).writeLookups(writes.capture());
+        List<LookupWrite> written = ImmutableList.copyOf((Collection<LookupWrite>) writes.getValue());
+        assertEquals(2, written.size());
+        assertEquals(first.getCanonicalUri(), written.get(0).getSubject().getCanonicalUri());
+        assertEquals(second.getCanonicalUri(), written.get(1).getSubject().getCanonicalUri());
+        assertEquals(
+                ImmutableSet.of(Publisher.METABROADCAST, Publisher.BBC),
+                written.get(0).getPublishers()
+        );
+        verify(batchWriter, never()).writeLookup(any(ContentRef.class), anyIterableOf(ContentRef.class), anySetOf(Publisher.class));
+    }
+
 }
@@ -3,12 +3,14 @@ package org.atlasapi.persistence.content;
 import org.atlasapi.media.entity.Container;
 import org.atlasapi.media.entity.Item;
 import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.lookup.CanonicalUriIdCache;
 import org.atlasapi.persistence.lookup.entry.LookupEntry;
 import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
 
 import com.metabroadcast.common.ids.IdGenerator;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.jmock.Expectations;
@@ -19,6 +21,9 @@ import org.junit.internal.matchers.TypeSafeMatcher;
 import org.junit.runner.RunWith;
 
 import static org.hamcrest.Matchers.hasItems;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(JMock.class)
 public class IdSettingContentWriterTest {
@@ -73,6 +78,36 @@ public class IdSettingContentWriterTest {
         
     }
 
+    @Test
+    public void testIdIsOnlyCachedOnceItemIsWritten() {
+        CanonicalUriIdCache canonicalUriIds = CanonicalUriIdCache.create(1024);
+        IdSettingContentWriter cachingWriter = new IdSettingContentWriter(
+                delegate, lookupBackedContentIdGenerator, canonicalUriIds
+        );
+        final Item item = new Item("itemUri", "itemCurie", Publisher.BBC);
+        final long newId = 1234l;
+
+        context.checking(new Expectations(){{
+            allowing(lookupStore).entriesForCanonicalUris(with(hasItems(item.getCanonicalUri()))); will(returnValue(ImmutableList.of()));
+            oneOf(idGenerator).generateRaw();will(returnValue(newId));
+            oneOf(delegate).createOrUpdate(with(itemWithId(newId))); will(throwException(new IllegalStateException()));
+            oneOf(idGenerator).generateRaw();will(returnValue(newId + 1));
+            oneOf(delegate).createOrUpdate(with(itemWithId(newId + 1))); will(returnValue(item));
+        }});
+
+        try {
+            cachingWriter.createOrUpdate(item);
+            fail("Expected write to fail");
+        } catch (IllegalStateException e) {
+            assertTrue(canonicalUriIds.getAll(ImmutableList.of("itemUri")).isEmpty());
+        }
+
+        cachingWriter.createOrUpdate(item);
+
+        assertEquals(ImmutableMap.of("itemUri", newId + 1), canonicalUriIds.getAll(ImmutableList.of("itemUri")));
+        context.assertIsSatisfied();
+    }
+
     private Matcher<Item> itemWithId(final long id) {
         return new TypeSafeMatcher<Item>() {
 
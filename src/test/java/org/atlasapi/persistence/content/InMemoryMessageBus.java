@@ -0,0 +1,38 @@
+package org.atlasapi.persistence.content;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import com.metabroadcast.common.queue.Message;
+import com.metabroadcast.common.queue.MessageSender;
+
+/**
+ * Delivers each message sent to every subscriber, on the sending thread,
+ * in place of a message broker.
+ */
+public class InMemoryMessageBus<M extends Message> implements MessageSender<M> {
+
+    private final List<Consumer<? super M>> subscribers = new CopyOnWriteArrayList<>();
+
+    public InMemoryMessageBus<M> subscribe(Consumer<? super M> subscriber) {
+        subscribers.add(subscriber);
+        return this;
+    }
+
+    @Override
+    public void sendMessage(M message) {
+        for (Consumer<? super M> subscriber : subscribers) {
+            subscriber.accept(message);
+        }
+    }
+
+    @Override
+    public void sendMessage(M message, byte[] partitionKey) {
+        sendMessage(message);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,6 +1,8 @@
 package org.atlasapi.persistence.content.mongo;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.atlasapi.content.criteria.ContentQuery;
 import org.atlasapi.media.entity.Brand;
@@ -8,10 +10,14 @@ import org.atlasapi.media.entity.Content;
 import org.atlasapi.media.entity.Episode;
 import org.atlasapi.media.entity.Identified;
 import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.LookupRef;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.media.entity.Series;
+import org.atlasapi.media.entity.Version;
 import org.atlasapi.persistence.audit.PerHourAndDayMongoPersistenceAuditLog;
 import org.atlasapi.persistence.audit.PersistenceAuditLog;
+import org.atlasapi.persistence.content.ContentCategory;
+import org.atlasapi.persistence.lookup.CanonicalUriIdCache;
 import org.atlasapi.persistence.lookup.NewLookupWriter;
 import org.atlasapi.persistence.lookup.mongo.MongoLookupEntryStore;
 import org.atlasapi.persistence.player.PlayerResolver;
@@ -25,6 +31,8 @@ import com.metabroadcast.common.query.Selection;
 import com.metabroadcast.common.time.SystemClock;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.mongodb.MongoClient;
 import com.mongodb.ReadPreference;
 import junit.framework.TestCase;
@@ -165,4 +173,86 @@ public class MongoContentResolverTest extends TestCase {
 
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testFindByLookupRefsResolvesEachCollectionConcurrentlyInRequestOrder() {
+        MongoContentWriter writer = new MongoContentWriter(
+                mongo,
+                described -> { },
+                persistenceAuditLog,
+                playerResolver,
+                serviceResolver,
+                new SystemClock());
+        Brand lookupBrand = new Brand("lookupBrand", "lookupBrand", Publisher.TESTING_MBST);
+        Series lookupSeries = new Series("lookupSeries", "lookupSeries", Publisher.TESTING_MBST);
+        lookupSeries.setParent(lookupBrand);
+        Episode lookupEpisode = new Episode("lookupEpisode", "lookupEpisode", Publisher.TESTING_MBST);
+        lookupEpisode.setSeries(lookupSeries);
+        lookupEpisode.setContainer(lookupBrand);
+        Item lookupItem = new Item("lookupItem", "lookupItem", Publisher.TESTING_MBST);
+        writer.createOrUpdateAll(ImmutableList.of(lookupBrand, lookupSeries, lookupEpisode, lookupItem));
+
+        ExecutorService readExecutor = Executors.newFixedThreadPool(2);
+        try {
+            MongoContentResolver concurrentResolver = new MongoContentResolver(
+                    mongo,
+                    new MongoLookupEntryStore(mongoDatabase, "lookup", persistenceAuditLog, ReadPreference.primary()),
+                    CanonicalUriIdCache.create(10),
+                    readExecutor
+            );
+
+            List<Identified> resolved = concurrentResolver.findByLookupRefs(ImmutableList.of(
+                    LookupRef.from(lookupItem),
+                    LookupRef.from(lookupSeries),
+                    new LookupRef("missing", null, Publisher.TESTING_MBST, ContentCategory.CHILD_ITEM),
+                    LookupRef.from(lookupEpisode),
+                    LookupRef.from(lookupBrand)
+            )).getAllResolvedResults();
+
+            assertEquals(
+                    ImmutableList.of("lookupItem", "lookupSeries", "lookupEpisode", "lookupBrand"),
+                    ImmutableList.copyOf(Lists.transform(resolved, Identified::getCanonicalUri))
+            );
+        } finally {
+            readExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSummaryProfileReadsOnlySummaryFieldsAndCantBeWrittenBack() {
+        MongoContentWriter writer = new MongoContentWriter(
+                mongo,
+                described -> { },
+                persistenceAuditLog,
+                playerResolver,
+                serviceResolver,
+                new SystemClock());
+        Item summarised = new Item("summarised", "summarised", Publisher.TESTING_MBST);
+        summarised.setTitle("Summarised");
+        summarised.setImage("http://example.com/summarised.png");
+        summarised.addVersion(new Version());
+        writer.createOrUpdate(summarised);
+
+        Item resolved = (Item) Iterables.getOnlyElement(resolver.findByLookupRefs(
+                ImmutableList.of(LookupRef.from(summarised)),
+                HydrationProfile.SUMMARY
+        ).getAllResolvedResults());
+
+        assertEquals("Summarised", resolved.getTitle());
+        assertEquals("http://example.com/summarised.png", resolved.getImage());
+        assertTrue(resolved.getVersions().isEmpty());
+        assertTrue(HydrationProfile.isPartiallyRead(resolved));
+
+        try {
+            writer.createOrUpdate(resolved);
+            fail("partially read content was written");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        Item full = (Item) Iterables.getOnlyElement(resolver.findByLookupRefs(
+                ImmutableList.of(LookupRef.from(summarised))
+        ).getAllResolvedResults());
+        assertEquals(1, full.getVersions().size());
+        assertFalse(HydrationProfile.isPartiallyRead(full));
+    }
+}
@@ -2,6 +2,7 @@ package org.atlasapi.persistence.content.mongo;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
@@ -12,7 +13,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import org.atlasapi.media.entity.Brand;
 import org.atlasapi.media.entity.ChildRef;
@@ -43,12 +46,15 @@ import org.atlasapi.persistence.service.ServiceResolver;
 
 import com.google.common.collect.Sets;
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.junit.After;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.metabroadcast.common.ids.SubstitutionTableNumberCodec;
@@ -343,6 +349,141 @@ public class MongoContentWriterTest {
         
     }
     
+    @Test
+    public void testRewritingEpisodeReplacesItsRefAndUnpublishingRemovesIt() {
+        Brand brand = new Brand("brandUri", "brandUri", Publisher.BBC);
+        contentWriter.createOrUpdate(brand);
+
+        Episode first = new Episode("firstUri", "firstCurie", Publisher.BBC);
+        first.setContainer(brand);
+        Episode second = new Episode("secondUri", "secondCurie", Publisher.BBC);
+        second.setContainer(brand);
+
+        contentWriter.createOrUpdate(first);
+        contentWriter.createOrUpdate(second);
+
+        first.setId(4L);
+        contentWriter.createOrUpdate(first);
+
+        Brand retrievedBrand = retrieveBrand(brand);
+        assertEquals(2, retrievedBrand.getChildRefs().size());
+        for (ChildRef ref : retrievedBrand.getChildRefs()) {
+            if (ref.getUri().equals(first.getCanonicalUri())) {
+                assertEquals(Long.valueOf(4L), ref.getId());
+            }
+        }
+
+        second.setActivelyPublished(false);
+        contentWriter.createOrUpdate(second);
+
+        ChildRef remaining = Iterables.getOnlyElement(retrieveBrand(brand).getChildRefs());
+        assertEquals(first.getCanonicalUri(), remaining.getUri());
+    }
+
+    @Test
+    public void testWritingContainersAndItemsTogether() {
+        Brand brand = new Brand("brandUri", "brandUri", Publisher.BBC);
+        Series series = new Series("seriesUri", "seriesCurie", Publisher.BBC);
+        series.setParent(brand);
+
+        Episode first = new Episode("firstUri", "firstCurie", Publisher.BBC);
+        first.setSeries(series);
+        first.setContainer(brand);
+        Episode second = new Episode("secondUri", "secondCurie", Publisher.BBC);
+        second.setSeries(series);
+        second.setContainer(brand);
+        Item topLevel = new Item("itemUri", "itemCurie", Publisher.BBC);
+
+        contentWriter.createOrUpdateAll(ImmutableList.<Content>of(first, brand, second, series, topLevel));
+
+        assertNotNull(children.findOne(first.getCanonicalUri()));
+        assertNotNull(children.findOne(second.getCanonicalUri()));
+        assertNotNull(topLevelItems.findOne(topLevel.getCanonicalUri()));
+        assertNull(topLevelItems.findOne(first.getCanonicalUri()));
+
+        assertEquals(2, retrieveBrand(brand).getChildRefs().size());
+        assertEquals(1, retrieveBrand(brand).getSeriesRefs().size());
+        assertEquals(2, retrieveSeries(series).getChildRefs().size());
+    }
+
+    @Test
+    public void testBufferedChildRefsAreWrittenTogetherOnFlush() {
+        ChildRefBuffer buffer = new ChildRefBuffer(100, Duration.standardHours(1));
+        MongoContentWriter bufferedWriter = new MongoContentWriter(mongo, lookupWriter,
+                persistenceAuditLog, playerResolver, serviceResolver, new SystemClock(), buffer);
+        try {
+            Brand brand = new Brand("brandUri", "brandUri", Publisher.BBC);
+            brand.setId(1L);
+            bufferedWriter.createOrUpdate(brand);
+
+            Episode first = new Episode("firstUri", "firstCurie", Publisher.BBC);
+            first.setContainer(brand);
+            Episode second = new Episode("secondUri", "secondCurie", Publisher.BBC);
+            second.setContainer(brand);
+            bufferedWriter.createOrUpdate(first);
+            bufferedWriter.createOrUpdate(second);
+
+            assertEquals(Long.valueOf(1L), first.getContainer().getId());
+            assertNotNull(children.findOne(first.getCanonicalUri()));
+            assertTrue(retrieveBrand(brand).getChildRefs().isEmpty());
+
+            second.setActivelyPublished(false);
+            bufferedWriter.createOrUpdate(second);
+            buffer.flush();
+
+            ChildRef remaining = Iterables.getOnlyElement(retrieveBrand(brand).getChildRefs());
+            assertEquals(first.getCanonicalUri(), remaining.getUri());
+        } finally {
+            buffer.shutDown();
+        }
+    }
+
+    @Test
+    public void testFullBufferIsFlushedOnItsOwnThread() {
+        ScheduledExecutorService schedule = mock(ScheduledExecutorService.class);
+        ChildRefBuffer buffer = new ChildRefBuffer(1, Duration.standardHours(1), schedule);
+        MongoContentWriter bufferedWriter = new MongoContentWriter(mongo, lookupWriter,
+                persistenceAuditLog, playerResolver, serviceResolver, new SystemClock(), buffer);
+
+        Brand brand = new Brand("brandUri", "brandUri", Publisher.BBC);
+        brand.setId(1L);
+        bufferedWriter.createOrUpdate(brand);
+        Episode episode = new Episode("episodeUri", "episodeCurie", Publisher.BBC);
+        episode.setContainer(brand);
+        bufferedWriter.createOrUpdate(episode);
+
+        ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+        verify(schedule).execute(flush.capture());
+        assertTrue(retrieveBrand(brand).getChildRefs().isEmpty());
+
+        flush.getValue().run();
+
+        ChildRef written = Iterables.getOnlyElement(retrieveBrand(brand).getChildRefs());
+        assertEquals(episode.getCanonicalUri(), written.getUri());
+    }
+
+    @Test
+    public void testBufferPastItsLimitIsFlushedByTheWriter() {
+        ScheduledExecutorService schedule = mock(ScheduledExecutorService.class);
+        ChildRefBuffer buffer = new ChildRefBuffer(1, Duration.standardHours(1), schedule);
+        MongoContentWriter bufferedWriter = new MongoContentWriter(mongo, lookupWriter,
+                persistenceAuditLog, playerResolver, serviceResolver, new SystemClock(), buffer);
+
+        Brand brand = new Brand("brandUri", "brandUri", Publisher.BBC);
+        brand.setId(1L);
+        bufferedWriter.createOrUpdate(brand);
+        Episode first = new Episode("firstUri", "firstCurie", Publisher.BBC);
+        first.setContainer(brand);
+        Episode second = new Episode("secondUri", "secondCurie", Publisher.BBC);
+        second.setContainer(brand);
+        bufferedWriter.createOrUpdate(first);
+        bufferedWriter.createOrUpdate(second);
+
+        // the flush requested of the buffer's thread never runs
+        verify(schedule).execute(any(Runnable.class));
+        assertEquals(2, retrieveBrand(brand).getChildRefs().size());
+    }
+
     @Test
     public void testNumericIdsAreWrittenIntoParentAndChildRefs() {
         
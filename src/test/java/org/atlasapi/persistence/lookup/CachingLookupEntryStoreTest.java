@@ -0,0 +1,191 @@
+package org.atlasapi.persistence.lookup;
+
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.v3.EquivalenceChangeMessage;
+import org.atlasapi.persistence.Transaction;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.metabroadcast.common.time.Timestamp;
+import com.mongodb.client.ClientSession;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingLookupEntryStoreTest {
+
+    private final LookupEntryStore delegate = mock(LookupEntryStore.class);
+    private final CachingLookupEntryStore store = new CachingLookupEntryStore(
+            delegate, 1000, Duration.standardMinutes(1)
+    );
+
+    private LookupEntry first;
+    private LookupEntry second;
+
+    @Before
+    public void setUp() {
+        first = LookupEntry.lookupEntryFrom(item("first", 1L));
+        second = LookupEntry.lookupEntryFrom(item("second", 2L));
+        // first and second are equivalent
+        first = first.copyWithEquivalents(ImmutableSet.of(first.lookupRef(), second.lookupRef()));
+        second = second.copyWithEquivalents(ImmutableSet.of(first.lookupRef(), second.lookupRef()));
+
+        when(delegate.entriesForCanonicalUris(ImmutableSet.of("first")))
+                .thenReturn(ImmutableList.of(first));
+        when(delegate.entriesForCanonicalUris(ImmutableSet.of("second")))
+                .thenReturn(ImmutableList.of(second));
+        when(delegate.entriesForIds(ImmutableSet.of(1L))).thenReturn(ImmutableList.of(first));
+        when(delegate.entriesForIds(ImmutableSet.of(2L))).thenReturn(ImmutableList.of(second));
+    }
+
+    @Test
+    public void testEntriesAreReadOnceByUriAndId() {
+        assertEquals(ImmutableList.of(first), store.entriesForCanonicalUris(ImmutableList.of("first")));
+        assertEquals(ImmutableList.of(first), store.entriesForCanonicalUris(ImmutableList.of("first")));
+        assertEquals(ImmutableList.of(first), store.entriesForIds(ImmutableList.of(1L)));
+
+        verify(delegate, times(1)).entriesForCanonicalUris(ImmutableSet.of("first"));
+        verify(delegate, never()).entriesForIds(ImmutableSet.of(1L));
+        assertEquals(2, store.stats().hitCount());
+        assertEquals(1, store.stats().missCount());
+    }
+
+    @Test
+    public void testOnlyMissingEntriesAreRead() {
+        store.entriesForIds(ImmutableList.of(1L));
+
+        assertEquals(
+                ImmutableSet.of(first, second),
+                ImmutableSet.copyOf(store.entriesForIds(ImmutableList.of(1L, 2L)))
+        );
+
+        verify(delegate, times(1)).entriesForIds(ImmutableSet.of(1L));
+        verify(delegate, times(1)).entriesForIds(ImmutableSet.of(2L));
+    }
+
+    @Test
+    public void testWrittenEntryIsReadAgain() {
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+
+        store.written(ImmutableList.of(first));
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+
+        verify(delegate, times(2)).entriesForCanonicalUris(ImmutableSet.of("first"));
+    }
+
+    @Test
+    public void testStoringEntryInvalidatesIt() {
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+
+        store.storeAll(Transaction.none(), ImmutableList.of(first));
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+
+        verify(delegate).storeAll(any(Transaction.class), anyCollectionOf(LookupEntry.class));
+        verify(delegate, times(2)).entriesForCanonicalUris(ImmutableSet.of("first"));
+    }
+
+    @Test
+    public void testEntriesAreReturnedInRequestOrder() {
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+        store.entriesForIds(ImmutableList.of(1L));
+
+        assertEquals(
+                ImmutableList.of(second, first),
+                store.entriesForCanonicalUris(ImmutableList.of("second", "first"))
+        );
+        assertEquals(
+                ImmutableList.of(second, first),
+                store.entriesForIds(ImmutableList.of(2L, 1L))
+        );
+    }
+
+    @Test
+    public void testStoredEntryIsOnlyInvalidatedOnceCommitted() {
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+
+        try (Transaction rolledBack = Transaction.of(mock(ClientSession.class))) {
+            store.storeAll(rolledBack, ImmutableList.of(first));
+        }
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+        verify(delegate, times(1)).entriesForCanonicalUris(ImmutableSet.of("first"));
+
+        try (Transaction committed = Transaction.of(mock(ClientSession.class))) {
+            store.storeAll(committed, ImmutableList.of(first));
+            store.entriesForCanonicalUris(ImmutableList.of("first"));
+            verify(delegate, times(1)).entriesForCanonicalUris(ImmutableSet.of("first"));
+
+            committed.commit();
+        }
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+        verify(delegate, times(2)).entriesForCanonicalUris(ImmutableSet.of("first"));
+    }
+
+    @Test
+    public void testEquivalenceChangeForUncachedSubjectInvalidatesCachedEquivalents() {
+        store.entriesForCanonicalUris(ImmutableList.of("second"));
+
+        store.invalidate(new EquivalenceChangeMessage(
+                "message",
+                Timestamp.of(0L),
+                1L,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(Publisher.BBC.key())
+        ));
+        store.entriesForCanonicalUris(ImmutableList.of("second"));
+
+        verify(delegate, times(2)).entriesForCanonicalUris(ImmutableSet.of("second"));
+    }
+
+    @Test
+    public void testEquivalenceChangeInvalidatesWholeSet() {
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+        store.entriesForCanonicalUris(ImmutableList.of("second"));
+
+        store.invalidate(new EquivalenceChangeMessage(
+                "message",
+                Timestamp.of(0L),
+                1L,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(Publisher.BBC.key())
+        ));
+        store.entriesForCanonicalUris(ImmutableList.of("second"));
+
+        verify(delegate, times(2)).entriesForCanonicalUris(ImmutableSet.of("second"));
+    }
+
+    @Test
+    public void testEntryReadDuringInvalidationIsNotCached() {
+        when(delegate.entriesForCanonicalUris(ImmutableSet.of("first"))).thenAnswer(invocation -> {
+            store.invalidateUris(ImmutableList.of("first"));
+            return ImmutableList.of(first);
+        });
+
+        assertEquals(first, Iterables.getOnlyElement(store.entriesForCanonicalUris(ImmutableList.of("first"))));
+        store.entriesForCanonicalUris(ImmutableList.of("first"));
+
+        verify(delegate, times(2)).entriesForCanonicalUris(ImmutableSet.of("first"));
+    }
+
+    private Item item(String uri, long id) {
+        Item item = new Item(uri, uri, Publisher.BBC);
+        item.setId(id);
+        return item;
+    }
+}
@@ -0,0 +1,61 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CanonicalUriIdCacheTest {
+
+    @Test
+    public void testOnlyCachedIdsAreReturned() {
+        CanonicalUriIdCache cache = CanonicalUriIdCache.create(1000);
+        cache.putAll(ImmutableMap.of("a", 1L, "b", 2L));
+        cache.put("b", 2L);
+
+        assertEquals(
+                ImmutableMap.of("a", 1L, "b", 2L),
+                cache.getAll(ImmutableList.of("a", "b", "c", "a"))
+        );
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        CanonicalUriIdCache cache = CanonicalUriIdCache.create(640);
+        for (long id = 0; id < 10000; id++) {
+            cache.put("uri" + id, id);
+        }
+
+        assertTrue(cache.size() <= 640);
+        assertEquals(
+                ImmutableMap.of("uri9999", 9999L),
+                cache.getAll(ImmutableList.of("uri9999"))
+        );
+    }
+
+    @Test
+    public void testRecentlyReadIdsAreEvictedLast() {
+        CanonicalUriIdCache cache = CanonicalUriIdCache.create(640);
+        List<String> evenUris = Lists.newArrayList();
+        for (long id = 0; id < 640; id++) {
+            cache.put("uri" + id, id);
+            if (id % 2 == 0) {
+                evenUris.add("uri" + id);
+            }
+        }
+        Set<String> read = cache.getAll(evenUris).keySet();
+
+        for (long id = 640; id < 700; id++) {
+            cache.put("uri" + id, id);
+        }
+
+        assertEquals(read, cache.getAll(read).keySet());
+    }
+}
@@ -0,0 +1,115 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.List;
+
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.lookup.entry.EquivRefs;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.INCOMING;
+import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.OUTGOING;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class EquivalenceGraphTest {
+
+    private final LookupEntry one = entry("one", Publisher.BBC);
+    private final LookupEntry two = entry("two", Publisher.PA);
+    private final LookupEntry three = entry("three", Publisher.C4);
+    private final LookupEntry four = entry("four", Publisher.ITV);
+
+    @Test
+    public void testLinkedEntriesAreInTheSameComponent() {
+        EquivalenceGraph graph = EquivalenceGraph.of(ImmutableList.of(
+                linked(one, two, OUTGOING),
+                linked(two, one, INCOMING),
+                three
+        ));
+
+        List<ImmutableSet<LookupRef>> components = graph.components();
+
+        assertThat(components, containsInAnyOrder(
+                ImmutableSet.of(one.lookupRef(), two.lookupRef()),
+                ImmutableSet.of(three.lookupRef())
+        ));
+    }
+
+    @Test
+    public void testAddingLinkMergesComponents() {
+        EquivalenceGraph graph = EquivalenceGraph.of(ImmutableList.of(one, two, three));
+
+        graph.update(linked(one, three, OUTGOING));
+
+        assertTrue(graph.connected(one.lookupRef(), three.lookupRef()));
+        assertFalse(graph.connected(one.lookupRef(), two.lookupRef()));
+    }
+
+    @Test
+    public void testRemovingOnlyLinkSplitsComponent() {
+        LookupEntry linkedOne = linked(one, two, OUTGOING);
+        EquivalenceGraph graph = EquivalenceGraph.of(ImmutableList.of(
+                linkedOne,
+                two,
+                linked(three, four, OUTGOING),
+                four
+        ));
+
+        graph.update(linkedOne.copyWithDirectEquivalents(
+                linkedOne.directEquivalents().copyWithoutLink(two.lookupRef(), OUTGOING)
+        ));
+
+        assertThat(graph.components(), containsInAnyOrder(
+                ImmutableSet.of(one.lookupRef()),
+                ImmutableSet.of(two.lookupRef()),
+                ImmutableSet.of(three.lookupRef(), four.lookupRef())
+        ));
+    }
+
+    @Test
+    public void testRemovingOneOfTwoPathsKeepsComponent() {
+        LookupEntry linkedOne = linked(linked(one, two, OUTGOING), three, OUTGOING);
+        EquivalenceGraph graph = EquivalenceGraph.of(ImmutableList.of(
+                linkedOne,
+                linked(two, three, OUTGOING),
+                three
+        ));
+
+        graph.update(linkedOne.copyWithDirectEquivalents(
+                linkedOne.directEquivalents().copyWithoutLink(three.lookupRef(), OUTGOING)
+        ));
+
+        assertTrue(graph.connected(one.lookupRef(), three.lookupRef()));
+    }
+
+    @Test
+    public void testRefsWithoutEntriesAreIncludedInComponents() {
+        LookupEntry unresolved = entry("unresolved", Publisher.FIVE);
+
+        EquivalenceGraph graph = EquivalenceGraph.of(ImmutableList.of(
+                linked(one, unresolved, OUTGOING)
+        ));
+
+        assertThat(graph.components(), containsInAnyOrder(
+                ImmutableSet.of(one.lookupRef(), unresolved.lookupRef())
+        ));
+    }
+
+    private LookupEntry linked(LookupEntry entry, LookupEntry neighbour, EquivRefs.Direction direction) {
+        return entry.copyWithDirectEquivalents(
+                entry.directEquivalents().copyWithLink(neighbour.lookupRef(), direction)
+        );
+    }
+
+    private LookupEntry entry(String name, Publisher publisher) {
+        Item item = new Item(name + "Uri", name + "Curie", publisher);
+        return LookupEntry.lookupEntryFrom(item);
+    }
+}
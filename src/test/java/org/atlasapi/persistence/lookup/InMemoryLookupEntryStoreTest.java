@@ -0,0 +1,143 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.atlasapi.media.entity.Alias;
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.Transaction;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InMemoryLookupEntryStoreTest {
+
+    private final InMemoryLookupEntryStore store = new InMemoryLookupEntryStore();
+
+    @Test
+    public void testRestoringEntryReplacesItsIndexKeys() {
+        store.store(LookupEntry.lookupEntryFrom(item("uri", 1L, "oldAliasUri", new Alias("ns", "old"))));
+        LookupEntry updated = LookupEntry.lookupEntryFrom(
+                item("uri", 1L, "newAliasUri", new Alias("ns", "new"))
+        );
+        store.store(updated);
+
+        assertTrue(Iterables.isEmpty(store.entriesForIdentifiers(ImmutableList.of("oldAliasUri"), true)));
+        assertTrue(Iterables.isEmpty(store.entriesForAliases(Optional.of("ns"), ImmutableList.of("old"))));
+        assertTrue(Iterables.isEmpty(store.entriesForAliases(Optional.absent(), ImmutableList.of("old"))));
+
+        assertEquals(
+                ImmutableList.of(updated),
+                store.entriesForIdentifiers(ImmutableList.of("uri", "newAliasUri"), true)
+        );
+        assertEquals(
+                ImmutableList.of(updated),
+                store.entriesForAliases(Optional.of("ns"), ImmutableList.of("new"))
+        );
+        assertEquals(
+                ImmutableList.of(updated),
+                store.entriesForAliases(Optional.absent(), ImmutableList.of("new"))
+        );
+    }
+
+    @Test
+    public void testChangingIdMovesEntry() {
+        store.store(LookupEntry.lookupEntryFrom(item("uri", 1L, "aliasUri", new Alias("ns", "v"))));
+        LookupEntry updated = LookupEntry.lookupEntryFrom(item("uri", 2L, "aliasUri", new Alias("ns", "v")));
+        store.store(updated);
+
+        assertTrue(Iterables.isEmpty(store.entriesForIds(ImmutableList.of(1L))));
+        assertEquals(ImmutableList.of(updated), store.entriesForIds(ImmutableList.of(2L)));
+    }
+
+    @Test
+    public void testEntriesSharingAliasAreEachReturnedOnce() {
+        LookupEntry first = LookupEntry.lookupEntryFrom(item("first", 1L, "shared", new Alias("ns", "v")));
+        LookupEntry second = LookupEntry.lookupEntryFrom(item("second", 2L, "shared", new Alias("ns", "v")));
+        store.store(first);
+        store.store(second);
+
+        assertEquals(
+                ImmutableSet.of(first, second),
+                ImmutableSet.copyOf(store.entriesForAliases(Optional.of("ns"), ImmutableList.of("v", "v")))
+        );
+        assertEquals(2, Iterables.size(store.entriesForIdentifiers(ImmutableList.of("shared"), true)));
+    }
+
+    @Test
+    public void testConcurrentStoresAreAllIndexed() throws Exception {
+        int threads = 8;
+        int entriesPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> stores = Lists.newArrayList();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                stores.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < entriesPerThread; i++) {
+                        long id = thread * entriesPerThread + i;
+                        store.store(LookupEntry.lookupEntryFrom(
+                                item("uri" + id, id, "alias" + id, new Alias("ns", "shared"))
+                        ));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : stores) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int total = threads * entriesPerThread;
+        List<Long> ids = Lists.newArrayList();
+        for (long id = 0; id < total; id++) {
+            ids.add(id);
+        }
+        assertEquals(total, Iterables.size(store.entriesForIds(ids)));
+        assertEquals(total, Iterables.size(store.entriesForAliases(Optional.of("ns"), ImmutableList.of("shared"))));
+        assertEquals(
+                "uri42",
+                Iterables.getOnlyElement(store.entriesForIdentifiers(ImmutableList.of("alias42"), true)).uri()
+        );
+    }
+
+    @Test
+    public void testTransitiveUrisIncludeEntrysOwnUri() {
+        LookupEntry other = LookupEntry.lookupEntryFrom(item("other", 2L, "otherAlias", new Alias("ns", "o")));
+        LookupEntry entry = LookupEntry.lookupEntryFrom(item("uri", 1L, "aliasUri", new Alias("ns", "v")))
+                .copyWithEquivalents(ImmutableSet.of(other.lookupRef()));
+        store.store(entry);
+
+        assertEquals(
+                ImmutableMap.of("uri", ImmutableSet.of("uri", "other")),
+                store.transitiveUrisFor(Transaction.none(), ImmutableList.of("uri"))
+        );
+        assertEquals(
+                ImmutableMap.of(LookupEntry.equivalenceSetIdOf(ImmutableSet.of("uri", "other")), 2),
+                store.equivalenceSetSizesFor(Transaction.none(), ImmutableList.of("uri"))
+        );
+    }
+
+    private Item item(String uri, long id, String aliasUri, Alias alias) {
+        Item item = new Item(uri, uri, Publisher.BBC);
+        item.setId(id);
+        item.setAliasUrls(ImmutableSet.of(aliasUri));
+        item.setAliases(ImmutableSet.of(alias));
+        return item;
+    }
+}
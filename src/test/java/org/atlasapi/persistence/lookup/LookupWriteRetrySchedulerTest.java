@@ -0,0 +1,192 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.equiv.ContentRef;
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LookupWriteRetrySchedulerTest {
+
+    private final Item subject = new Item("subjectUri", "subjectCurie", Publisher.BBC);
+    private final LookupWrite first = write(new Item("firstUri", "firstCurie", Publisher.PA));
+    private final LookupWrite second = write(new Item("secondUri", "secondCurie", Publisher.PA));
+
+    private final List<LookupWrite> attempted = Lists.newCopyOnWriteArrayList();
+    private LookupWriteRetryScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void testConflictingWriteIsRetried() throws Exception {
+        scheduler = scheduler(write -> {
+            attempted.add(write);
+            if (attempted.size() == 1) {
+                throw conflict();
+            }
+            return Optional.of(ImmutableSet.of());
+        }, Duration.millis(1), 5);
+
+        ListenableFuture<Optional<Set<LookupEntry>>> result = scheduler.submit(first);
+
+        assertTrue(result.get(1, TimeUnit.SECONDS).isPresent());
+        assertEquals(ImmutableList.of(first, first), attempted);
+    }
+
+    @Test
+    public void testWriteWaitingForRetryIsReplacedByLaterWriteForSubject() throws Exception {
+        HeldRetryExecutor executor = new HeldRetryExecutor();
+        scheduler = new LookupWriteRetryScheduler(write -> {
+            attempted.add(write);
+            if (attempted.size() == 1) {
+                throw conflict();
+            }
+            return Optional.of(ImmutableSet.of());
+        }, executor, Duration.millis(1), Duration.standardSeconds(1), 5);
+
+        ListenableFuture<Optional<Set<LookupEntry>>> firstResult = scheduler.submit(first);
+        executor.parked.await();
+        ListenableFuture<Optional<Set<LookupEntry>>> secondResult = scheduler.submit(second);
+        executor.release.countDown();
+
+        assertSame(firstResult, secondResult);
+        assertTrue(secondResult.get(1, TimeUnit.SECONDS).isPresent());
+        assertEquals(ImmutableList.of(first, second), attempted);
+    }
+
+    @Test
+    public void testWriteFailsAfterMaxAttempts() throws Exception {
+        scheduler = scheduler(write -> {
+            attempted.add(write);
+            throw conflict();
+        }, Duration.millis(1), 3);
+
+        try {
+            scheduler.submit(first).get(1, TimeUnit.SECONDS);
+            fail("Expected write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof LookupWriteConflictException);
+        }
+        assertEquals(3, attempted.size());
+    }
+
+    @Test
+    public void testWriteWaitingForRetryFailsOnShutdown() throws Exception {
+        HeldRetryExecutor executor = new HeldRetryExecutor();
+        scheduler = new LookupWriteRetryScheduler(write -> {
+            attempted.add(write);
+            throw conflict();
+        }, executor, Duration.millis(1), Duration.standardSeconds(1), 5);
+
+        ListenableFuture<Optional<Set<LookupEntry>>> result = scheduler.submit(first);
+        executor.parked.await();
+        scheduler.shutdown();
+        executor.release.countDown();
+
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            fail("Expected write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(ImmutableList.of(first), attempted);
+    }
+
+    @Test
+    public void testWriteFailingWithErrorCompletesResult() throws Exception {
+        scheduler = scheduler(write -> {
+            throw new AssertionError("failed");
+        }, Duration.millis(1), 3);
+
+        try {
+            scheduler.submit(first).get(1, TimeUnit.SECONDS);
+            fail("Expected write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AssertionError);
+        }
+    }
+
+    private LookupWriteRetryScheduler scheduler(
+            SingleAttemptLookupWriter writer,
+            Duration initialDelay,
+            int maxAttempts
+    ) {
+        return new LookupWriteRetryScheduler(
+                writer,
+                Executors.newScheduledThreadPool(2),
+                initialDelay,
+                Duration.standardSeconds(1),
+                maxAttempts
+        );
+    }
+
+    /*
+     * Holds retries once they've been parked, until released, so that a
+     * write can be submitted while another for its subject is waiting.
+     */
+    private static class HeldRetryExecutor extends ScheduledThreadPoolExecutor {
+
+        private final CountDownLatch parked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        HeldRetryExecutor() {
+            super(2);
+        }
+
+        // first attempts aren't held
+        @Override
+        public void execute(Runnable command) {
+            super.schedule(command, 0, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            ScheduledFuture<?> scheduled = super.schedule(() -> {
+                Uninterruptibles.awaitUninterruptibly(release);
+                command.run();
+            }, delay, unit);
+            parked.countDown();
+            return scheduled;
+        }
+    }
+
+    private LookupWriteConflictException conflict() {
+        return new LookupWriteConflictException("WriteConflict", new RuntimeException());
+    }
+
+    private LookupWrite write(Item equivalent) {
+        return LookupWrite.of(
+                ContentRef.valueOf(subject),
+                ImmutableSet.of(ContentRef.valueOf(equivalent)),
+                ImmutableSet.of(Publisher.BBC, Publisher.PA)
+        );
+    }
+}
@@ -0,0 +1,97 @@
+package org.atlasapi.persistence.lookup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StripedGroupLockTest {
+
+    private final StripedGroupLock<String> lock = StripedGroupLock.withStripes(16);
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDisjointGroupsCanBeLockedByDifferentThreads() throws Exception {
+        assertTrue(lock.tryLock(ImmutableSet.of("a", "b")));
+
+        Future<Boolean> other = executor.submit(() -> lock.tryLock(ImmutableSet.of("c", "d")));
+
+        assertTrue(other.get(1, TimeUnit.SECONDS));
+        assertEquals(ImmutableSet.of("a", "b", "c", "d"), lock.lockedKeys());
+    }
+
+    @Test
+    public void testOverlappingGroupIsNotPartiallyLocked() throws Exception {
+        assertTrue(lock.tryLock(ImmutableSet.of("a", "b")));
+
+        Future<Boolean> other = executor.submit(() -> lock.tryLock(ImmutableSet.of("b", "c")));
+
+        assertFalse(other.get(1, TimeUnit.SECONDS));
+        assertEquals(ImmutableSet.of("a", "b"), lock.lockedKeys());
+    }
+
+    @Test
+    public void testUnlockOnlyReleasesKeysHeldByCallingThread() throws Exception {
+        assertTrue(lock.tryLock(ImmutableSet.of("a")));
+
+        executor.submit(() -> lock.unlock(ImmutableSet.of("a"))).get(1, TimeUnit.SECONDS);
+
+        assertEquals(ImmutableSet.of("a"), lock.lockedKeys());
+
+        lock.unlock(ImmutableSet.of("a"));
+
+        assertTrue(lock.lockedKeys().isEmpty());
+    }
+
+    @Test
+    public void testAwaitReleaseReturnsWhenContendedKeyIsReleased() throws Exception {
+        assertTrue(lock.tryLock(ImmutableSet.of("a")));
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Thread> waitingThread = new AtomicReference<>();
+        Future<Boolean> waiter = executor.submit(() -> {
+            waitingThread.set(Thread.currentThread());
+            started.countDown();
+            lock.awaitRelease(ImmutableSet.of("a", "b"));
+            return lock.tryLock(ImmutableSet.of("a", "b"));
+        });
+
+        started.await();
+        awaitParked(waitingThread.get());
+        assertFalse(waiter.isDone());
+
+        lock.unlock(ImmutableSet.of("a"));
+
+        assertTrue(waiter.get(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAwaitReleaseReturnsImmediatelyForUncontendedKeys() throws Exception {
+        lock.awaitRelease(ImmutableSet.of("a", "b"));
+    }
+
+    /*
+     * Waits for the thread to block on a released key's condition, so that
+     * the key is only released once the thread is waiting for it.
+     */
+    private void awaitParked(Thread thread) {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+    }
+}
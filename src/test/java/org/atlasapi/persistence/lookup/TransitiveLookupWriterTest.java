@@ -5,8 +5,10 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ContiguousSet;
 import com.google.common.collect.DiscreteDomain;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.metabroadcast.common.stream.MoreCollectors;
@@ -39,6 +41,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.atlasapi.persistence.lookup.TransitiveLookupWriter.generatedTransitiveLookupWriter;
 import static org.atlasapi.persistence.lookup.TransitiveLookupWriter.generatedTransitiveLookupWriterWithMessengers;
@@ -365,14 +368,14 @@ public class TransitiveLookupWriterTest extends TestCase {
         LookupEntry paLookupEntry = lookupEntryFrom(paItem).copyWithDirectEquivalents(EquivRefs.of(LookupRef.from(pnItem), OUTGOING));
         LookupEntry pnLookupEntry = lookupEntryFrom(pnItem).copyWithDirectEquivalents(EquivRefs.of(LookupRef.from(paItem), OUTGOING));
         
-        when(store.entriesForCanonicalUris(transaction, ImmutableSet.of(pnItem.getCanonicalUri(), paItem.getCanonicalUri())))
-            .thenReturn(ImmutableList.of(paLookupEntry, pnLookupEntry));
+        when(store.transitiveUrisFor(transaction, ImmutableSet.of(pnItem.getCanonicalUri(), paItem.getCanonicalUri())))
+            .thenReturn(transitiveUris(ImmutableList.of(paLookupEntry, pnLookupEntry)));
         when(store.entriesForCanonicalUris(transaction, ImmutableSet.of(paItem.getCanonicalUri())))
             .thenReturn(ImmutableList.of(paLookupEntry));
         
         writer.writeLookup(ContentRef.valueOf(paItem), ImmutableSet.of(ContentRef.valueOf(pnItem)), ImmutableSet.of(Publisher.PA, Publisher.PREVIEW_NETWORKS));
         
-        verify(store).entriesForCanonicalUris(transaction, ImmutableSet.of(pnItem.getCanonicalUri(), paItem.getCanonicalUri()));
+        verify(store).transitiveUrisFor(transaction, ImmutableSet.of(pnItem.getCanonicalUri(), paItem.getCanonicalUri()));
         verify(store, times(2)).entriesForCanonicalUris(transaction, ImmutableSet.of(paItem.getCanonicalUri()));
         verify(store, never()).store(Mockito.isA(LookupEntry.class));
         
@@ -461,26 +464,83 @@ public class TransitiveLookupWriterTest extends TestCase {
         
         bigEntry = bigEntry.copyWithEquivalents(equivs);
         
-        when(store.entriesForCanonicalUris(argThat(is(transaction)), argThat(hasItems(big.getCanonicalUri(), equiv.getCanonicalUri()))))
-            .thenReturn(ImmutableList.of(bigEntry, equivEntry));
+        when(store.transitiveUrisFor(argThat(is(transaction)), argThat(hasItems(big.getCanonicalUri(), equiv.getCanonicalUri()))))
+            .thenReturn(transitiveUris(ImmutableList.of(bigEntry, equivEntry)));
         when(store.entriesForCanonicalUris(transaction, ImmutableSet.of(equiv.getCanonicalUri())))
                 .thenReturn(ImmutableList.of(equivEntry));
         
         writeLookup(writer, equiv, ImmutableSet.of(big), Publisher.all());
         
-        verify(store).entriesForCanonicalUris(any(), argThat(hasItems(big.getCanonicalUri(), equiv.getCanonicalUri())));
+        verify(store).transitiveUrisFor(any(), argThat(hasItems(big.getCanonicalUri(), equiv.getCanonicalUri())));
         verify(store, never()).store(Mockito.isA(LookupEntry.class));
         
         Mockito.validateMockitoUsage();
         
     }
 
+    @Test
+    public void testAbortsWriteFromRecordedSetSizesWithoutReadingMembers() {
+        LookupEntryStore store = mock(LookupEntryStore.class);
+        Transaction transaction = mock(Transaction.class);
+        when(store.startTransaction()).thenReturn(transaction);
+
+        TransitiveLookupWriter writer = generatedTransitiveLookupWriter(store);
+
+        Item big = createItem("big", Publisher.BBC);
+        Item equiv = createItem("equiv", Publisher.PA);
+        LookupEntry equivEntry = LookupEntry.lookupEntryFrom(equiv);
+
+        when(store.equivalenceSetSizesFor(argThat(is(transaction)), argThat(hasItems(big.getCanonicalUri(), equiv.getCanonicalUri()))))
+                .thenReturn(ImmutableMap.of(big.getCanonicalUri(), 1500, equiv.getCanonicalUri(), 1));
+        when(store.entriesForCanonicalUris(transaction, ImmutableSet.of(equiv.getCanonicalUri())))
+                .thenReturn(ImmutableList.of(equivEntry));
+
+        writeLookup(writer, equiv, ImmutableSet.of(big), Publisher.all());
+
+        verify(store, never()).transitiveUrisFor(any(), any());
+        verify(store, never()).store(Mockito.isA(LookupEntry.class));
+    }
+
+    @Test
+    public void testWritesWhenProjectedSetSizeWasStale() {
+        AtomicInteger sizeReads = new AtomicInteger();
+        LookupEntryStore store = new InMemoryLookupEntryStore() {
+
+            @Override
+            public Map<String, Integer> equivalenceSetSizesFor(Transaction transaction, Iterable<String> uris) {
+                if (sizeReads.getAndIncrement() == 0) {
+                    // as read before a concurrent write shrank the set
+                    return Maps.toMap(ImmutableSet.copyOf(uris), uri -> 1500);
+                }
+                return super.equivalenceSetSizesFor(transaction, uris);
+            }
+        };
+        TransitiveLookupWriter writer = generatedTransitiveLookupWriter(store);
+
+        Item big = createItem("big", Publisher.BBC);
+        Item equiv = createItem("equiv", Publisher.PA);
+        store.store(LookupEntry.lookupEntryFrom(big));
+        store.store(LookupEntry.lookupEntryFrom(equiv));
+
+        writeLookup(writer, equiv, ImmutableSet.of(big), Publisher.all());
+
+        assertTrue(sizeReads.get() > 1);
+        LookupEntry written = Iterables.getOnlyElement(
+                store.entriesForCanonicalUris(ImmutableList.of(equiv.getCanonicalUri()))
+        );
+        assertEquals(
+                ImmutableSet.of(big.getCanonicalUri(), equiv.getCanonicalUri()),
+                ImmutableSet.copyOf(Iterables.transform(written.equivalents(), LookupRef.TO_URI))
+        );
+    }
+
     @Test
     public void testUpdatesJustExistingDirectEquivsWhenSetTooLarge() {
 
         LookupEntryStore store = mock(LookupEntryStore.class);
         Transaction transaction = mock(Transaction.class);
         when(store.startTransaction()).thenReturn(transaction);
+        when(store.entriesForEquivalenceSets(any(), any())).thenReturn(ImmutableList.of());
 
         TransitiveLookupWriter writer = generatedTransitiveLookupWriter(store);
 
@@ -544,9 +604,20 @@ public class TransitiveLookupWriterTest extends TestCase {
     }
 
     private void setupEntriesForCanonicalUris(LookupEntryStore store, Transaction transaction, Set<LookupEntry> entries) {
-        when(store.entriesForCanonicalUris(
-                transaction, entries.stream().map(LookupEntry::uri).collect(MoreCollectors.toImmutableSet())
-        )).thenReturn(entries);
+        Set<String> uris = entries.stream().map(LookupEntry::uri).collect(MoreCollectors.toImmutableSet());
+        when(store.entriesForCanonicalUris(transaction, uris)).thenReturn(entries);
+        when(store.transitiveUrisFor(transaction, uris)).thenReturn(transitiveUris(entries));
+    }
+
+    private Map<String, Set<String>> transitiveUris(Iterable<LookupEntry> entries) {
+        Map<String, Set<String>> transitiveUris = Maps.newHashMap();
+        for (LookupEntry entry : entries) {
+            transitiveUris.put(
+                    entry.uri(),
+                    entry.equivalents().stream().map(LookupRef::uri).collect(MoreCollectors.toImmutableSet())
+            );
+        }
+        return transitiveUris;
     }
 
     @Test
@@ -554,6 +625,7 @@ public class TransitiveLookupWriterTest extends TestCase {
         LookupEntryStore store = mock(LookupEntryStore.class);
         Transaction transaction = mock(Transaction.class);
         when(store.startTransaction()).thenReturn(transaction);
+        when(store.entriesForEquivalenceSets(any(), any())).thenReturn(ImmutableList.of());
 
         TransitiveLookupWriter writer = generatedTransitiveLookupWriter(store);
 
@@ -569,14 +641,11 @@ public class TransitiveLookupWriterTest extends TestCase {
         LookupEntry pnLookupEntry2 = lookupEntryFrom(pnItem2);
         LookupEntry pnLookupEntry3 = lookupEntryFrom(pnItem3);
 
-        when(store.entriesForCanonicalUris(
+        setupEntriesForCanonicalUris(
+                store,
                 transaction,
-                ImmutableSet.of(
-                        paItem.getCanonicalUri(),
-                        pnItem2.getCanonicalUri(),
-                        pnItem3.getCanonicalUri()
-                )
-        )).thenReturn(ImmutableList.of(paLookupEntry, pnLookupEntry2, pnLookupEntry3));
+                ImmutableSet.of(paLookupEntry, pnLookupEntry2, pnLookupEntry3)
+        );
         when(store.entriesForCanonicalUris(transaction, ImmutableSet.of(paItem.getCanonicalUri())))
                 .thenReturn(ImmutableList.of(paLookupEntry));
         when(store.entriesForCanonicalUris(transaction, ImmutableList.of(paItem.getCanonicalUri())))
@@ -590,6 +659,8 @@ public class TransitiveLookupWriterTest extends TestCase {
 
 
         verify(store, never()).entriesForCanonicalUris(argThat(not(is(transaction))), any());
+        verify(store, never()).entriesForEquivalenceSets(argThat(not(is(transaction))), any());
+        verify(store, never()).transitiveUrisFor(argThat(not(is(transaction))), any());
         verify(store, never()).store(argThat(not(is(transaction))), any());
         verify(store, times(1)).startTransaction();
         verify(transaction, times(1)).commit();
@@ -695,6 +766,95 @@ public class TransitiveLookupWriterTest extends TestCase {
 
     }
 
+    public void testWriteLookupsRecordsOverlappingAndDisjointWrites() {
+        Item one = createItem("one", Publisher.BBC);
+        Item two = createItem("two", Publisher.PA);
+        Item three = createItem("three", Publisher.ITV);
+        Item four = createItem("four", Publisher.C4);
+        Item five = createItem("five", Publisher.FIVE);
+
+        store.store(LookupEntry.lookupEntryFrom(one));
+        store.store(LookupEntry.lookupEntryFrom(two));
+        store.store(LookupEntry.lookupEntryFrom(three));
+        store.store(LookupEntry.lookupEntryFrom(four));
+        store.store(LookupEntry.lookupEntryFrom(five));
+
+        Set<LookupEntry> updated = writer.writeLookups(ImmutableList.of(
+                lookupWrite(one, ImmutableSet.of(two), Publisher.all()),
+                lookupWrite(three, ImmutableSet.of(two), Publisher.all()),
+                lookupWrite(four, ImmutableSet.of(five), Publisher.all())
+        ));
+
+        assertEquals(
+                ImmutableSet.of("oneUri", "twoUri", "threeUri", "fourUri", "fiveUri"),
+                updated.stream().map(LookupEntry::uri).collect(MoreCollectors.toImmutableSet())
+        );
+
+        hasEquivs(one, one, two, three);
+        hasDirectEquivs(one, one, two);
+
+        hasEquivs(two, one, two, three);
+        hasDirectEquivs(two, one, two, three);
+
+        hasEquivs(three, one, two, three);
+        hasDirectEquivs(three, two, three);
+
+        hasEquivs(four, four, five);
+        hasDirectEquivs(four, four, five);
+
+        hasEquivs(five, four, five);
+        hasDirectEquivs(five, four, five);
+
+        verify(changesMessenger, times(3)).sendMessageFromDirectEquivs(any(), any(), any());
+    }
+
+    public void testWriteLookupsRecordsOnlyLastWriteForSubject() {
+        Item one = createItem("one", Publisher.BBC);
+        Item two = createItem("two", Publisher.PA);
+        Item three = createItem("three", Publisher.ITV);
+
+        store.store(LookupEntry.lookupEntryFrom(one));
+        store.store(LookupEntry.lookupEntryFrom(two));
+        store.store(LookupEntry.lookupEntryFrom(three));
+
+        writer.writeLookups(ImmutableList.of(
+                lookupWrite(one, ImmutableSet.of(two), Publisher.all()),
+                lookupWrite(one, ImmutableSet.of(three), Publisher.all())
+        ));
+
+        hasEquivs(one, one, three);
+        hasDirectEquivs(one, one, three);
+
+        hasEquivs(two, two);
+        hasDirectEquivs(two, two);
+    }
+
+    public void testWriteLookupsSkipsWritesWithoutChanges() {
+        Item one = createItem("one", Publisher.BBC);
+        Item two = createItem("two", Publisher.PA);
+
+        store.store(LookupEntry.lookupEntryFrom(one));
+        store.store(LookupEntry.lookupEntryFrom(two));
+
+        writeLookup(writer, one, ImmutableSet.of(two), Publisher.all());
+        reset(changesMessenger);
+
+        Set<LookupEntry> updated = writer.writeLookups(ImmutableList.of(
+                lookupWrite(one, ImmutableSet.of(two), Publisher.all())
+        ));
+
+        assertTrue(updated.isEmpty());
+        verify(changesMessenger, never()).sendMessageFromDirectEquivs(any(), any(), any());
+    }
+
+    private LookupWrite lookupWrite(Content subject, ImmutableSet<? extends Content> equivs, Set<Publisher> publishers) {
+        return LookupWrite.of(
+                ContentRef.valueOf(subject),
+                equivs.stream().map(ContentRef::valueOf).collect(MoreCollectors.toImmutableSet()),
+                publishers
+        );
+    }
+
     private static Matcher<LookupEntry> lookupEntryMatcher(String uri) {
         return new BaseMatcher<LookupEntry>() {
             @Override
@@ -81,6 +81,19 @@ public class LookupEntryTest {
         );
     }
 
+    @Test
+    public void testEquivalenceSetIdIsSharedByMembersOfSet() {
+        ImmutableSet<LookupRef> set = ImmutableSet.of(ref1, ref2, ref3);
+        LookupEntry second = entry(ref2, EquivRefs.of(), EquivRefs.of(), EquivRefs.of())
+                .copyWithEquivalents(set);
+        LookupEntry third = entry(ref3, EquivRefs.of(), EquivRefs.of(), EquivRefs.of())
+                .copyWithEquivalents(set);
+
+        assertEquals(ref1.uri(), second.equivalenceSetId());
+        assertEquals(ref1.uri(), third.equivalenceSetId());
+        assertEquals(self.uri(), lookupEntry.equivalenceSetId());
+    }
+
     @Test
     public void testGetOutgoing() {
         assertEquals(ImmutableSet.of(ref2, ref3, ref5, ref6), lookupEntry.getOutgoing());
@@ -0,0 +1,133 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import java.util.Set;
+
+import org.atlasapi.media.entity.Alias;
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.content.ContentCategory;
+import org.atlasapi.persistence.lookup.entry.EquivRefs;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.media.entity.LookupRefTranslator;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.metabroadcast.common.time.DateTimeZones;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonDocumentWrapper;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.BIDIRECTIONAL;
+import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.INCOMING;
+import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.OUTGOING;
+import static org.junit.Assert.assertEquals;
+
+public class LookupEntryCodecTest {
+
+    private final CodecRegistry registry = MongoClient.getDefaultCodecRegistry();
+    private final LookupEntryCodec codec = new LookupEntryCodec(registry);
+    private final LookupEntryTranslator translator = new LookupEntryTranslator();
+
+    private final LookupRef self = ref("uri", 1L, Publisher.BBC);
+    private final Set<LookupRef> equivs = ImmutableSet.of(
+            self,
+            ref("dir", 2L, Publisher.PA),
+            ref("exp", 3L, Publisher.BT)
+    );
+
+    @Test
+    public void testDecodesSameEntryAsTranslator() {
+        LookupEntry entry = entry(true);
+
+        assertDecodedAsTranslated(translator.toDbo(entry));
+    }
+
+    @Test
+    public void testDecodesUnpublishedEntryAsTranslator() {
+        LookupEntry entry = entry(false);
+
+        assertDecodedAsTranslated(translator.toDbo(entry));
+    }
+
+    @Test
+    public void testDecodesUnnestedEquivRefsAsTranslator() {
+        DBObject dbo = translator.toDbo(entry(true));
+        // entries written before directions were recorded hold bare refs
+        LookupRefTranslator refTranslator = new LookupRefTranslator();
+        dbo.put(LookupEntryTranslator.DIRECT, ImmutableList.of(
+                refTranslator.toDBObject(null, ref("dir", 2L, Publisher.PA))
+        ));
+
+        assertDecodedAsTranslated(dbo);
+    }
+
+    @Test
+    public void testEncodesAsTranslator() {
+        LookupEntry entry = entry(true);
+        BsonDocument encoded = new BsonDocument();
+
+        codec.encode(new BsonDocumentWriter(encoded), entry, EncoderContext.builder().build());
+
+        assertEquals(BsonDocumentWrapper.asBsonDocument(translator.toDbo(entry), registry), encoded);
+    }
+
+    private void assertDecodedAsTranslated(DBObject dbo) {
+        LookupEntry translated = translator.fromDbo(dbo);
+        LookupEntry decoded = codec.decode(
+                new BsonDocumentReader(BsonDocumentWrapper.asBsonDocument(
+                        new BasicDBObject(dbo.toMap()),
+                        registry
+                )),
+                DecoderContext.builder().build()
+        );
+
+        assertEquals(translated, decoded);
+        assertEquals(translated.id(), decoded.id());
+        assertEquals(translated.lookupRef(), decoded.lookupRef());
+        assertEquals(translated.aliasUrls(), decoded.aliasUrls());
+        assertEquals(translated.aliases(), decoded.aliases());
+        assertEquals(translated.equivalents(), decoded.equivalents());
+        assertEquals(translated.directEquivalents(), decoded.directEquivalents());
+        assertEquals(translated.explicitEquivalents(), decoded.explicitEquivalents());
+        assertEquals(translated.blacklistedEquivalents(), decoded.blacklistedEquivalents());
+        assertEquals(translated.created(), decoded.created());
+        assertEquals(translated.updated(), decoded.updated());
+        assertEquals(translated.transitivesUpdated(), decoded.transitivesUpdated());
+        assertEquals(translated.activelyPublished(), decoded.activelyPublished());
+    }
+
+    private LookupEntry entry(boolean activelyPublished) {
+        DateTime created = new DateTime(2020, 1, 1, 0, 0, 0, 0, DateTimeZones.UTC);
+        DateTime updated = created.plusDays(1);
+        return new LookupEntry(
+                "uri",
+                1L,
+                self,
+                ImmutableSet.of("uri", "alias"),
+                ImmutableSet.of(new Alias("ns", "val"), new Alias("ns2", "val2")),
+                EquivRefs.of(ImmutableSet.of(ref("dir", 2L, Publisher.PA)), OUTGOING)
+                        .copyWithLink(self, BIDIRECTIONAL),
+                EquivRefs.of(ImmutableSet.of(ref("exp", 3L, Publisher.BT)), INCOMING)
+                        .copyWithLink(self, BIDIRECTIONAL),
+                EquivRefs.of(ImmutableSet.of(ref("blc", 4L, Publisher.PA)), INCOMING),
+                equivs,
+                created,
+                updated,
+                updated.plusHours(1),
+                activelyPublished
+        );
+    }
+
+    private LookupRef ref(String uri, long id, Publisher publisher) {
+        return new LookupRef(uri, id, publisher, ContentCategory.CHILD_ITEM);
+    }
+}
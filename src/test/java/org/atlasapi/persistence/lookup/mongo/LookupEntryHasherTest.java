@@ -10,22 +10,48 @@ import org.joda.time.DateTime;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 
 public class LookupEntryHasherTest {
 
-    private final LookupEntryHasher hasher = new LookupEntryHasher(new LookupEntryTranslator());
-    
+    private final LookupEntryHasher hasher = new LookupEntryHasher();
+
     @Test
-    public void testHashDoesntChangeWhenAuditTimestampsChange() {
+    public void testFingerprintDoesntChangeWhenAuditTimestampsChange() {
         DateTime created = DateTime.now();
         DateTime updated = created.plusHours(1);
         LookupEntry lookupEntry = createLookupEntry(created, created);
         LookupEntry lookupEntryWithDifferentUpdated = createLookupEntry(updated, updated);
-        
-        assertEquals(hasher.writeHashFor(lookupEntry), hasher.writeHashFor(lookupEntryWithDifferentUpdated));
+
+        assertEquals(hasher.fingerprintFor(lookupEntry), hasher.fingerprintFor(lookupEntryWithDifferentUpdated));
+    }
+
+    @Test
+    public void testFingerprintDoesntDependOnEquivalentsOrder() {
+        DateTime created = DateTime.now();
+        LookupEntry lookupEntry = createLookupEntry(created, created);
+        LookupRef first = new LookupRef("http://example.org/1", 2L, Publisher.BBC, ContentCategory.TOP_LEVEL_ITEM);
+        LookupRef second = new LookupRef("http://example.org/2", 3L, Publisher.PA, ContentCategory.TOP_LEVEL_ITEM);
+
+        assertEquals(
+                hasher.fingerprintFor(lookupEntry.copyWithEquivalents(ImmutableSet.of(first, second))),
+                hasher.fingerprintFor(lookupEntry.copyWithEquivalents(ImmutableSet.of(second, first)))
+        );
     }
-    
+
+    @Test
+    public void testFingerprintChangesWhenEquivalentsChange() {
+        DateTime created = DateTime.now();
+        LookupEntry lookupEntry = createLookupEntry(created, created);
+        LookupRef equivalent = new LookupRef("http://example.org/1", 2L, Publisher.BBC, ContentCategory.TOP_LEVEL_ITEM);
+
+        assertFalse(
+                hasher.fingerprintFor(lookupEntry)
+                        == hasher.fingerprintFor(lookupEntry.copyWithEquivalents(ImmutableSet.of(equivalent)))
+        );
+    }
+
     private LookupEntry createLookupEntry(DateTime created, DateTime updated) {
         String uri = "http://example.org";
         long id = 1;
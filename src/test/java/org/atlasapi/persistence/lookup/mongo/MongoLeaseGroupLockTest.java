@@ -0,0 +1,173 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.atlasapi.persistence.Transaction;
+
+import com.metabroadcast.common.persistence.MongoTestHelper;
+import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
+import com.metabroadcast.common.time.TimeMachine;
+
+import com.google.common.collect.ImmutableSet;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.Document;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MongoLeaseGroupLockTest {
+
+    private static final String LEASES = "lookupLeases";
+
+    private final TimeMachine clock = new TimeMachine();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private DatabasedMongoClient mongo;
+    private MongoLeaseGroupLock lock;
+    private MongoLeaseGroupLock otherNodeLock;
+
+    @Before
+    public void setUp() {
+        mongo = MongoTestHelper.anEmptyTestDatabaseWithMongoClient();
+        lock = leaseLock();
+        otherNodeLock = leaseLock();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        mongo.collection(LEASES, DBObject.class).deleteMany(new BasicDBObject());
+    }
+
+    @Test
+    public void testDisjointGroupsCanBeLockedByDifferentNodes() {
+        assertTrue(lock.tryLock(ImmutableSet.of("a", "b")));
+        assertTrue(otherNodeLock.tryLock(ImmutableSet.of("c", "d")));
+
+        assertTrue(lock.isHeld(ImmutableSet.of("a", "b")));
+        assertTrue(otherNodeLock.isHeld(ImmutableSet.of("c", "d")));
+    }
+
+    @Test
+    public void testOverlappingGroupIsNotPartiallyLocked() {
+        assertTrue(lock.tryLock(ImmutableSet.of("a", "b")));
+
+        assertFalse(otherNodeLock.tryLock(ImmutableSet.of("b", "c")));
+
+        assertTrue(otherNodeLock.tryLock(ImmutableSet.of("c")));
+        assertFalse(lock.isHeld(ImmutableSet.of("c")));
+    }
+
+    @Test
+    public void testLeasesAreOwnedByThread() throws Exception {
+        assertTrue(lock.tryLock(ImmutableSet.of("a")));
+
+        Future<Boolean> other = executor.submit(() -> {
+            lock.unlock(ImmutableSet.of("a"));
+            return lock.tryLock(ImmutableSet.of("a"));
+        });
+
+        assertFalse(other.get(1, TimeUnit.SECONDS));
+        assertTrue(lock.isHeld(ImmutableSet.of("a")));
+
+        lock.unlock(ImmutableSet.of("a"));
+
+        assertTrue(otherNodeLock.tryLock(ImmutableSet.of("a")));
+    }
+
+    @Test
+    public void testExpiredLeaseCanBeTakenOver() {
+        assertTrue(lock.tryLock(ImmutableSet.of("a")));
+
+        clock.jumpTo(clock.now().plusMinutes(2));
+
+        assertFalse(lock.isHeld(ImmutableSet.of("a")));
+        assertTrue(otherNodeLock.tryLock(ImmutableSet.of("a")));
+
+        lock.unlock(ImmutableSet.of("a"));
+
+        assertTrue(otherNodeLock.isHeld(ImmutableSet.of("a")));
+        assertFalse(lock.renew(Transaction.none(), ImmutableSet.of("a")));
+    }
+
+    @Test
+    public void testRenewExtendsOnlyLiveLeases() {
+        assertTrue(lock.tryLock(ImmutableSet.of("a", "b")));
+
+        clock.jumpTo(clock.now().plusSeconds(50));
+        assertTrue(lock.renew(Transaction.none(), ImmutableSet.of("a", "b")));
+
+        clock.jumpTo(clock.now().plusSeconds(50));
+        assertTrue(lock.isHeld(ImmutableSet.of("a", "b")));
+        assertFalse(otherNodeLock.tryLock(ImmutableSet.of("a")));
+
+        clock.jumpTo(clock.now().plusMinutes(2));
+        assertFalse(lock.renew(Transaction.none(), ImmutableSet.of("a", "b")));
+    }
+
+    @Test
+    public void testExpiredLeasesAreRemovedByTtlIndex() {
+        lock.ensureIndexes();
+
+        boolean ttlIndexed = false;
+        for (Document index : mongo.collection(LEASES, DBObject.class).listIndexes()) {
+            if (index.get("key", Document.class).containsKey("expires")) {
+                Number expireAfter = (Number) index.get("expireAfterSeconds");
+                ttlIndexed = expireAfter != null && expireAfter.longValue() == 0;
+            }
+        }
+        assertTrue(ttlIndexed);
+    }
+
+    @Test
+    public void testAwaitReleaseReturnsWhenContendedLeaseIsReleased() throws Exception {
+        assertTrue(otherNodeLock.tryLock(ImmutableSet.of("a")));
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Thread> waitingThread = new AtomicReference<>();
+        Future<Boolean> waiter = executor.submit(() -> {
+            waitingThread.set(Thread.currentThread());
+            started.countDown();
+            lock.awaitRelease(ImmutableSet.of("a", "b"));
+            return lock.tryLock(ImmutableSet.of("a", "b"));
+        });
+
+        started.await();
+        awaitPolling(waitingThread.get());
+        assertFalse(waiter.isDone());
+
+        otherNodeLock.unlock(ImmutableSet.of("a"));
+
+        assertTrue(waiter.get(1, TimeUnit.SECONDS));
+    }
+
+    /*
+     * Waits for the thread to sleep between polls of a contended lease, so
+     * that the lease is only released once it's being waited for.
+     */
+    private void awaitPolling(Thread thread) {
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+    }
+
+    private MongoLeaseGroupLock leaseLock() {
+        return new MongoLeaseGroupLock(
+                mongo,
+                LEASES,
+                clock,
+                Duration.standardSeconds(60),
+                Duration.millis(10)
+        );
+    }
+}
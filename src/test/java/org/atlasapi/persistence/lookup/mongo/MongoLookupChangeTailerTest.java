@@ -0,0 +1,123 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.persistence.audit.NoLoggingPersistenceAuditLog;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.lookup.entry.LookupEntryWriteListener;
+
+import com.google.common.collect.Iterables;
+import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
+import com.mongodb.BasicDBObject;
+import com.mongodb.ReadPreference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MongoLookupChangeTailerTest {
+
+    private DatabasedMongoClient mongo;
+    private MongoLookupEntryStore entryStore;
+    private ResumeTokenStore resumeTokens;
+    private MongoLookupChangeTailer tailer;
+
+    private final BlockingQueue<LookupEntry> written = new LinkedBlockingQueue<>();
+    private final LookupEntryWriteListener listener = entries -> Iterables.addAll(written, entries);
+
+    @Before
+    public void setUp() {
+        mongo = ReplicaSetTestHelper.anEmptyReplicaSetTestDatabase();
+        entryStore = new MongoLookupEntryStore(
+                mongo,
+                "lookup",
+                ReadPreference.primary(),
+                new NoLoggingPersistenceAuditLog(),
+                LoggerFactory.getLogger(getClass())
+        );
+        resumeTokens = new MongoResumeTokenStore(mongo);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (tailer != null) {
+            tailer.stop();
+        }
+        mongo.collection("lookup").deleteMany(new BasicDBObject());
+        mongo.collection("changeStreamProgress").deleteMany(new BasicDBObject());
+    }
+
+    @Test
+    public void testWrittenEntriesArePassedToListeners() throws InterruptedException {
+        tailer = startedTailer();
+        LookupEntry entry = entry("uriA", 1L);
+
+        entryStore.store(entry);
+
+        assertEquals(entry, written.poll(10, TimeUnit.SECONDS));
+        // the position is recorded once listeners have been told
+        assertTrue(awaitResumeToken("test", 10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTailingResumesAfterRestart() throws InterruptedException {
+        tailer = startedTailer();
+        LookupEntry first = entry("uriA", 1L);
+        entryStore.store(first);
+        assertEquals(first, written.poll(10, TimeUnit.SECONDS));
+        tailer.stop();
+
+        LookupEntry second = entry("uriB", 2L);
+        entryStore.store(second);
+        tailer = startedTailer();
+
+        assertEquals(second, written.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStoppedTailerCanBeStartedAgain() throws InterruptedException {
+        tailer = startedTailer();
+        LookupEntry first = entry("uriA", 1L);
+        entryStore.store(first);
+        assertEquals(first, written.poll(10, TimeUnit.SECONDS));
+        tailer.stop();
+
+        LookupEntry second = entry("uriB", 2L);
+        entryStore.store(second);
+        tailer.start();
+
+        assertEquals(second, written.poll(10, TimeUnit.SECONDS));
+    }
+
+    private boolean awaitResumeToken(String taskName, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!resumeTokens.resumeTokenFor(taskName).isPresent()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
+    private MongoLookupChangeTailer startedTailer() {
+        MongoLookupChangeTailer tailer = new MongoLookupChangeTailer(mongo, "lookup", resumeTokens, "test");
+        tailer.addListener(listener);
+        tailer.start();
+        return tailer;
+    }
+
+    private LookupEntry entry(String uri, long id) {
+        Item item = new Item(uri, uri, Publisher.BBC);
+        item.setId(id);
+        return LookupEntry.lookupEntryFrom(item);
+    }
+}
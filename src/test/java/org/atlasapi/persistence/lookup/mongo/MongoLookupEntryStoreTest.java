@@ -2,8 +2,10 @@ package org.atlasapi.persistence.lookup.mongo;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.metabroadcast.common.persistence.MongoTestHelper;
 import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
 import com.metabroadcast.common.persistence.mongo.MongoQueryBuilder;
@@ -20,6 +22,7 @@ import org.atlasapi.media.entity.LookupRef;
 import org.atlasapi.media.entity.ParentRef;
 import org.atlasapi.media.entity.Publisher;
 import org.atlasapi.media.entity.Series;
+import org.atlasapi.persistence.Transaction;
 import org.atlasapi.persistence.audit.NoLoggingPersistenceAuditLog;
 import org.atlasapi.persistence.content.ContentCategory;
 import org.atlasapi.persistence.content.listing.ContentListingProgress;
@@ -34,6 +37,9 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.slf4j.Logger;
 
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.google.common.base.Predicates.equalTo;
 import static org.atlasapi.persistence.lookup.entry.EquivRefs.Direction.BIDIRECTIONAL;
@@ -162,6 +168,23 @@ public class MongoLookupEntryStoreTest {
         assertEquals(firstEntry.created(), Iterables.getOnlyElement(entryStore.entriesForCanonicalUris(ImmutableList.of("newItemUri"))).created());
     }
     
+    @Test
+    public void testEnsureLookupsWritesNewAndChangedEntriesOnly() {
+        Item existingItem = new Item("existingUri", "existingCurie", Publisher.BBC);
+        entryStore.ensureLookup(existingItem);
+        LookupEntry existingEntry = Iterables.getOnlyElement(entryStore.entriesForCanonicalUris(ImmutableList.of("existingUri")));
+
+        existingItem.addAliasUrl("existingAlias");
+        Item newItem = new Item("newUri", "newCurie", Publisher.PA);
+
+        entryStore.ensureLookups(ImmutableList.of(existingItem, newItem));
+
+        LookupEntry updatedEntry = Iterables.getOnlyElement(entryStore.entriesForCanonicalUris(ImmutableList.of("existingUri")));
+        assertTrue(updatedEntry.aliasUrls().contains("existingAlias"));
+        assertEquals(existingEntry.created(), updatedEntry.created());
+        assertNotNull(Iterables.getOnlyElement(entryStore.entriesForCanonicalUris(ImmutableList.of("newUri"))));
+    }
+
     @Test
     public void testEnsureLookupWritesEntryWhenOfDifferentType() {
         
@@ -345,6 +368,101 @@ public class MongoLookupEntryStoreTest {
         assertEquals(testEntryOne, Iterables.getOnlyElement(aliasEntry));
     }
 
+    @Test
+    public void testChunkedReadsReturnEntriesInRequestedOrder() {
+        ExecutorService readExecutor = Executors.newFixedThreadPool(2);
+        try {
+            MongoLookupEntryStore chunkingStore = new MongoLookupEntryStore(
+                    mongo,
+                    "lookup",
+                    ReadPreference.primary(),
+                    new NoLoggingPersistenceAuditLog(),
+                    log,
+                    readExecutor,
+                    2
+            );
+            for (long i = 0; i < 5; i++) {
+                Item item = new Item("uri" + i, "curie" + i, Publisher.BBC);
+                item.setId(i);
+                chunkingStore.store(LookupEntry.lookupEntryFrom(item));
+            }
+
+            Iterable<LookupEntry> byUri = chunkingStore.entriesForCanonicalUris(
+                    ImmutableList.of("uri3", "missing", "uri0", "uri4", "uri1", "uri3")
+            );
+            assertEquals(
+                    ImmutableList.of("uri3", "uri0", "uri4", "uri1"),
+                    ImmutableList.copyOf(Iterables.transform(byUri, LookupEntry::uri))
+            );
+
+            Iterable<LookupEntry> byId = chunkingStore.entriesForIds(ImmutableList.of(4L, 2L, 0L, 3L, 1L));
+            assertEquals(
+                    ImmutableList.of(4L, 2L, 0L, 3L, 1L),
+                    ImmutableList.copyOf(Iterables.transform(byId, LookupEntry::id))
+            );
+
+            assertEquals(
+                    ImmutableMap.of("uri0", 0L, "uri2", 2L, "uri4", 4L),
+                    chunkingStore.idsForCanonicalUris(ImmutableList.of("uri0", "uri2", "uri4"))
+            );
+
+            Map<String, Set<String>> transitiveUris = chunkingStore.transitiveUrisFor(
+                    Transaction.none(),
+                    ImmutableList.of("uri0", "uri1", "uri2", "uri3", "uri4")
+            );
+            assertEquals(5, transitiveUris.size());
+            assertEquals(ImmutableSet.of("uri3"), transitiveUris.get("uri3"));
+
+            Map<String, Integer> setSizes = chunkingStore.equivalenceSetSizesFor(
+                    Transaction.none(),
+                    ImmutableList.of("uri0", "uri1", "uri2", "uri3", "uri4")
+            );
+            assertEquals(5, setSizes.size());
+            assertEquals(ImmutableSet.of(1), ImmutableSet.copyOf(setSizes.values()));
+        } finally {
+            readExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEntriesAreFoundByAliasBeforeAndAfterBackfill() {
+        MongoLookupEntryStore store = new MongoLookupEntryStore(
+                mongo,
+                "lookup",
+                ReadPreference.primary(),
+                new NoLoggingPersistenceAuditLog(),
+                log
+        );
+        Item testItemOne = new Item("testItemOneUri", "testItem1Curie", Publisher.BBC);
+        testItemOne.addAlias(new Alias("a", "b"));
+        LookupEntry testEntryOne = LookupEntry.lookupEntryFrom(testItemOne);
+        store.store(testEntryOne);
+
+        // as written before alias keys were stored
+        collection.updateOne(
+                new BasicDBObject("_id", "testItemOneUri"),
+                new BasicDBObject("$unset", new BasicDBObject("aliasValues", 1).append("aliasKeys", 1))
+        );
+        assertFoundByAlias(store, testEntryOne);
+        assertTrue(Iterables.isEmpty(store.entriesForAliases(Optional.of("x"), ImmutableList.of("b"))));
+
+        assertEquals(1, store.backfillAliasKeys());
+        assertEquals(0, store.backfillAliasKeys());
+
+        assertFoundByAlias(store, testEntryOne);
+    }
+
+    private void assertFoundByAlias(MongoLookupEntryStore store, LookupEntry entry) {
+        assertEquals(
+                entry,
+                Iterables.getOnlyElement(store.entriesForAliases(Optional.of("a"), ImmutableList.of("b")))
+        );
+        assertEquals(
+                entry,
+                Iterables.getOnlyElement(store.entriesForAliases(Optional.absent(), ImmutableList.of("b", "x")))
+        );
+    }
+
     @Test
     public void testEnsureUnpublishContentFilteredFromAliasLookup() {
         Item testItemOne = new Item("testItemOneUri", "testItem1Curie", Publisher.BBC);
@@ -602,6 +720,144 @@ public class MongoLookupEntryStoreTest {
         assertThat(Iterables.get(entries, 1).uri(), is(second.uri()));
     }
 
+    @Test
+    public void testStoreAllWritesNewAndChangedEntriesOnly() {
+        LookupEntry unchanged = getLookupEntry("uriA", 0L, Publisher.BBC);
+        LookupEntry changed = getLookupEntry("uriB", 1L, Publisher.BBC);
+        LookupEntry created = getLookupEntry("uriC", 2L, Publisher.BBC);
+
+        entryStore.store(unchanged);
+        entryStore.store(changed);
+        reset(log);
+
+        LookupEntry updated = changed.copyWithEquivalents(ImmutableSet.of(unchanged.lookupRef()));
+        entryStore.storeAll(
+                Transaction.none(),
+                ImmutableList.of(unchanged, updated, created)
+        );
+
+        verify(log).debug("Hash code not changed for URI {}; skipping write", unchanged.uri());
+        verify(log).debug("New entry or hash code changed for URI {}; writing", updated.uri());
+        verify(log).debug("New entry or hash code changed for URI {}; writing", created.uri());
+
+        Map<String, LookupEntry> stored = Maps.uniqueIndex(
+                entryStore.entriesForCanonicalUris(ImmutableList.of("uriA", "uriB", "uriC")),
+                LookupEntry::uri
+        );
+        assertEquals(unchanged, stored.get("uriA"));
+        assertEquals(updated.equivalents(), stored.get("uriB").equivalents());
+        assertEquals(created, stored.get("uriC"));
+    }
+
+    @Test
+    public void testStoreRecordsWriteHash() {
+        LookupEntry entry = getLookupEntry("uriA", 0L, Publisher.BBC);
+
+        entryStore.store(entry);
+
+        DBObject stored = collection.find(new BasicDBObject("_id", "uriA")).first();
+        assertEquals(
+                new LookupEntryHasher().fingerprintFor(entry),
+                stored.get(LookupEntryTranslator.WRITE_HASH)
+        );
+    }
+
+    @Test
+    public void testStoreRewritesEntryWithoutWriteHash() {
+        LookupEntry entry = getLookupEntry("uriA", 0L, Publisher.BBC);
+        collection.insertOne(new LookupEntryTranslator().toDbo(entry));
+
+        entryStore.store(entry);
+
+        verify(log).debug("New entry or hash code changed for URI {}; writing", entry.uri());
+        DBObject stored = collection.find(new BasicDBObject("_id", "uriA")).first();
+        assertNotNull(stored.get(LookupEntryTranslator.WRITE_HASH));
+    }
+
+    @Test
+    public void testEntriesForEquivalenceSetsReturnsAllMembersOfSets() {
+        LookupEntry first = getLookupEntry("uriA", 0L, Publisher.BBC);
+        LookupEntry second = getLookupEntry("uriB", 1L, Publisher.PA);
+        LookupEntry unrelated = getLookupEntry("uriC", 2L, Publisher.BBC);
+        ImmutableSet<LookupRef> set = ImmutableSet.of(first.lookupRef(), second.lookupRef());
+
+        entryStore.store(first.copyWithEquivalents(set));
+        entryStore.store(second.copyWithEquivalents(set));
+        entryStore.store(unrelated);
+
+        Iterable<LookupEntry> members = entryStore.entriesForEquivalenceSets(
+                Transaction.none(),
+                ImmutableSet.of("uriA")
+        );
+
+        assertEquals(
+                ImmutableSet.of("uriA", "uriB"),
+                ImmutableSet.copyOf(Iterables.transform(members, LookupEntry::uri))
+        );
+    }
+
+    @Test
+    public void testTransitiveUrisForReturnsSetMembersOfExistingEntries() {
+        LookupEntry first = getLookupEntry("uriA", 0L, Publisher.BBC);
+        LookupEntry second = getLookupEntry("uriB", 1L, Publisher.PA);
+        ImmutableSet<LookupRef> set = ImmutableSet.of(first.lookupRef(), second.lookupRef());
+
+        entryStore.store(first.copyWithEquivalents(set));
+        entryStore.store(second.copyWithEquivalents(set));
+
+        Map<String, Set<String>> transitiveUris = entryStore.transitiveUrisFor(
+                Transaction.none(),
+                ImmutableSet.of("uriA", "missing")
+        );
+
+        assertEquals(ImmutableMap.of("uriA", ImmutableSet.of("uriA", "uriB")), transitiveUris);
+    }
+
+    @Test
+    public void testEquivalenceSetSizesCountEachSetOnce() {
+        LookupEntry first = getLookupEntry("uriA", 0L, Publisher.BBC);
+        LookupEntry second = getLookupEntry("uriB", 1L, Publisher.PA);
+        LookupEntry third = getLookupEntry("uriC", 2L, Publisher.PA);
+        ImmutableSet<LookupRef> set = ImmutableSet.of(first.lookupRef(), second.lookupRef());
+
+        entryStore.store(first.copyWithEquivalents(set));
+        entryStore.store(second.copyWithEquivalents(set));
+        entryStore.store(third);
+
+        // as written before set sizes were stored
+        collection.updateOne(
+                new BasicDBObject("_id", "uriC"),
+                new BasicDBObject("$unset", new BasicDBObject("equivSetSize", 1))
+        );
+
+        Map<String, Integer> setSizes = entryStore.equivalenceSetSizesFor(
+                Transaction.none(),
+                ImmutableSet.of("uriA", "uriB", "uriC", "missing")
+        );
+
+        assertEquals(ImmutableMap.of("uriA", 2, "uriC", 1), setSizes);
+    }
+
+    @Test
+    public void testStoreRewritesEntryWrittenInEarlierLayout() {
+        LookupEntry entry = getLookupEntry("uriA", 0L, Publisher.BBC);
+        entryStore.store(entry);
+
+        // as written, with the fingerprint of the time, before set ids and
+        // sizes were stored
+        collection.updateOne(
+                new BasicDBObject("_id", "uriA"),
+                new BasicDBObject("$unset", new BasicDBObject("equivSet", 1).append("equivSetSize", 1))
+                        .append("$set", new BasicDBObject(LookupEntryTranslator.WRITE_HASH, 42L))
+        );
+
+        entryStore.store(entry);
+
+        DBObject stored = collection.find(new BasicDBObject("_id", "uriA")).first();
+        assertEquals("uriA", stored.get("equivSet"));
+        assertEquals(1, stored.get("equivSetSize"));
+    }
+
     private LookupEntry getLookupEntry(String uri, long id, Publisher publisher) {
         Item publishedItem = new Item(uri, uri, publisher);
         publishedItem.setId(id);
@@ -0,0 +1,58 @@
+package org.atlasapi.persistence.lookup.mongo;
+
+import com.metabroadcast.common.persistence.MongoTestHelper;
+import com.metabroadcast.common.persistence.mongo.DatabasedMongoClient;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Provides a test database on the local mongod, making it a single-member
+ * replica set if it was started with <code>--replSet</code> but hasn't been
+ * initiated. Tests are skipped if it wasn't started as a replica set.
+ */
+final class ReplicaSetTestHelper {
+
+    private static final int NO_REPLICATION_ENABLED = 76;
+    private static final int NOT_YET_INITIALIZED = 94;
+    private static final long PRIMARY_TIMEOUT_MILLIS = 30000;
+
+    private ReplicaSetTestHelper() {
+    }
+
+    static DatabasedMongoClient anEmptyReplicaSetTestDatabase() {
+        DatabasedMongoClient mongo = MongoTestHelper.anEmptyTestDatabaseWithMongoClient();
+        MongoDatabase admin = mongo.getMongoClient().getDatabase("admin");
+        try {
+            admin.runCommand(new Document("replSetGetStatus", 1));
+        } catch (MongoCommandException e) {
+            assumeTrue(
+                    "local mongod must be started with --replSet",
+                    e.getErrorCode() != NO_REPLICATION_ENABLED
+            );
+            if (e.getErrorCode() != NOT_YET_INITIALIZED) {
+                throw e;
+            }
+            admin.runCommand(new Document("replSetInitiate", new Document()));
+        }
+        awaitPrimary(admin);
+        return mongo;
+    }
+
+    private static void awaitPrimary(MongoDatabase admin) {
+        long deadline = System.currentTimeMillis() + PRIMARY_TIMEOUT_MILLIS;
+        while (!admin.runCommand(new Document("isMaster", 1)).getBoolean("ismaster", false)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("local replica set has no primary");
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package org.atlasapi.persistence.lookup.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.atlasapi.media.entity.Item;
+import org.atlasapi.media.entity.LookupRef;
+import org.atlasapi.media.entity.Publisher;
+import org.atlasapi.messaging.v3.EquivalenceChangeMessage;
+import org.atlasapi.persistence.Transaction;
+import org.atlasapi.persistence.lookup.entry.LookupEntry;
+import org.atlasapi.persistence.lookup.entry.LookupEntryStore;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.metabroadcast.common.time.TimeMachine;
+import com.metabroadcast.common.time.Timestamp;
+import com.mongodb.client.ClientSession;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SnapshotLookupEntryStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TimeMachine clock = new TimeMachine();
+    private final LookupEntryStore delegate = mock(LookupEntryStore.class);
+
+    private LookupEntry first;
+    private LookupEntry second;
+    private LookupEntry third;
+    private LookupSnapshot snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        first = LookupEntry.lookupEntryFrom(item("http://first", 1L, Publisher.BBC));
+        second = LookupEntry.lookupEntryFrom(item("http://second", 2L, Publisher.PA));
+        third = LookupEntry.lookupEntryFrom(item("http://third", 3L, Publisher.BBC));
+        LookupRef missing = new LookupRef("http://missing", 4L, Publisher.PA, first.lookupRef().category());
+        // first and second are equivalent, and so is an entry which wasn't exported
+        ImmutableSet<LookupRef> set = ImmutableSet.of(first.lookupRef(), second.lookupRef(), missing);
+        first = first.copyWithEquivalents(set);
+        second = second.copyWithEquivalents(set);
+
+        snapshot = write(ImmutableList.of(first, second, third));
+    }
+
+    @Test
+    public void testEntriesAreReadFromSnapshot() {
+        LookupEntry read = snapshot.entryForUri("http://first");
+
+        assertEquals(first.uri(), read.uri());
+        assertEquals(first.id(), read.id());
+        assertEquals(first.lookupRef(), read.lookupRef());
+        assertEquals(first.equivalents(), read.equivalents());
+        assertTrue(read.activelyPublished());
+        assertEquals(ImmutableSet.of(third.lookupRef()), snapshot.entryForId(3L).equivalents());
+        assertEquals("http://second", snapshot.entryForId(2L).uri());
+    }
+
+    @Test
+    public void testEquivalentsWithoutEntriesAreNotReturned() {
+        assertNull(snapshot.entryForUri("http://missing"));
+        assertNull(snapshot.entryForId(4L));
+        assertNull(snapshot.entryForUri("http://absent"));
+        assertNull(snapshot.entryForId(5L));
+    }
+
+    @Test
+    public void testEntrysOwnRefTakesPrecedenceOverStaleRefsToIt() throws IOException {
+        LookupRef stale = new LookupRef("http://third", 99L, Publisher.PA, third.lookupRef().category());
+        LookupEntry later = LookupEntry.lookupEntryFrom(item("http://later", 6L, Publisher.PA))
+                .copyWithEquivalents(ImmutableSet.of(stale));
+
+        LookupSnapshot written = write(ImmutableList.of(third, later));
+
+        LookupEntry read = written.entryForUri("http://third");
+        assertEquals(Long.valueOf(3L), read.id());
+        assertEquals(Publisher.BBC, read.lookupRef().publisher());
+        assertEquals("http://third", written.entryForId(3L).uri());
+        assertNull(written.entryForId(99L));
+    }
+
+    @Test
+    public void testMissingEntriesAreReadFromDelegate() {
+        SnapshotLookupEntryStore store = new SnapshotLookupEntryStore(delegate, snapshot, clock);
+        LookupEntry absent = LookupEntry.lookupEntryFrom(item("http://absent", 5L, Publisher.PA));
+        when(delegate.entriesForCanonicalUris(ImmutableSet.of("http://absent")))
+                .thenReturn(ImmutableList.of(absent));
+        when(delegate.entriesForIds(ImmutableSet.of(5L))).thenReturn(ImmutableList.of(absent));
+
+        Iterable<LookupEntry> read = store.entriesForCanonicalUris(
+                ImmutableList.of("http://absent", "http://third")
+        );
+
+        assertEquals(
+                ImmutableList.of("http://absent", "http://third"),
+                ImmutableList.copyOf(Iterables.transform(read, LookupEntry.TO_ID))
+        );
+        assertEquals(0, store.overlaySize());
+        assertEquals(
+                ImmutableList.of(5L, 3L),
+                ImmutableList.copyOf(Iterables.transform(
+                        store.entriesForIds(ImmutableList.of(5L, 3L)),
+                        LookupEntry.TO_ID
+                ))
+        );
+        verify(delegate).entriesForIds(ImmutableSet.of(5L));
+    }
+
+    @Test
+    public void testEntriesStoredInTransactionAreOverlaidOnlyOnceCommitted() {
+        SnapshotLookupEntryStore store = new SnapshotLookupEntryStore(delegate, snapshot, clock);
+        LookupEntry unpublished = LookupEntry.lookupEntryFrom(
+                unpublished(item("http://third", 3L, Publisher.BBC))
+        );
+        ClientSession session = mock(ClientSession.class);
+
+        try (Transaction aborted = Transaction.of(session)) {
+            store.store(aborted, unpublished);
+        }
+        assertEquals(0, store.overlaySize());
+
+        Transaction committed = Transaction.of(session);
+        store.storeAll(committed, ImmutableList.of(unpublished));
+        assertTrue(store.entriesForIds(ImmutableList.of(3L)).iterator().next().activelyPublished());
+
+        committed.commit();
+        assertFalse(store.entriesForIds(ImmutableList.of(3L)).iterator().next().activelyPublished());
+    }
+
+    @Test
+    public void testReadsGoToDelegateAfterMissedWritesUntilNewerSnapshotIsSwapped() throws IOException {
+        SnapshotLookupEntryStore store = new SnapshotLookupEntryStore(delegate, snapshot, clock);
+        LookupEntry unpublished = LookupEntry.lookupEntryFrom(
+                unpublished(item("http://third", 3L, Publisher.BBC))
+        );
+        when(delegate.entriesForIds(ImmutableList.of(3L))).thenReturn(ImmutableList.of(unpublished));
+        store.written(ImmutableList.of(third));
+
+        clock.jumpTo(clock.now().plusMinutes(1));
+        store.missedWrites();
+
+        assertFalse(store.isServingSnapshot());
+        assertEquals(0, store.overlaySize());
+        assertFalse(store.entriesForIds(ImmutableList.of(3L)).iterator().next().activelyPublished());
+
+        store.swap(snapshot);
+        assertFalse(store.isServingSnapshot());
+
+        clock.jumpTo(clock.now().plusMinutes(1));
+        store.swap(write(ImmutableList.of(first, second, unpublished)));
+        assertTrue(store.isServingSnapshot());
+        assertFalse(store.entriesForIds(ImmutableList.of(3L)).iterator().next().activelyPublished());
+        verify(delegate).entriesForIds(ImmutableList.of(3L));
+    }
+
+    @Test
+    public void testWrittenEntriesOverlaySnapshotUntilNewerSnapshotIsSwapped() throws IOException {
+        SnapshotLookupEntryStore store = new SnapshotLookupEntryStore(delegate, snapshot, clock);
+        LookupEntry unpublished = LookupEntry.lookupEntryFrom(
+                unpublished(item("http://third", 3L, Publisher.BBC))
+        );
+
+        clock.jumpTo(clock.now().plusMinutes(1));
+        store.written(ImmutableList.of(unpublished));
+
+        assertFalse(store.entriesForIds(ImmutableList.of(3L)).iterator().next().activelyPublished());
+        assertEquals(1, store.overlaySize());
+
+        clock.jumpTo(clock.now().plusMinutes(1));
+        store.swap(write(ImmutableList.of(first, second, unpublished)));
+
+        assertEquals(0, store.overlaySize());
+        assertFalse(store.entriesForIds(ImmutableList.of(3L)).iterator().next().activelyPublished());
+    }
+
+    @Test
+    public void testEntriesWrittenDuringExportSurviveSwap() throws IOException {
+        SnapshotLookupEntryStore store = new SnapshotLookupEntryStore(delegate, snapshot, clock);
+        LookupSnapshot exported = write(ImmutableList.of(first, second, third));
+
+        clock.jumpTo(clock.now().plusMinutes(1));
+        store.written(ImmutableList.of(LookupEntry.lookupEntryFrom(
+                unpublished(item("http://third", 3L, Publisher.BBC))
+        )));
+        store.swap(exported);
+
+        assertEquals(1, store.overlaySize());
+        assertFalse(store.entriesForCanonicalUris(ImmutableList.of("http://third"))
+                .iterator().next().activelyPublished());
+    }
+
+    @Test
+    public void testInvalidationDoesNotReplaceEntryWrittenDuringItsRead() {
+        SnapshotLookupEntryStore store = new SnapshotLookupEntryStore(delegate, snapshot, clock);
+        LookupEntry unpublished = LookupEntry.lookupEntryFrom(
+                unpublished(item("http://third", 3L, Publisher.BBC))
+        );
+        when(delegate.entriesForIds(ImmutableSet.of(3L))).thenReturn(ImmutableList.of(third));
+        when(delegate.entriesForCanonicalUris(ImmutableSet.of("http://third"))).thenAnswer(invocation -> {
+            // written while the stale entry is being read
+            clock.jumpTo(clock.now().plusSeconds(1));
+            store.written(ImmutableList.of(unpublished));
+            return ImmutableList.of(third);
+        });
+
+        store.invalidate(new EquivalenceChangeMessage(
+                "message",
+                Timestamp.of(0L),
+                3L,
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(),
+                ImmutableSet.of(Publisher.BBC.key())
+        ));
+
+        assertFalse(store.entriesForCanonicalUris(ImmutableList.of("http://third"))
+                .iterator().next().activelyPublished());
+        assertFalse(store.entriesForIds(ImmutableList.of(3L))
+                .iterator().next().activelyPublished());
+    }
+
+    private LookupSnapshot write(Iterable<LookupEntry> entries) throws IOException {
+        File file = folder.newFile();
+        new LookupSnapshotWriter(clock).write(entries, file.toPath());
+        return LookupSnapshot.open(file.toPath());
+    }
+
+    private Item unpublished(Item item) {
+        item.setActivelyPublished(false);
+        return item;
+    }
+
+    private Item item(String uri, long id, Publisher publisher) {
+        Item item = new Item(uri, uri, publisher);
+        item.setId(id);
+        return item;
+    }
+}
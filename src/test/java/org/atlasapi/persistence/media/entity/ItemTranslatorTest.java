@@ -329,6 +329,17 @@ public class ItemTranslatorTest extends TestCase {
         assertLastUpdatedNull(policyDbo);
     }
     
+    public void testHashOfTranslatedItemMatchesHashOfItemWithoutChangingIt() {
+        Item item = new Item("canonicalUri", "curie", Publisher.BBC);
+        createModel(item);
+        DBObject dbo = itemTranslator.toDB(item);
+        String translated = dbo.toString();
+
+        assertEquals(itemTranslator.hashCodeOf(item), itemTranslator.hashCodeOfTranslated(dbo));
+        assertEquals(translated, dbo.toString());
+        assertEquals(itemTranslator.toDB(item), dbo);
+    }
+
     public void assertLastUpdatedNull(DBObject dbo) {
         assertNull(dbo.get(IdentifiedTranslator.LAST_UPDATED));
     }